@@ -0,0 +1,112 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves album ids to album art paths in batches, each album is queried at most once.
+ */
+
+public class AlbumArtResolver {
+
+    /*Keeps every IN clause well below SQLite's limit of 999 bound arguments*/
+    static final int MAX_BATCH_SIZE = 500;
+
+    public interface AlbumQuery {
+        /*Returns the art path of every album found among albumIds, albums without art may be left out*/
+        Map<Long, String> query(long[] albumIds);
+    }
+
+    private final AlbumQuery albumQuery;
+    /*album id -> art path, a null value means the album has been queried and has no art*/
+    private final Map<Long, String> artPaths = new HashMap<>();
+
+    public AlbumArtResolver(AlbumQuery albumQuery) {
+        this.albumQuery = albumQuery;
+    }
+
+    public static AlbumArtResolver forContentResolver(final ContentResolver contentResolver) {
+        return new AlbumArtResolver(new AlbumQuery() {
+            @Override
+            public Map<Long, String> query(long[] albumIds) {
+                return queryAlbums(contentResolver, albumIds);
+            }
+        });
+    }
+
+    /*Resolve every album in albumIds that has not been seen yet, duplicates are allowed*/
+    public synchronized void prefetch(long[] albumIds) {
+        long[] missing = new long[albumIds.length];
+        int count = 0;
+        for (long albumId : albumIds) {
+            if (!artPaths.containsKey(albumId)) {
+                /*Mark as pending so that duplicates within the same call are skipped*/
+                artPaths.put(albumId, null);
+                missing[count++] = albumId;
+            }
+        }
+        for (int start = 0; start < count; start += MAX_BATCH_SIZE) {
+            long[] batch = Arrays.copyOfRange(missing, start, Math.min(count, start + MAX_BATCH_SIZE));
+            Map<Long, String> result = albumQuery.query(batch);
+            if (result != null) {
+                artPaths.putAll(result);
+            }
+        }
+    }
+
+    /*Art paths resolved earlier, from a LibrarySnapshot. Albums already known are kept*/
+    public synchronized void seed(long[] albumIds, String[] paths) {
+        for (int i = 0; i < albumIds.length; i++) {
+            if (!artPaths.containsKey(albumIds[i])) {
+                artPaths.put(albumIds[i], paths[i]);
+            }
+        }
+    }
+
+    /*Copy of every album resolved so far, null values for albums without art*/
+    public synchronized Map<Long, String> getResolved() {
+        return new HashMap<>(artPaths);
+    }
+
+    /*Returns the art path of the album or null if it has none*/
+    public synchronized String getArtPath(long albumId) {
+        if (!artPaths.containsKey(albumId)) {
+            prefetch(new long[]{albumId});
+        }
+        return artPaths.get(albumId);
+    }
+
+    private static Map<Long, String> queryAlbums(ContentResolver contentResolver, long[] albumIds) {
+        Map<Long, String> result = new HashMap<>();
+        Uri uri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
+        String[] projection = {MediaStore.Audio.Albums._ID, MediaStore.Audio.Albums.ALBUM_ART};
+
+        StringBuilder selection = new StringBuilder(MediaStore.Audio.Albums._ID).append(" IN (");
+        String[] selectionArgs = new String[albumIds.length];
+        for (int i = 0; i < albumIds.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = String.valueOf(albumIds[i]);
+        }
+        selection.append(')');
+
+        Cursor cursor = contentResolver.query(uri, projection, selection.toString(), selectionArgs, null);
+        if (cursor != null) {
+            try {
+                int idColumn = cursor.getColumnIndex(MediaStore.Audio.Albums._ID);
+                int artColumn = cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART);
+                while (cursor.moveToNext()) {
+                    result.put(cursor.getLong(idColumn), cursor.getString(artColumn));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,330 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads album art thumbnails through a bounded memory cache and a disk cache of downscaled images.
+ */
+
+public class ArtworkLoader {
+
+    private static final String TAG = "ArtworkLoader";
+    private static final String DISK_CACHE_DIR = "artwork";
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    private static final int THREAD_COUNT = 2;
+
+    private static ArtworkLoader instance;
+
+    public interface Callback {
+        /*Main thread, bitmap is null if the album has no art*/
+        void onArtworkLoaded(long albumId, Bitmap bitmap);
+    }
+
+    private final AlbumArtResolver albumArtResolver;
+    /*album id -> thumbnail, bounded by the byte size of the bitmaps*/
+    private final LruCache<Long, Bitmap> memoryCache;
+    private final File diskCacheDir;
+    private final int thumbnailSize;
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /*Albums known to have no art, these go straight to the placeholder*/
+    private final Set<Long> missingArt = Collections.synchronizedSet(new HashSet<Long>());
+    /*Per worker bitmap that the sampled decode of an original image is decoded into through inBitmap*/
+    private final ThreadLocal<Bitmap> decodeBuffer = new ThreadLocal<>();
+
+    public static synchronized ArtworkLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ArtworkLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ArtworkLoader(Context context) {
+        albumArtResolver = AlbumArtResolver.forContentResolver(context.getContentResolver());
+        thumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.album_art_thumbnail_size);
+        /*Use an eighth of the heap for thumbnails*/
+        int cacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<Long, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(Long albumId, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimDiskCache();
+            }
+        });
+    }
+
+    /*Shared with the AudioScanner so the album art paths are resolved in page sized batches*/
+    public AlbumArtResolver getAlbumArtResolver() {
+        return albumArtResolver;
+    }
+
+    /*Show the thumbnail of the album in imageView, any earlier request for the view is cancelled*/
+    public void load(long albumId, ImageView imageView) {
+        cancel(imageView);
+        Bitmap bitmap = memoryCache.get(albumId);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+        imageView.setImageResource(R.drawable.images);
+        if (missingArt.contains(albumId)) {
+            return;
+        }
+        Request request = new Request(albumId, imageView);
+        imageView.setTag(request);
+        request.future = executor.submit(request);
+    }
+
+    /*Cancel the pending request of a view that is being recycled*/
+    public void cancel(ImageView imageView) {
+        Object tag = imageView.getTag();
+        if (tag instanceof Request) {
+            ((Request) tag).cancel();
+            imageView.setTag(null);
+        }
+    }
+
+    /*Decode the art of the album with its shorter side at size pixels, for the notification and the
+    * media session. These are larger than the thumbnails and not cached here, callers keep the few they show*/
+    public void loadArtwork(final long albumId, final int size, final Callback callback) {
+        if (missingArt.contains(albumId)) {
+            callback.onArtworkLoaded(albumId, null);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String artPath = albumArtResolver.getArtPath(albumId);
+                Bitmap decoded = null;
+                if (artPath != null && new File(artPath).exists()) {
+                    decoded = decodeScaled(artPath, size);
+                }
+                if (decoded == null) {
+                    missingArt.add(albumId);
+                }
+                final Bitmap bitmap = decoded;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onArtworkLoaded(albumId, bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    /*Loads the thumbnail on the calling thread, returns null if the album has no art*/
+    Bitmap loadThumbnail(long albumId) {
+        Bitmap bitmap = memoryCache.get(albumId);
+        if (bitmap != null || missingArt.contains(albumId)) {
+            return bitmap;
+        }
+
+        File cached = new File(diskCacheDir, albumId + ".jpg");
+        if (cached.exists()) {
+            bitmap = BitmapFactory.decodeFile(cached.getPath());
+            /*Keep recently used thumbnails when the disk cache is trimmed*/
+            cached.setLastModified(System.currentTimeMillis());
+        }
+        if (bitmap == null) {
+            String artPath = albumArtResolver.getArtPath(albumId);
+            if (artPath != null && new File(artPath).exists()) {
+                bitmap = decodeScaled(artPath, thumbnailSize);
+            }
+            if (bitmap == null) {
+                missingArt.add(albumId);
+                return null;
+            }
+            writeToDiskCache(cached, bitmap);
+        }
+        memoryCache.put(albumId, bitmap);
+        return bitmap;
+    }
+
+    private Bitmap decodeScaled(String path, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, size);
+        options.inMutable = true;
+        Bitmap reusable = decodeBuffer.get();
+        if (reusable != null && canReuse(reusable, options)) {
+            options.inBitmap = reusable;
+        }
+
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            /*The buffer could not be reused for this image*/
+            options.inBitmap = null;
+            sampled = BitmapFactory.decodeFile(path, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+        decodeBuffer.set(sampled);
+
+        /*Scale the shorter side to the requested size, the view crops the rest*/
+        float scale = (float) size / Math.min(sampled.getWidth(), sampled.getHeight());
+        int width = Math.max(1, Math.round(sampled.getWidth() * scale));
+        int height = Math.max(1, Math.round(sampled.getHeight() * scale));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(sampled, width, height, true);
+        if (thumbnail == sampled) {
+            /*The decode buffer is overwritten by the next decode, it must not end up in the cache*/
+            thumbnail = sampled.copy(sampled.getConfig(), false);
+        }
+        return thumbnail;
+    }
+
+    static int calculateInSampleSize(int width, int height, int requiredSize) {
+        int inSampleSize = 1;
+        /*Largest power of two that keeps both sides at least as large as the thumbnail*/
+        while (width / (inSampleSize * 2) >= requiredSize && height / (inSampleSize * 2) >= requiredSize) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static boolean canReuse(Bitmap candidate, BitmapFactory.Options options) {
+        if (!candidate.isMutable() || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        int width = (int) Math.ceil((double) options.outWidth / options.inSampleSize);
+        int height = (int) Math.ceil((double) options.outHeight / options.inSampleSize);
+        /*ARGB_8888 takes 4 bytes per pixel*/
+        return (long) width * height * 4 <= candidate.getAllocationByteCount();
+    }
+
+    private void writeToDiskCache(File file, Bitmap bitmap) {
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            return;
+        }
+        /*Write to a temporary file first so a half written thumbnail is never read*/
+        File temp = new File(diskCacheDir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache thumbnail " + file.getName(), e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /*Delete the least recently used thumbnails once the disk cache grows over its budget*/
+    private void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= DISK_CACHE_SIZE) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (size <= DISK_CACHE_SIZE) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private class Request implements Runnable {
+
+        private final long albumId;
+        private final ImageView imageView;
+        private volatile boolean cancelled = false;
+        private Future<?> future;
+
+        Request(long albumId, ImageView imageView) {
+            this.albumId = albumId;
+            this.imageView = imageView;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadThumbnail(albumId);
+            if (bitmap == null || cancelled) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    /*The view may have been rebound to another track in the meantime*/
+                    if (!cancelled && imageView.getTag() == Request.this) {
+                        imageView.setImageBitmap(bitmap);
+                        imageView.setTag(null);
+                    }
+                }
+            });
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package com.techmagic.wordpress.audioplayer;
 
-import android.graphics.Bitmap;
-
 import java.io.Serializable;
 
 /**
@@ -14,14 +12,15 @@ public class Audio implements Serializable {
     private String title;
     private String album;
     private String artist;
-    private Bitmap album_art;
+    /*Album art is loaded through the ArtworkLoader by album id*/
+    private long albumId;
 
-    public Audio(String data, String title, String album, String artist,Bitmap album_art) {
+    public Audio(String data, String title, String album, String artist, long albumId) {
         this.data = data;
         this.title = title;
         this.album = album;
         this.artist = artist;
-        this.album_art = album_art;
+        this.albumId = albumId;
     }
 
     public String getData() {
@@ -56,11 +55,11 @@ public class Audio implements Serializable {
         this.artist = artist;
     }
 
-    public Bitmap getAlbum_art() {
-        return album_art;
+    public long getAlbumId() {
+        return albumId;
     }
 
-    public void setAlbum_art(Bitmap album_art) {
-        this.album_art = album_art;
+    public void setAlbumId(long albumId) {
+        this.albumId = albumId;
     }
 }
@@ -0,0 +1,333 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column oriented store for the audio library.
+ * Every track is a position into primitive arrays, titles and paths share one char buffer
+ * and album/artist names are deduplicated through a StringPool.
+ * Rows are only ever appended, characters already in the buffer are never overwritten,
+ * so char arrays handed out by getChars() stay valid.
+ * A snapshot() shares the arrays of the library and can be read from other threads
+ * while the library keeps growing.
+ */
+
+public class AudioLibrary implements Playlist {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size = 0;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] albumIds = new long[INITIAL_CAPACITY];
+    private int[] albumRefs = new int[INITIAL_CAPACITY];
+    private int[] artistRefs = new int[INITIAL_CAPACITY];
+    /*The title of track i is chars[titleStarts[i], dataStarts[i]), its path chars[dataStarts[i], dataEnds[i])*/
+    private int[] titleStarts = new int[INITIAL_CAPACITY];
+    private int[] dataStarts = new int[INITIAL_CAPACITY];
+    private int[] dataEnds = new int[INITIAL_CAPACITY];
+
+    private char[] chars = new char[INITIAL_CAPACITY * 64];
+    private int charCount = 0;
+    private final StringPool strings;
+    private final boolean readOnly;
+
+    public AudioLibrary() {
+        strings = new StringPool();
+        readOnly = false;
+    }
+
+    private AudioLibrary(AudioLibrary source) {
+        size = source.size;
+        ids = source.ids;
+        albumIds = source.albumIds;
+        albumRefs = source.albumRefs;
+        artistRefs = source.artistRefs;
+        titleStarts = source.titleStarts;
+        dataStarts = source.dataStarts;
+        dataEnds = source.dataEnds;
+        chars = source.chars;
+        charCount = source.charCount;
+        strings = source.strings.view();
+        readOnly = true;
+    }
+
+    /*Read only view of the tracks added so far. The source only writes past the snapshot's size
+    * or into new arrays, so the shared arrays never change under the snapshot*/
+    public AudioLibrary snapshot() {
+        return readOnly ? this : new AudioLibrary(this);
+    }
+
+    public static AudioLibrary fromList(List<Audio> list) {
+        AudioLibrary library = new AudioLibrary();
+        for (int i = 0; i < list.size(); i++) {
+            Audio audio = list.get(i);
+            library.add(i, audio.getData(), audio.getTitle(), audio.getAlbum(), audio.getArtist(), audio.getAlbumId());
+        }
+        return library;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /*Append a track and return its position*/
+    public int add(int id, String data, String title, String album, String artist, long albumId) {
+        checkWritable();
+        ensureCapacity(size + 1);
+        ids[size] = id;
+        albumIds[size] = albumId;
+        albumRefs[size] = strings.intern(album);
+        artistRefs[size] = strings.intern(artist);
+        titleStarts[size] = charCount;
+        appendChars(title);
+        dataStarts[size] = charCount;
+        appendChars(data);
+        dataEnds[size] = charCount;
+        return size++;
+    }
+
+    /*Append every track of other, used to merge the pages of a scan*/
+    public void addAll(AudioLibrary other) {
+        checkWritable();
+        ensureCapacity(size + other.size);
+        int base = other.size > 0 ? other.titleStarts[0] : 0;
+        int length = other.charCount - base;
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        /*The text of other is copied in one go and its offsets are shifted*/
+        System.arraycopy(other.chars, base, chars, charCount, length);
+        int shift = charCount - base;
+        for (int i = 0; i < other.size; i++) {
+            ids[size] = other.ids[i];
+            albumIds[size] = other.albumIds[i];
+            albumRefs[size] = strings.intern(other.strings.get(other.albumRefs[i]));
+            artistRefs[size] = strings.intern(other.strings.get(other.artistRefs[i]));
+            titleStarts[size] = other.titleStarts[i] + shift;
+            dataStarts[size] = other.dataStarts[i] + shift;
+            dataEnds[size] = other.dataEnds[i] + shift;
+            size++;
+        }
+        charCount += length;
+    }
+
+    /*Append track position of source, its text is copied without going through Strings*/
+    public int add(AudioLibrary source, int position) {
+        checkWritable();
+        source.checkPosition(position);
+        ensureCapacity(size + 1);
+        int start = source.titleStarts[position];
+        int length = source.dataEnds[position] - start;
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        System.arraycopy(source.chars, start, chars, charCount, length);
+        int shift = charCount - start;
+        ids[size] = source.ids[position];
+        albumIds[size] = source.albumIds[position];
+        albumRefs[size] = strings.intern(source.strings.get(source.albumRefs[position]));
+        artistRefs[size] = strings.intern(source.strings.get(source.artistRefs[position]));
+        titleStarts[size] = start + shift;
+        dataStarts[size] = source.dataStarts[position] + shift;
+        dataEnds[size] = source.dataEnds[position] + shift;
+        charCount += length;
+        return size++;
+    }
+
+    @Override
+    public int getId(int position) {
+        checkPosition(position);
+        return ids[position];
+    }
+
+    public long getAlbumId(int position) {
+        checkPosition(position);
+        return albumIds[position];
+    }
+
+    public String getAlbum(int position) {
+        checkPosition(position);
+        return strings.get(albumRefs[position]);
+    }
+
+    public String getArtist(int position) {
+        checkPosition(position);
+        return strings.get(artistRefs[position]);
+    }
+
+    public String getTitle(int position) {
+        checkPosition(position);
+        return new String(chars, titleStarts[position], dataStarts[position] - titleStarts[position]);
+    }
+
+    public String getData(int position) {
+        checkPosition(position);
+        return new String(chars, dataStarts[position], dataEnds[position] - dataStarts[position]);
+    }
+
+    /*The shared char buffer, use with getTitleStart/getTitleLength to read a title without allocating*/
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int getTitleStart(int position) {
+        checkPosition(position);
+        return titleStarts[position];
+    }
+
+    public int getTitleLength(int position) {
+        checkPosition(position);
+        return dataStarts[position] - titleStarts[position];
+    }
+
+    /*Characters of the shared buffer in use*/
+    int getCharCount() {
+        return charCount;
+    }
+
+    /*Distinct album and artist names*/
+    int getPooledStringCount() {
+        return strings.size();
+    }
+
+    /*Materialize a track, meant for the single active track rather than for every row*/
+    @Override
+    public Audio getAudio(int position) {
+        return new Audio(getData(position), getTitle(position), getAlbum(position), getArtist(position), getAlbumId(position));
+    }
+
+    /*The columns, text and pool as they are in memory, so readColumns fills the arrays in bulk*/
+    void writeColumns(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(charCount);
+        out.writeInt(strings.size());
+        for (int i = 0; i < size; i++) {
+            out.writeInt(ids[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeLong(albumIds[i]);
+        }
+        writeInts(out, albumRefs);
+        writeInts(out, artistRefs);
+        writeInts(out, titleStarts);
+        writeInts(out, dataStarts);
+        writeInts(out, dataEnds);
+        for (int i = 0; i < charCount; i++) {
+            out.writeChar(chars[i]);
+        }
+        for (int ref = 0; ref < strings.size(); ref++) {
+            String value = strings.get(ref);
+            out.writeInt(value.length());
+            out.writeChars(value);
+        }
+    }
+
+    private void writeInts(DataOutputStream out, int[] column) throws IOException {
+        for (int i = 0; i < size; i++) {
+            out.writeInt(column[i]);
+        }
+    }
+
+    /*Reads what writeColumns wrote from the position of in, which is left after it*/
+    static AudioLibrary readColumns(ByteBuffer in) throws IOException {
+        if (in.remaining() < 12) {
+            throw new IOException("Truncated library");
+        }
+        int size = in.getInt();
+        int charCount = in.getInt();
+        int stringCount = in.getInt();
+        /*Per track the id, the album id and five int columns, then the text and a length per pooled string*/
+        if (size < 0 || charCount < 0 || stringCount < 0
+                || (long) size * 32 + (long) charCount * 2 + (long) stringCount * 4 > in.remaining()) {
+            throw new IOException("Truncated library");
+        }
+        AudioLibrary library = new AudioLibrary();
+        library.size = size;
+        library.ids = readInts(in, size);
+        library.albumIds = new long[size];
+        in.asLongBuffer().get(library.albumIds);
+        in.position(in.position() + size * 8);
+        library.albumRefs = readInts(in, size);
+        library.artistRefs = readInts(in, size);
+        library.titleStarts = readInts(in, size);
+        library.dataStarts = readInts(in, size);
+        library.dataEnds = readInts(in, size);
+        library.chars = new char[Math.max(charCount, INITIAL_CAPACITY)];
+        in.asCharBuffer().get(library.chars, 0, charCount);
+        in.position(in.position() + charCount * 2);
+        library.charCount = charCount;
+        for (int ref = 0; ref < stringCount; ref++) {
+            int length = in.remaining() < 4 ? -1 : in.getInt();
+            if (length < 0 || (long) length * 2 > in.remaining()) {
+                throw new IOException("Truncated string pool");
+            }
+            CharBuffer value = in.asCharBuffer();
+            value.limit(length);
+            if (library.strings.intern(value.toString()) != ref) {
+                throw new IOException("Duplicate in the string pool");
+            }
+            in.position(in.position() + length * 2);
+        }
+        /*A corrupt file must not turn into out of bounds reads in the list*/
+        for (int i = 0; i < size; i++) {
+            if (library.albumRefs[i] < StringPool.NULL || library.albumRefs[i] >= stringCount
+                    || library.artistRefs[i] < StringPool.NULL || library.artistRefs[i] >= stringCount
+                    || library.titleStarts[i] < 0 || library.titleStarts[i] > library.dataStarts[i]
+                    || library.dataStarts[i] > library.dataEnds[i] || library.dataEnds[i] > charCount) {
+                throw new IOException("Corrupt track " + i);
+            }
+        }
+        return library;
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] column = new int[count];
+        in.asIntBuffer().get(column);
+        in.position(in.position() + count * 4);
+        return column;
+    }
+
+    private void appendChars(String value) {
+        int length = value == null ? 0 : value.length();
+        if (charCount + length > chars.length) {
+            /*Grow into a new array, the old one keeps its content for anyone still holding it*/
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        if (length > 0) {
+            value.getChars(0, length, chars, charCount);
+            charCount += length;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(ids.length * 2, capacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+        albumIds = Arrays.copyOf(albumIds, newCapacity);
+        albumRefs = Arrays.copyOf(albumRefs, newCapacity);
+        artistRefs = Arrays.copyOf(artistRefs, newCapacity);
+        titleStarts = Arrays.copyOf(titleStarts, newCapacity);
+        dataStarts = Arrays.copyOf(dataStarts, newCapacity);
+        dataEnds = Arrays.copyOf(dataEnds, newCapacity);
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Snapshots can't be modified");
+        }
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+    }
+}
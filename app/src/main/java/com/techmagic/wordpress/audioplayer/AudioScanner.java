@@ -0,0 +1,168 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.provider.MediaStore;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scans the MediaStore on a background thread and hands the rows to the UI thread in pages.
+ */
+
+public class AudioScanner {
+
+    /*The first page is kept small so the first screen of tracks shows up as soon as possible*/
+    private static final int FIRST_PAGE_SIZE = 32;
+    private static final int PAGE_SIZE = 500;
+
+    static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM_ID
+    };
+
+    public interface Callback {
+        /*Called on the main thread for every page of scanned tracks*/
+        void onPage(AudioLibrary page);
+
+        /*Called on the main thread once the whole MediaStore has been read*/
+        void onScanComplete(int total);
+    }
+
+    private final ContentResolver contentResolver;
+    private final AlbumArtResolver albumArtResolver;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final CancellationSignal cancellationSignal = new CancellationSignal();
+    private volatile boolean cancelled = false;
+
+    public AudioScanner(ContentResolver contentResolver, AlbumArtResolver albumArtResolver) {
+        this.contentResolver = contentResolver;
+        this.albumArtResolver = albumArtResolver;
+    }
+
+    /*A scanner scans once, its thread ends with the scan*/
+    public void start(final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scan(callback);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        });
+    }
+
+    /*Stop the scan, no callbacks are delivered after this returns*/
+    public void cancel() {
+        cancelled = true;
+        cancellationSignal.cancel();
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void scan(Callback callback) {
+        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        String selection = MediaStore.Audio.Media.IS_MUSIC + "!= 0";
+        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
+        Cursor cursor;
+        try {
+            cursor = contentResolver.query(uri, PROJECTION, selection, null, sortOrder, cancellationSignal);
+        } catch (OperationCanceledException e) {
+            return;
+        }
+
+        int total = 0;
+        if (cursor != null) {
+            try {
+                /*Resolve the column indices once instead of per row*/
+                int[] columns = getColumns(cursor);
+
+                int pageSize = FIRST_PAGE_SIZE;
+                AudioLibrary page = new AudioLibrary();
+                while (!cancelled && cursor.moveToNext()) {
+                    addRow(cursor, columns, page);
+
+                    if (page.size() == pageSize) {
+                        total += page.size();
+                        deliverPage(callback, page);
+                        pageSize = PAGE_SIZE;
+                        page = new AudioLibrary();
+                    }
+                }
+                if (page.size() > 0) {
+                    total += page.size();
+                    deliverPage(callback, page);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        deliverComplete(callback, total);
+    }
+
+    /*Indices of the PROJECTION columns in cursor*/
+    static int[] getColumns(Cursor cursor) {
+        int[] columns = new int[PROJECTION.length];
+        for (int i = 0; i < PROJECTION.length; i++) {
+            columns[i] = cursor.getColumnIndex(PROJECTION[i]);
+        }
+        return columns;
+    }
+
+    /*Append the row the cursor is on, columns come from getColumns*/
+    static void addRow(Cursor cursor, int[] columns, AudioLibrary library) {
+        library.add(cursor.getInt(columns[0]),
+                cursor.getString(columns[1]),
+                cursor.getString(columns[2]),
+                cursor.getString(columns[3]),
+                cursor.getString(columns[4]),
+                cursor.getLong(columns[5]));
+    }
+
+    private void deliverPage(final Callback callback, final AudioLibrary page) {
+        /*Resolve the album art paths of the page in a single batch before the rows are bound
+        * and the ArtworkLoader asks for them*/
+        long[] albumIds = new long[page.size()];
+        for (int i = 0; i < albumIds.length; i++) {
+            albumIds[i] = page.getAlbumId(i);
+        }
+        albumArtResolver.prefetch(albumIds);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.onPage(page);
+                }
+            }
+        });
+    }
+
+    private void deliverComplete(final Callback callback, final int total) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.onScanComplete(total);
+                }
+            }
+        });
+    }
+}
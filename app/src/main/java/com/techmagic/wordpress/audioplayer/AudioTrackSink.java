@@ -0,0 +1,104 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import java.io.IOException;
+
+/**
+ * PcmSink playing through a streaming AudioTrack on the music stream.
+ */
+
+public class AudioTrackSink implements PcmSink {
+
+    /*Device buffer in multiples of the minimum, the ring buffer in front of it absorbs the rest*/
+    private static final int BUFFER_FACTOR = 2;
+
+    private AudioTrack track;
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        int channelMask;
+        switch (channelCount) {
+            case 1:
+                channelMask = AudioFormat.CHANNEL_OUT_MONO;
+                break;
+            case 2:
+                channelMask = AudioFormat.CHANNEL_OUT_STEREO;
+                break;
+            default:
+                throw new IOException("Unsupported channel count " + channelCount);
+        }
+        int minSize = AudioTrack.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+        if (minSize <= 0) {
+            throw new IOException("Unsupported sample rate " + sampleRate);
+        }
+        track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelMask,
+                AudioFormat.ENCODING_PCM_16BIT, minSize * BUFFER_FACTOR, AudioTrack.MODE_STREAM);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            track = null;
+            throw new IOException("AudioTrack not initialized");
+        }
+        track.play();
+    }
+
+    @Override
+    public void write(short[] buffer, int offset, int count) throws IOException {
+        while (count > 0) {
+            int written = track.write(buffer, offset, count);
+            if (written < 0) {
+                throw new IOException("AudioTrack write failed " + written);
+            }
+            if (written == 0) {
+                /*Stopped while blocked*/
+                return;
+            }
+            offset += written;
+            count -= written;
+        }
+    }
+
+    @Override
+    public void pause() {
+        if (track != null) {
+            track.pause();
+        }
+    }
+
+    @Override
+    public void resume() {
+        if (track != null) {
+            track.play();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (track != null) {
+            /*A write blocked on a paused track returns once it's stopped*/
+            track.pause();
+            track.flush();
+            track.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (track != null) {
+            track.release();
+            track = null;
+        }
+    }
+
+    public int getAudioSessionId() {
+        return track == null ? 0 : track.getAudioSessionId();
+    }
+
+    public void setVolume(float volume) {
+        if (track != null) {
+            track.setStereoVolume(volume, volume);
+        }
+    }
+}
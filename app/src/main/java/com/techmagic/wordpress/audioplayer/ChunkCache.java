@@ -0,0 +1,259 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Disk cache of remote streams split into chunks of a fixed size, one file per chunk, bounded by
+ * evicting the least recently used chunks. A chunk that is missing is loaded once, callers asking
+ * for it while it's loading wait for that load instead of starting their own.
+ * The length and content type of every stream are kept next to its chunks.
+ */
+
+public class ChunkCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String INFO_SUFFIX = ".info";
+
+    public interface Loader {
+        /*Writes chunk index of url to out, and the StreamInfo to the cache once it's known*/
+        void load(String url, int index, OutputStream out) throws IOException;
+    }
+
+    public static class StreamInfo {
+        /*-1 if the origin didn't tell or doesn't do ranges, the stream isn't cached then*/
+        public final long length;
+        public final String contentType;
+
+        public StreamInfo(long length, String contentType) {
+            this.length = length;
+            this.contentType = contentType;
+        }
+    }
+
+    private final File dir;
+    private final int chunkSize;
+    private final long maxSize;
+    /*Chunk file name to its size, least recently used first. Read from the directory on first use*/
+    private LinkedHashMap<String, Long> chunks;
+    private long size = 0;
+    private final Map<String, StreamInfo> infos = new ConcurrentHashMap<>();
+    /*Chunks being loaded, by file name*/
+    private final ConcurrentHashMap<String, FutureTask<File>> loading = new ConcurrentHashMap<>();
+
+    public ChunkCache(File dir, int chunkSize, long maxSize) {
+        this.dir = dir;
+        this.chunkSize = chunkSize;
+        this.maxSize = maxSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /*Bytes of all cached chunks*/
+    public synchronized long size() {
+        ensureLoaded();
+        return size;
+    }
+
+    public StreamInfo getInfo(String url) {
+        StreamInfo info = infos.get(url);
+        if (info == null) {
+            info = readInfo(url);
+            if (info != null) {
+                infos.put(url, info);
+            }
+        }
+        return info;
+    }
+
+    public void putInfo(String url, StreamInfo info) {
+        infos.put(url, info);
+        try {
+            writeInfo(url, info);
+        } catch (IOException ignored) {
+            /*Asked from the origin again next time*/
+        }
+    }
+
+    /*The file of chunk index of url, loaded with loader unless it's cached or already loading*/
+    public File getChunk(final String url, final int index, final Loader loader) throws IOException {
+        final String name = chunkName(url, index);
+        File cached = cachedChunk(name);
+        if (cached != null) {
+            return cached;
+        }
+        FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                /*May have been loaded since the check above*/
+                File cached = cachedChunk(name);
+                return cached != null ? cached : loadChunk(url, index, name, loader);
+            }
+        });
+        FutureTask<File> running = loading.putIfAbsent(name, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(name, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private synchronized File cachedChunk(String name) {
+        ensureLoaded();
+        if (chunks.get(name) == null) {
+            return null;
+        }
+        File file = new File(dir, name);
+        /*Keeps the order of use across restarts*/
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    private File loadChunk(String url, int index, String name, Loader loader) throws IOException {
+        File file = new File(dir, name);
+        File temp = new File(dir, name + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            loader.load(url, index, out);
+        } catch (IOException e) {
+            out.close();
+            temp.delete();
+            throw e;
+        }
+        out.close();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not store " + file);
+        }
+        synchronized (this) {
+            chunks.put(name, file.length());
+            size += file.length();
+            trim();
+        }
+        return file;
+    }
+
+    /*Drop the least recently used chunks until the cache fits, never the one just added*/
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = chunks.entrySet().iterator();
+        while (size > maxSize && chunks.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            /*Readers that have it open keep reading it*/
+            new File(dir, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (chunks != null) {
+            return;
+        }
+        chunks = new LinkedHashMap<>(64, 0.75f, true);
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long left = a.lastModified();
+                long right = b.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                /*Left by a load that didn't finish*/
+                file.delete();
+            } else if (!name.endsWith(INFO_SUFFIX)) {
+                chunks.put(name, file.length());
+                size += file.length();
+            }
+        }
+        trim();
+    }
+
+    private StreamInfo readInfo(String url) {
+        File file = new File(dir, key(url) + INFO_SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return new StreamInfo(in.readLong(), in.readUTF());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeInfo(String url, StreamInfo info) throws IOException {
+        dir.mkdirs();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, key(url) + INFO_SUFFIX)));
+        try {
+            out.writeLong(info.length);
+            out.writeUTF(info.contentType);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String chunkName(String url, int index) {
+        return key(url) + "." + index;
+    }
+
+    /*File names are the SHA-1 of the url*/
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
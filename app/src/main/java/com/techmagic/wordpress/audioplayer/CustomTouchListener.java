@@ -15,6 +15,8 @@ public class CustomTouchListener implements RecyclerView.OnItemTouchListener {
     /*Gesture detector to intercept the touch events*/
     GestureDetector gestureDetector;
     private onItemClickListener clickListener;
+    /*The list the last touch went to, a long press is reported after the events were handed over*/
+    private RecyclerView recyclerView;
 
     public CustomTouchListener(Context context,onItemClickListener clickListener) {
         this.clickListener = clickListener;
@@ -23,13 +25,23 @@ public class CustomTouchListener implements RecyclerView.OnItemTouchListener {
             public boolean onSingleTapUp(MotionEvent e) {
                 return true;
             }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                View child = recyclerView == null ? null : recyclerView.findChildViewUnder(e.getX(),e.getY());
+                if (child != null && clickListener != null){
+                    clickListener.onLongClick(child,recyclerView.getChildLayoutPosition(child));
+                }
+            }
         });
     }
 
     @Override
     public boolean onInterceptTouchEvent(RecyclerView rv, MotionEvent e) {
+        recyclerView = rv;
         View child = rv.findChildViewUnder(e.getX(),e.getY());
         if (child != null && clickListener != null && gestureDetector.onTouchEvent(e)){
+            PlaybackLatency.getInstance().stamp(PlaybackLatency.TAP);
             clickListener.onClick(child,rv.getChildLayoutPosition(child));
         }
         return false;
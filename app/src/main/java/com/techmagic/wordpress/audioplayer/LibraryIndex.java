@@ -0,0 +1,211 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The scanned library together with the MediaStore DATE_MODIFIED of every track, persisted so that
+ * a launch only has to compare (_ID, DATE_MODIFIED) pairs with the MediaStore to find what changed.
+ * It's stored in the LibrarySnapshot.
+ * An index is immutable, applying a delta returns a new one.
+ */
+
+public class LibraryIndex {
+
+    private final AudioLibrary library;
+    /*DATE_MODIFIED of the track at the same position in library*/
+    private final long[] dateModified;
+    /*Ids in ascending order and the position of each, for lookups by id*/
+    private final int[] sortedIds;
+    private final int[] sortedPositions;
+
+    LibraryIndex(AudioLibrary library, long[] dateModified) {
+        this.library = library.snapshot();
+        this.dateModified = dateModified;
+        int size = library.size();
+        long[] pairs = new long[size];
+        for (int i = 0; i < size; i++) {
+            pairs[i] = ((long) library.getId(i) << 32) | i;
+        }
+        Arrays.sort(pairs);
+        sortedIds = new int[size];
+        sortedPositions = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = (int) (pairs[i] >> 32);
+            sortedPositions[i] = (int) pairs[i];
+        }
+    }
+
+    /*Index a scanned library with the markers read from the MediaStore. Tracks without
+    * a marker were deleted since, they get 0 so the next check picks them up*/
+    public static LibraryIndex create(AudioLibrary library, int[] ids, long[] modified) {
+        Map<Integer, Long> markers = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            markers.put(ids[i], modified[i]);
+        }
+        long[] dateModified = new long[library.size()];
+        for (int i = 0; i < dateModified.length; i++) {
+            Long marker = markers.get(library.getId(i));
+            dateModified[i] = marker == null ? 0 : marker;
+        }
+        return new LibraryIndex(library, dateModified);
+    }
+
+    /*Read only, safe to hand to other threads*/
+    public AudioLibrary getLibrary() {
+        return library;
+    }
+
+    public int size() {
+        return library.size();
+    }
+
+    public long getDateModified(int position) {
+        return dateModified[position];
+    }
+
+    /*Compare with the current MediaStore markers, ids and modified are matched by position*/
+    public Delta diff(int[] ids, long[] modified) {
+        int[] deleted = new int[sortedIds.length];
+        int deletedCount = 0;
+        int[] changed = new int[ids.length];
+        int changedCount = 0;
+        Map<Integer, Long> changedModified = new HashMap<>();
+
+        boolean[] seen = new boolean[sortedIds.length];
+        for (int i = 0; i < ids.length; i++) {
+            int found = Arrays.binarySearch(sortedIds, ids[i]);
+            if (found >= 0) {
+                seen[found] = true;
+            }
+            if (found < 0 || dateModified[sortedPositions[found]] != modified[i]) {
+                changed[changedCount++] = ids[i];
+                changedModified.put(ids[i], modified[i]);
+            }
+        }
+        for (int i = 0; i < sortedIds.length; i++) {
+            if (!seen[i]) {
+                deleted[deletedCount++] = sortedIds[i];
+            }
+        }
+        return new Delta(Arrays.copyOf(deleted, deletedCount), Arrays.copyOf(changed, changedCount), changedModified);
+    }
+
+    /*Build the index with the delta applied. rows holds the re-read tracks of delta.getChangedIds(),
+    * changed ids missing from rows were deleted in the meantime. Updated tracks keep their position,
+    * new ones are merged in by title like the scan orders them*/
+    public Update apply(Delta delta, AudioLibrary rows) {
+        Map<Integer, Integer> rowPositions = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            rowPositions.put(rows.getId(i), i);
+        }
+        int[] deleted = delta.deletedIds.clone();
+        Arrays.sort(deleted);
+
+        /*Rows of new tracks, sorted by title*/
+        Integer[] inserted = new Integer[rows.size()];
+        int insertedCount = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (Arrays.binarySearch(sortedIds, rows.getId(i)) < 0) {
+                inserted[insertedCount++] = i;
+            }
+        }
+        final String[] insertedTitles = new String[rows.size()];
+        for (int i = 0; i < insertedCount; i++) {
+            insertedTitles[inserted[i]] = titleKey(rows.getTitle(inserted[i]));
+        }
+        Arrays.sort(inserted, 0, insertedCount, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return insertedTitles[a].compareTo(insertedTitles[b]);
+            }
+        });
+
+        AudioLibrary merged = new AudioLibrary();
+        long[] mergedModified = new long[library.size() + insertedCount];
+        Update update = new Update();
+        int next = 0;
+        for (int i = 0; i < library.size(); i++) {
+            if (next < insertedCount) {
+                String title = titleKey(library.getTitle(i));
+                while (next < insertedCount && insertedTitles[inserted[next]].compareTo(title) < 0) {
+                    int row = inserted[next++];
+                    mergedModified[merged.size()] = delta.getDateModified(rows.getId(row));
+                    update.add(PositionChanges.INSERTED, merged.add(rows, row));
+                }
+            }
+            int id = library.getId(i);
+            Integer row = rowPositions.get(id);
+            if (Arrays.binarySearch(deleted, id) >= 0 || (row == null && delta.isChanged(id))) {
+                /*Removed at the position the next track would take*/
+                update.add(PositionChanges.REMOVED, merged.size());
+            } else if (row != null) {
+                mergedModified[merged.size()] = delta.getDateModified(id);
+                update.add(PositionChanges.CHANGED, merged.add(rows, row));
+            } else {
+                mergedModified[merged.size()] = dateModified[i];
+                merged.add(library, i);
+            }
+        }
+        while (next < insertedCount) {
+            int row = inserted[next++];
+            mergedModified[merged.size()] = delta.getDateModified(rows.getId(row));
+            update.add(PositionChanges.INSERTED, merged.add(rows, row));
+        }
+        update.index = new LibraryIndex(merged, Arrays.copyOf(mergedModified, merged.size()));
+        return update;
+    }
+
+    private static String titleKey(String title) {
+        return title == null ? "" : title.toLowerCase();
+    }
+
+    /*Tracks that differ between the index and the MediaStore*/
+    public static class Delta {
+
+        private final int[] deletedIds;
+        /*Inserted and updated tracks, both have to be re-read*/
+        private final int[] changedIds;
+        private final Map<Integer, Long> modified;
+
+        Delta(int[] deletedIds, int[] changedIds, Map<Integer, Long> modified) {
+            this.deletedIds = deletedIds;
+            this.changedIds = changedIds;
+            this.modified = modified;
+            Arrays.sort(this.changedIds);
+        }
+
+        public boolean isEmpty() {
+            return deletedIds.length == 0 && changedIds.length == 0;
+        }
+
+        public int[] getDeletedIds() {
+            return deletedIds;
+        }
+
+        public int[] getChangedIds() {
+            return changedIds;
+        }
+
+        boolean isChanged(int id) {
+            return Arrays.binarySearch(changedIds, id) >= 0;
+        }
+
+        long getDateModified(int id) {
+            Long value = modified.get(id);
+            return value == null ? 0 : value;
+        }
+    }
+
+    /*The new index and the position changes that lead to it from the old one*/
+    public static class Update extends PositionChanges {
+
+        private LibraryIndex index;
+
+        public LibraryIndex getIndex() {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a SearchIndex on its own thread so that indexing never blocks the UI.
+ * Only the latest query is answered, results of queries typed over are dropped.
+ */
+
+public class LibrarySearch {
+
+    private static final String TAG = "LibrarySearch";
+    /*A search slower than a frame is logged*/
+    private static final long FRAME_MS = 16;
+
+    public interface Callback {
+        /*Main thread, positions in library of the tracks matching query, in library order*/
+        void onResults(String query, AudioLibrary library, int[] positions);
+    }
+
+    /*Only touched on the executor*/
+    private final SearchIndex index = new SearchIndex();
+    /*Library the index was last brought up to date with*/
+    private AudioLibrary indexed;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger latestQuery = new AtomicInteger();
+    private volatile boolean stopped = false;
+
+    /*Index rows appended to library, call it on the thread that appends*/
+    public void addRows(AudioLibrary library, final int start, final int count) {
+        final AudioLibrary snapshot = library.snapshot();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (start < index.size()) {
+                    /*A new library, index it from the start*/
+                    index.clear();
+                }
+                index.addRows(snapshot, index.size(), start + count - index.size());
+                indexed = snapshot;
+            }
+        });
+    }
+
+    /*The library was replaced by one with a delta applied*/
+    public void applyUpdate(AudioLibrary library, final PositionChanges update) {
+        final AudioLibrary snapshot = library.snapshot();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                index.applyUpdate(snapshot, update);
+                indexed = snapshot;
+            }
+        });
+    }
+
+    public void search(final String query, final Callback callback) {
+        final int queryNumber = latestQuery.incrementAndGet();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queryNumber != latestQuery.get() || indexed == null) {
+                    return;
+                }
+                long start = SystemClock.elapsedRealtime();
+                final AudioLibrary library = indexed;
+                final int[] positions = index.search(query);
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                if (elapsed > FRAME_MS) {
+                    Log.w(TAG, "Search for \"" + query + "\" over " + index.size() + " tracks took " + elapsed + " ms");
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!stopped && queryNumber == latestQuery.get()) {
+                            callback.onResults(query, library, positions);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void stop() {
+        stopped = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        executor.shutdownNow();
+    }
+
+    private void execute(Runnable task) {
+        if (!stopped) {
+            executor.execute(task);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * The last known library in one file, read on a cold start to show the list before the MediaStore
+ * is asked anything. The tracks are stored column by column the way AudioLibrary holds them, so
+ * reading is a few bulk copies out of a mapped file instead of decoding every row.
+ * The MediaStore markers of the LibraryIndex and the resolved album art paths come with them,
+ * the art paths let the ArtworkLoader find the thumbnails of the first rows without a query.
+ *
+ * Layout, big endian:
+ * header   int magic, int version
+ * library  AudioLibrary.writeColumns
+ * markers  long DATE_MODIFIED of every track
+ * art      int count, count x (long albumId, int length or -1 for no art, UTF-16 chars)
+ */
+
+public class LibrarySnapshot {
+
+    static final int MAGIC = 0x414c534e;/*"ALSN"*/
+    static final int VERSION = 1;
+
+    private final LibraryIndex index;
+    private final long[] artAlbumIds;
+    private final String[] artPaths;
+
+    private LibrarySnapshot(LibraryIndex index, long[] artAlbumIds, String[] artPaths) {
+        this.index = index;
+        this.artAlbumIds = artAlbumIds;
+        this.artPaths = artPaths;
+    }
+
+    public LibraryIndex getIndex() {
+        return index;
+    }
+
+    /*Albums whose art was resolved, matched by position with getArtPaths()*/
+    public long[] getArtAlbumIds() {
+        return artAlbumIds;
+    }
+
+    /*null for albums without art*/
+    public String[] getArtPaths() {
+        return artPaths;
+    }
+
+    /*Write to a temporary file and rename it over file, a cold start never reads a partial snapshot*/
+    public static void write(File file, LibraryIndex index, Map<Long, String> artPaths) throws IOException {
+        AudioLibrary library = index.getLibrary();
+        File temp = new File(file.getPath() + ".tmp");
+        boolean replaced = false;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                library.writeColumns(out);
+                for (int i = 0; i < library.size(); i++) {
+                    out.writeLong(index.getDateModified(i));
+                }
+                out.writeInt(artPaths.size());
+                for (Map.Entry<Long, String> entry : artPaths.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    String path = entry.getValue();
+                    out.writeInt(path == null ? -1 : path.length());
+                    if (path != null) {
+                        out.writeChars(path);
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            replaced = true;
+        } finally {
+            /*A failed write leaves the old snapshot and no partial copy*/
+            if (!replaced) {
+                temp.delete();
+            }
+        }
+    }
+
+    public static LibrarySnapshot read(File file) throws IOException {
+        ByteBuffer in;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+        if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a library snapshot");
+        }
+        AudioLibrary library = AudioLibrary.readColumns(in);
+        if ((long) library.size() * 8 + 4 > in.remaining()) {
+            throw new IOException("Truncated library snapshot");
+        }
+        long[] dateModified = new long[library.size()];
+        in.asLongBuffer().get(dateModified);
+        in.position(in.position() + dateModified.length * 8);
+
+        int artCount = in.getInt();
+        if (artCount < 0 || (long) artCount * 12 > in.remaining()) {
+            throw new IOException("Truncated album art");
+        }
+        long[] artAlbumIds = new long[artCount];
+        String[] artPaths = new String[artCount];
+        for (int i = 0; i < artCount; i++) {
+            artAlbumIds[i] = in.getLong();
+            int length = in.getInt();
+            if (length < -1 || (long) length * 2 > in.remaining()) {
+                throw new IOException("Truncated album art");
+            }
+            if (length >= 0) {
+                CharBuffer path = in.asCharBuffer();
+                path.limit(length);
+                artPaths[i] = path.toString();
+                in.position(in.position() + length * 2);
+            }
+        }
+        return new LibrarySnapshot(new LibraryIndex(library, dateModified), artAlbumIds, artPaths);
+    }
+}
@@ -0,0 +1,295 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the library in step with the MediaStore without rescanning it.
+ * The first launch scans with the AudioScanner and saves a LibrarySnapshot, later launches show the
+ * snapshot before anything else and then only compare (_ID, DATE_MODIFIED) pairs to re-read the
+ * tracks that were inserted or updated. While running, MediaStore change notifications trigger the
+ * same delta check.
+ */
+
+public class LibrarySync {
+
+    private static final String TAG = "LibrarySync";
+
+    /*The MediaStore sends bursts of notifications while the media scanner runs*/
+    private static final long CHANGE_DELAY_MS = 1000;
+    private static final String[] MARKER_PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+    private static final Uri URI = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+    private static final String SELECTION = MediaStore.Audio.Media.IS_MUSIC + "!= 0";
+
+    public interface Callback {
+        /*Main thread, rows were appended to the library, it may be a new instance*/
+        void onRowsInserted(AudioLibrary library, int start, int count);
+
+        /*Main thread, the library was replaced by one with a delta applied*/
+        void onLibraryUpdated(AudioLibrary library, LibraryIndex.Update update);
+    }
+
+    private final ContentResolver contentResolver;
+    private final AlbumArtResolver albumArtResolver;
+    private final File snapshotFile;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile boolean stopped = false;
+
+    /*Only touched on the executor*/
+    private LibraryIndex index;
+    /*Library the scan pages go to, only touched on the main thread*/
+    private AudioLibrary scanned;
+    private AudioScanner scanner;
+    private Callback callback;
+
+    private final ContentObserver observer = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mainHandler.removeCallbacks(checkForChanges);
+            mainHandler.postDelayed(checkForChanges, CHANGE_DELAY_MS);
+        }
+    };
+
+    private final Runnable checkForChanges = new Runnable() {
+        @Override
+        public void run() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (index != null) {
+                        applyChanges();
+                    }
+                }
+            });
+        }
+    };
+
+    public LibrarySync(Context context, AlbumArtResolver albumArtResolver) {
+        this.contentResolver = context.getContentResolver();
+        this.albumArtResolver = albumArtResolver;
+        this.snapshotFile = new File(context.getFilesDir(), "library.snapshot");
+    }
+
+    public void start(final Callback callback) {
+        this.callback = callback;
+        contentResolver.registerContentObserver(URI, true, observer);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                index = loadIndex();
+                if (index == null) {
+                    /*Nothing indexed yet, take the markers before the scan so that
+                    * anything changing during the scan shows up in the next check*/
+                    final Markers markers = queryMarkers();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!stopped) {
+                                scan(markers);
+                            }
+                        }
+                    });
+                    return;
+                }
+                final AudioLibrary library = index.getLibrary();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!stopped) {
+                            callback.onRowsInserted(library, 0, library.size());
+                        }
+                    }
+                });
+                /*Only albums the snapshot didn't know are queried, after the rows are shown*/
+                prefetchArt(library);
+                applyChanges();
+            }
+        });
+    }
+
+    /*No callbacks are delivered after this returns*/
+    public void stop() {
+        stopped = true;
+        contentResolver.unregisterContentObserver(observer);
+        if (scanner != null) {
+            scanner.cancel();
+            scanner = null;
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+        executor.shutdown();
+    }
+
+    private void scan(final Markers markers) {
+        scanned = new AudioLibrary();
+        scanner = new AudioScanner(contentResolver, albumArtResolver);
+        scanner.start(new AudioScanner.Callback() {
+            @Override
+            public void onPage(AudioLibrary page) {
+                int start = scanned.size();
+                scanned.addAll(page);
+                callback.onRowsInserted(scanned, start, page.size());
+            }
+
+            @Override
+            public void onScanComplete(int total) {
+                scanner = null;
+                final AudioLibrary library = scanned.snapshot();
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        index = markers == null
+                                ? LibraryIndex.create(library, new int[0], new long[0])
+                                : LibraryIndex.create(library, markers.ids, markers.modified);
+                        saveIndex(index);
+                        /*Pick up what changed while the scan ran*/
+                        applyChanges();
+                    }
+                });
+            }
+        });
+    }
+
+    /*Executor thread, a single cheap query when nothing changed*/
+    private void applyChanges() {
+        Markers markers = queryMarkers();
+        if (markers == null) {
+            return;
+        }
+        LibraryIndex.Delta delta = index.diff(markers.ids, markers.modified);
+        if (delta.isEmpty()) {
+            return;
+        }
+        AudioLibrary rows = queryRows(delta.getChangedIds());
+        if (stopped) {
+            return;
+        }
+        prefetchArt(rows);
+        final LibraryIndex.Update update = index.apply(delta, rows);
+        Log.d(TAG, delta.getDeletedIds().length + " deleted, " + delta.getChangedIds().length + " inserted or updated");
+        index = update.getIndex();
+        saveIndex(index);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!stopped) {
+                    callback.onLibraryUpdated(update.getIndex().getLibrary(), update);
+                }
+            }
+        });
+    }
+
+    private LibraryIndex loadIndex() {
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            LibrarySnapshot snapshot = LibrarySnapshot.read(snapshotFile);
+            albumArtResolver.seed(snapshot.getArtAlbumIds(), snapshot.getArtPaths());
+            Log.d(TAG, "Snapshot of " + snapshot.getIndex().size() + " tracks read in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return snapshot.getIndex();
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding the library snapshot", e);
+            snapshotFile.delete();
+            return null;
+        }
+    }
+
+    private void saveIndex(LibraryIndex index) {
+        try {
+            LibrarySnapshot.write(snapshotFile, index, albumArtResolver.getResolved());
+        } catch (IOException e) {
+            /*Not fatal, the next launch scans again*/
+            Log.w(TAG, "Could not save the library snapshot", e);
+            snapshotFile.delete();
+        }
+    }
+
+    private Markers queryMarkers() {
+        Cursor cursor = contentResolver.query(URI, MARKER_PROJECTION, SELECTION, null, MediaStore.Audio.Media._ID + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            Markers markers = new Markers(cursor.getCount());
+            int idColumn = cursor.getColumnIndex(MediaStore.Audio.Media._ID);
+            int modifiedColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+            for (int i = 0; cursor.moveToNext() && i < markers.ids.length; i++) {
+                markers.ids[i] = cursor.getInt(idColumn);
+                markers.modified[i] = cursor.getLong(modifiedColumn);
+            }
+            return markers;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*Read the full rows of ids, in batches that stay below the SQLite variable limit*/
+    private AudioLibrary queryRows(int[] ids) {
+        AudioLibrary rows = new AudioLibrary();
+        for (int start = 0; start < ids.length && !stopped; start += AlbumArtResolver.MAX_BATCH_SIZE) {
+            int end = Math.min(ids.length, start + AlbumArtResolver.MAX_BATCH_SIZE);
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media._ID).append(" IN (");
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                args[i - start] = Integer.toString(ids[i]);
+            }
+            selection.append(")");
+            Cursor cursor = contentResolver.query(URI, AudioScanner.PROJECTION, selection.toString(), args, null);
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                int[] columns = AudioScanner.getColumns(cursor);
+                while (cursor.moveToNext()) {
+                    AudioScanner.addRow(cursor, columns, rows);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return rows;
+    }
+
+    private void prefetchArt(AudioLibrary library) {
+        long[] albumIds = new long[library.size()];
+        for (int i = 0; i < albumIds.length; i++) {
+            albumIds[i] = library.getAlbumId(i);
+        }
+        albumArtResolver.prefetch(albumIds);
+    }
+
+    private void execute(Runnable task) {
+        if (!stopped) {
+            executor.execute(task);
+        }
+    }
+
+    /*_ID and DATE_MODIFIED of every track, by ascending id*/
+    private static class Markers {
+        final int[] ids;
+        final long[] modified;
+
+        Markers(int count) {
+            ids = new int[count];
+            modified = new long[count];
+        }
+    }
+}
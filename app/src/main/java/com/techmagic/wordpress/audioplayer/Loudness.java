@@ -0,0 +1,42 @@
+package com.techmagic.wordpress.audioplayer;
+
+/**
+ * Integrated loudness and sample peak of a track, as measured by the LoudnessAnalyzer.
+ */
+
+public class Loudness {
+
+    /*ReplayGain 2 reference level*/
+    public static final double REFERENCE_LUFS = -18;
+
+    private final double integrated;
+    private final float peak;
+
+    public Loudness(double integrated, float peak) {
+        this.integrated = integrated;
+        this.peak = peak;
+    }
+
+    /*LUFS, negative infinity for a track that is silent throughout*/
+    public double getIntegrated() {
+        return integrated;
+    }
+
+    /*Largest sample, 1 is full scale*/
+    public float getPeak() {
+        return peak;
+    }
+
+    /*Linear gain that brings the track to targetLufs. MediaPlayer and AudioTrack volumes can only
+    * attenuate, so quieter tracks stay at 1. Never so much that the peak would clip*/
+    public float gain(double targetLufs) {
+        if (Double.isInfinite(integrated) || Double.isNaN(integrated)) {
+            return 1f;
+        }
+        double gain = Math.pow(10, (targetLufs - integrated) / 20);
+        if (peak > 0) {
+            gain = Math.min(gain, 1 / peak);
+        }
+        return (float) Math.min(1, gain);
+    }
+}
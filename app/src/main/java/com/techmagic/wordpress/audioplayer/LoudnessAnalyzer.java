@@ -0,0 +1,153 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.IOException;
+
+/**
+ * Measures a PcmSource the way ITU-R BS.1770 does: K-weighting filter, mean square over 400ms blocks
+ * every 100ms, then the absolute gate at -70 LUFS and the relative gate 10 LU under the gated mean.
+ * All channels are weighted 1, the surround weights don't matter for stereo music. The peak is
+ * the sample peak, not the oversampled true peak.
+ */
+
+public class LoudnessAnalyzer {
+
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+    private static final int SUB_BLOCKS_PER_BLOCK = 4;
+    private static final int BUFFER_SAMPLES = 8192;
+
+    /*One analyzer per thread, the buffers are reused from track to track*/
+    private final short[] buffer = new short[BUFFER_SAMPLES];
+    /*Mean square of every 400ms block, grown as needed*/
+    private double[] blockPowers = new double[1024];
+
+    public Loudness analyze(PcmSource source) throws IOException {
+        int channels = source.getChannelCount();
+        int sampleRate = source.getSampleRate();
+        if (channels <= 0 || sampleRate <= 0) {
+            throw new IOException("Bad format " + sampleRate + "Hz " + channels + " channels");
+        }
+        KWeighting[] filters = new KWeighting[channels];
+        for (int c = 0; c < channels; c++) {
+            filters[c] = new KWeighting(sampleRate);
+        }
+        int framesPerSubBlock = sampleRate / 10;
+        /*Energy of the last four 100ms sub blocks, summed over the channels*/
+        double[] subBlocks = new double[SUB_BLOCKS_PER_BLOCK];
+        int subBlockCount = 0;
+        double energy = 0;
+        int frames = 0;
+        int blockCount = 0;
+        int peak = 0;
+        int channel = 0;
+
+        int count;
+        while ((count = source.read(buffer, 0, buffer.length)) >= 0) {
+            for (int i = 0; i < count; i++) {
+                int sample = buffer[i];
+                int magnitude = sample < 0 ? -sample : sample;
+                if (magnitude > peak) {
+                    peak = magnitude;
+                }
+                double filtered = filters[channel].process(sample / 32768.0);
+                energy += filtered * filtered;
+                if (++channel == channels) {
+                    channel = 0;
+                    if (++frames == framesPerSubBlock) {
+                        subBlocks[subBlockCount++ % SUB_BLOCKS_PER_BLOCK] = energy;
+                        energy = 0;
+                        frames = 0;
+                        if (subBlockCount >= SUB_BLOCKS_PER_BLOCK) {
+                            double sum = subBlocks[0] + subBlocks[1] + subBlocks[2] + subBlocks[3];
+                            addBlock(blockCount++, sum / (framesPerSubBlock * SUB_BLOCKS_PER_BLOCK));
+                        }
+                    }
+                }
+            }
+        }
+        return new Loudness(gatedLoudness(blockCount), peak / 32768f);
+    }
+
+    private void addBlock(int index, double power) {
+        if (index == blockPowers.length) {
+            double[] grown = new double[blockPowers.length * 2];
+            System.arraycopy(blockPowers, 0, grown, 0, index);
+            blockPowers = grown;
+        }
+        blockPowers[index] = power;
+    }
+
+    private double gatedLoudness(int blockCount) {
+        double absoluteGate = power(ABSOLUTE_GATE_LUFS);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blockPowers[i] > absoluteGate) {
+                sum += blockPowers[i];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double relativeGate = power(lufs(sum / count) + RELATIVE_GATE_LU);
+        sum = 0;
+        count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blockPowers[i] > absoluteGate && blockPowers[i] > relativeGate) {
+                sum += blockPowers[i];
+                count++;
+            }
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : lufs(sum / count);
+    }
+
+    private static double lufs(double power) {
+        return -0.691 + 10 * Math.log10(power);
+    }
+
+    private static double power(double lufs) {
+        return Math.pow(10, (lufs + 0.691) / 10);
+    }
+
+    /*The BS.1770 pre-filter: high shelf then high pass, coefficients derived for any sample rate*/
+    private static class KWeighting {
+
+        private final double b0, b1, b2, a1, a2;
+        private final double ha1, ha2;
+        /*Direct form I history: shelf input and output, high pass output*/
+        private double x1, x2, y1, y2, z1, z2;
+
+        KWeighting(int sampleRate) {
+            double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+            double q = 0.7071752369554196;
+            double vh = Math.pow(10, 3.999843853973347 / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1 + k / q + k * k;
+            b0 = (vh + vb * k / q + k * k) / a0;
+            b1 = 2 * (k * k - vh) / a0;
+            b2 = (vh - vb * k / q + k * k) / a0;
+            a1 = 2 * (k * k - 1) / a0;
+            a2 = (1 - k / q + k * k) / a0;
+
+            k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+            q = 0.5003270373238773;
+            a0 = 1 + k / q + k * k;
+            ha1 = 2 * (k * k - 1) / a0;
+            ha2 = (1 - k / q + k * k) / a0;
+        }
+
+        double process(double x) {
+            double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            /*The high pass has numerator 1, -2, 1 over the shelf output*/
+            double z = y - 2 * y1 + y2 - ha1 * z1 - ha2 * z2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            z2 = z1;
+            z1 = z;
+            return z;
+        }
+    }
+}
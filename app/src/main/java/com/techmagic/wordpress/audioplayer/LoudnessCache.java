@@ -0,0 +1,117 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loudness of analyzed files, keyed by path and valid while the file keeps its modification time.
+ * Safe to use from several threads.
+ *
+ * Layout, big endian:
+ * header  int magic, int version, int count
+ * entries count x (UTF path, long lastModified, double integrated, float peak)
+ */
+
+public class LoudnessCache {
+
+    static final int MAGIC = 0x4c4f5544;/*"LOUD"*/
+    static final int VERSION = 1;
+
+    private static class Entry {
+        final long lastModified;
+        final Loudness loudness;
+
+        Entry(long lastModified, Loudness loudness) {
+            this.lastModified = lastModified;
+            this.loudness = loudness;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean modified = false;
+
+    /*The loudness of path if it was analyzed at lastModified, null otherwise*/
+    public synchronized Loudness get(String path, long lastModified) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.lastModified == lastModified ? entry.loudness : null;
+    }
+
+    /*The last loudness analyzed for path without checking the file, for callers that can't touch the disk*/
+    public synchronized Loudness get(String path) {
+        Entry entry = entries.get(path);
+        return entry == null ? null : entry.loudness;
+    }
+
+    public synchronized void put(String path, long lastModified, Loudness loudness) {
+        entries.put(path, new Entry(lastModified, loudness));
+        modified = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /*Whether there is something save() hasn't written yet*/
+    public synchronized boolean isModified() {
+        return modified;
+    }
+
+    /*Adds the entries of file to the ones in memory, which win over the file*/
+    public synchronized void load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a loudness cache");
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt loudness cache");
+            }
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                Loudness loudness = new Loudness(in.readDouble(), in.readFloat());
+                if (!entries.containsKey(path)) {
+                    entries.put(path, new Entry(lastModified, loudness));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /*Write to a temporary file and rename it over file*/
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().lastModified);
+                out.writeDouble(entry.getValue().loudness.getIntegrated());
+                out.writeFloat(entry.getValue().loudness.getPeak());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+        modified = false;
+    }
+}
@@ -0,0 +1,127 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Analyzes the loudness of many files at once on a fork join pool with a worker per core.
+ * Files already in the LoudnessCache with their current modification time are skipped, the
+ * others are analyzed and added to it. The workers run at the lowest priority so playback
+ * and the UI go first.
+ */
+
+public class LoudnessScanner {
+
+    public interface SourceFactory {
+        PcmSource open(String path) throws IOException;
+    }
+
+    private final LoudnessCache cache;
+    private final SourceFactory sourceFactory;
+    private final ForkJoinPool pool;
+    /*One analyzer per worker, they keep their buffers*/
+    private final ThreadLocal<LoudnessAnalyzer> analyzers = new ThreadLocal<LoudnessAnalyzer>() {
+        @Override
+        protected LoudnessAnalyzer initialValue() {
+            return new LoudnessAnalyzer();
+        }
+    };
+    private volatile boolean cancelled = false;
+
+    public LoudnessScanner(LoudnessCache cache, SourceFactory sourceFactory) {
+        this(cache, sourceFactory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LoudnessScanner(LoudnessCache cache, SourceFactory sourceFactory, int parallelism) {
+        this.cache = cache;
+        this.sourceFactory = sourceFactory;
+        this.pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Loudness-" + thread.getPoolIndex());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /*Blocks until every path was analyzed or skipped, returns how many were analyzed.
+    * Files that can't be decoded are left out and tried again on the next scan*/
+    public int scan(List<String> paths) {
+        if (paths.isEmpty()) {
+            return 0;
+        }
+        try {
+            return pool.invoke(new ScanTask(paths, 0, paths.size()));
+        } catch (CancellationException | RejectedExecutionException e) {
+            /*Shut down meanwhile*/
+            return 0;
+        }
+    }
+
+    /*Stops the scan in progress after the files being analyzed and shuts the pool down*/
+    public void shutdown() {
+        cancelled = true;
+        pool.shutdownNow();
+    }
+
+    private int analyze(String path) {
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        if (lastModified == 0 || cache.get(path, lastModified) != null) {
+            /*Gone, or analyzed already*/
+            return 0;
+        }
+        try {
+            PcmSource source = sourceFactory.open(path);
+            try {
+                cache.put(path, lastModified, analyzers.get().analyze(source));
+                return 1;
+            } finally {
+                source.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /*Splits the range in halves down to single files. The right half is forked and the left one
+    * computed in place, so a worker goes through its files in order and the first ones are
+    * analyzed first, idle workers steal the halves furthest away*/
+    private class ScanTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+        private final int start;
+        private final int end;
+
+        ScanTask(List<String> paths, int start, int end) {
+            this.paths = paths;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (cancelled) {
+                return 0;
+            }
+            if (end - start == 1) {
+                return analyze(paths.get(start));
+            }
+            int middle = (start + end) >>> 1;
+            ScanTask right = new ScanTask(paths, middle, end);
+            right.fork();
+            int analyzed = new ScanTask(paths, start, middle).compute();
+            return analyzed + right.join();
+        }
+    }
+}
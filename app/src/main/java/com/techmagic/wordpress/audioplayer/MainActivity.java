@@ -1,44 +1,50 @@
 package com.techmagic.wordpress.audioplayer;
 
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.res.TypedArray;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.provider.MediaStore;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.Toast;
 
-import java.io.File;
-import java.util.ArrayList;
-
 public class MainActivity extends AppCompatActivity {
 
     private MediaPlayerService player;
     private boolean serviceBound = false;
-    private ArrayList<Audio> audioList;
+    private AudioLibrary audioList = new AudioLibrary();
+    private RecyclerView_Adapter adapter;
+    private LibrarySync librarySync;
+    private LibrarySearch librarySearch = new LibrarySearch();
+    /*Query typed into the search view, empty when the whole library is shown*/
+    private String query = "";
+    /*Last snapshot of audioList handed to the PlaylistRepository*/
+    private AudioLibrary publishedPlaylist;
     public static final String Broadcast_PLAY_NEW_AUDIO = "com.techmagic.wordpress.audioplayer.PlayNewAudio";
     private ImageView collapsingImageView;
     private int imageIndex = 0;
+    /*When onCreate ran, until the first rows are shown*/
+    private long createTime = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createTime = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_main);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -46,8 +52,8 @@ public class MainActivity extends AppCompatActivity {
 
         loadCollapsingImage(imageIndex);
         //playAudio("https://upload.wikimedia.org/wikipedia/commons/6/6c/Grieg_Lyric_Pieces_Kobold.ogg");
-        loadAudio();
         initRecyclerView();
+        loadAudio();
 
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -66,18 +72,24 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void initRecyclerView(){
-        if (audioList.size() > 0){
-            RecyclerView recyclerView = (RecyclerView) findViewById(R.id.recyclerview);
-            RecyclerView_Adapter adapter = new RecyclerView_Adapter(audioList,getApplication());
-            recyclerView.setAdapter(adapter);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
-            recyclerView.addOnItemTouchListener(new CustomTouchListener(this, new onItemClickListener() {
-                @Override
-                public void onClick(View view, int index) {
-                    playAudio(index);
-                }
-            }));
-        }
+        /*The list starts empty and is filled from the library snapshot or page by page by the scan*/
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.recyclerview);
+        adapter = new RecyclerView_Adapter(audioList,getApplication());
+        recyclerView.setAdapter(adapter);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.addOnItemTouchListener(new CustomTouchListener(this, new onItemClickListener() {
+            @Override
+            public void onClick(View view, int index) {
+                adapter.setNowPlaying(index);
+                /*The rows may still show an older library than audioList, the id is the same in both*/
+                playAudio((int) adapter.getItemId(index));
+            }
+
+            @Override
+            public void onLongClick(View view, int index) {
+                playNext((int) adapter.getItemId(index));
+            }
+        }));
     }
 
     private void loadCollapsingImage(int i){
@@ -89,13 +101,77 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main,menu);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String text) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                query = text.trim();
+                search();
+                return true;
+            }
+        });
         return true;
     }
 
+    /*Shuffle and repeat belong to the service's play queue, they can be changed once it is bound*/
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem shuffle = menu.findItem(R.id.action_shuffle);
+        MenuItem repeat = menu.findItem(R.id.action_repeat);
+        shuffle.setEnabled(serviceBound);
+        repeat.setEnabled(serviceBound);
+        if (serviceBound){
+            shuffle.setChecked(player.isShuffle());
+            repeat.setTitle(repeatTitle(player.getRepeatMode()));
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    private static int repeatTitle(int repeatMode){
+        switch (repeatMode){
+            case PlayQueue.REPEAT_ALL:
+                return R.string.action_repeat_all;
+            case PlayQueue.REPEAT_ONE:
+                return R.string.action_repeat_one;
+            default:
+                return R.string.action_repeat_off;
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
+        if (id == R.id.action_shuffle){
+            if (serviceBound){
+                player.setShuffle(!player.isShuffle());
+                item.setChecked(player.isShuffle());
+            }
+            return true;
+        }
+        if (id == R.id.action_repeat){
+            if (serviceBound){
+                /*Off, all, one and off again*/
+                int repeatMode = player.getRepeatMode();
+                player.setRepeatMode(repeatMode == PlayQueue.REPEAT_OFF ? PlayQueue.REPEAT_ALL
+                        : repeatMode == PlayQueue.REPEAT_ALL ? PlayQueue.REPEAT_ONE : PlayQueue.REPEAT_OFF);
+                item.setTitle(repeatTitle(player.getRepeatMode()));
+            }
+            return true;
+        }
         if (id == R.id.action_settings){
+            /*Debug report of the tap to audio latencies, also written to logcat*/
+            PlaybackLatency latency = PlaybackLatency.getInstance();
+            latency.dump();
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.action_latency_report)
+                    .setMessage(latency.report())
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -118,22 +194,29 @@ public class MainActivity extends AppCompatActivity {
         }
     };
 
-    private void playAudio(int audioIndex){
+    /*Play the track with the MediaStore id*/
+    private void playAudio(int audioId){
+        PlaybackLatency.getInstance().stamp(PlaybackLatency.PLAY_AUDIO);
+        /*Share the playlist with the service by reference, it is only written to disk as a backup*/
+        PlaylistRepository repository = PlaylistRepository.getInstance(this);
+        if (publishedPlaylist == null || publishedPlaylist.size() != audioList.size()){
+            /*The scan added tracks since the last publish*/
+            publishedPlaylist = audioList.snapshot();
+            repository.setPlaylist(publishedPlaylist);
+        }
+        int audioIndex = positionOf(publishedPlaylist, audioId);
+        if (audioIndex == -1){
+            /*Deleted since the row was shown*/
+            return;
+        }
+        repository.setAudioIndex(audioIndex);
+
         /*Check is service is active*/
         if (!serviceBound){
-            /*Store Serializable audioList to SharedPreference*/
-            StorageUtil storage = new StorageUtil(getApplicationContext());
-            storage.storeAudio(audioList);
-            storage.storeAudioIndex(audioIndex);
-
             Intent intent = new Intent(MainActivity.this,MediaPlayerService.class);
             startService(intent);
             bindService(intent,connection, Context.BIND_AUTO_CREATE);
         }else {
-            /*Store the new audioIndex to SharedPreference*/
-            StorageUtil storage = new StorageUtil(getApplicationContext());
-            storage.storeAudioIndex(audioIndex);
-
             /*Service is active*/
             /*Send a broadcast to the service PLAY_NEW_AUDIO*/
             Intent intent = new Intent(Broadcast_PLAY_NEW_AUDIO);
@@ -141,6 +224,33 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /*Long press: the track with the MediaStore id plays after the current one.
+    * With nothing playing it plays right away*/
+    private void playNext(int audioId){
+        if (!serviceBound){
+            playAudio(audioId);
+            return;
+        }
+        /*The service plays the published snapshot, the track may not be in it yet*/
+        int audioIndex = publishedPlaylist == null ? -1 : positionOf(publishedPlaylist, audioId);
+        if (audioIndex == -1){
+            Toast.makeText(this, R.string.play_next_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        player.playNext(audioIndex);
+        Toast.makeText(this, R.string.play_next_queued, Toast.LENGTH_SHORT).show();
+    }
+
+    /*Position of the track with the MediaStore id in the library, -1 if it isn't in it. O(n), once per tap*/
+    private static int positionOf(AudioLibrary library, int audioId){
+        for (int i = 0; i < library.size(); i++){
+            if (library.getId(i) == audioId){
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         outState.putBoolean("ServiceState",serviceBound);
@@ -156,6 +266,12 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        /*Stop scanning and watching the MediaStore, the changes would be delivered to a dead activity*/
+        if (librarySync != null){
+            librarySync.stop();
+        }
+        librarySearch.stop();
+        adapter.release();
         if (serviceBound){
             unbindService(connection);
             /*Service is active*/
@@ -163,55 +279,48 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void loadAudio(){
-        ContentResolver contentResolver = getContentResolver();
-        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String selection = MediaStore.Audio.Media.IS_MUSIC + "!= 0";
-        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
-        Cursor cursor = contentResolver.query(uri,null,selection,null,sortOrder);
-
-        if (cursor != null && cursor.getCount() > 0){
-            audioList = new ArrayList<>();
-            while (cursor.moveToNext()){
-                String data = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-                String title = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-                String album = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-                String artist = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-                Bitmap album_art = getAlbumArt(cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID)));
-
-                /*Save to audioList*/
-                audioList.add(new Audio(data,title,album,artist,album_art));
-            }
-            cursor.close();
+    /*Results are filtered on the search thread, the adapter diffs them against the rows shown*/
+    private void search(){
+        if (query.isEmpty()){
+            adapter.submit(audioList, null);
+            return;
         }
+        librarySearch.search(query, new LibrarySearch.Callback() {
+            @Override
+            public void onResults(String query, AudioLibrary library, int[] positions) {
+                if (query.equals(MainActivity.this.query)){
+                    adapter.submit(library, positions);
+                }
+            }
+        });
     }
 
-    private Bitmap getAlbumArt(String albumId){
-        Bitmap bitmap = null;
-        ContentResolver contentResolver = getContentResolver();
-        Uri uri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
-        String selection = MediaStore.Audio.Albums._ID + "=" + albumId;
-        Cursor cursor = contentResolver.query(uri,null,selection,null,null);
-        if (cursor != null && cursor.getCount() > 0){
-            while (cursor.moveToNext()){
-                String album_art = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART));
-                bitmap = stringToBitMap(album_art);
+    private void loadAudio(){
+        librarySync = new LibrarySync(this, ArtworkLoader.getInstance(this).getAlbumArtResolver());
+        librarySync.start(new LibrarySync.Callback() {
+            @Override
+            public void onRowsInserted(AudioLibrary library, int start, int count) {
+                if (createTime != 0){
+                    Log.d("MainActivity", count + " rows shown " + (SystemClock.elapsedRealtime() - createTime) + " ms after onCreate");
+                    createTime = 0;
+                }
+                audioList = library;
+                adapter.appendRows(library, start, count);
+                librarySearch.addRows(library, start, count);
+                if (!query.isEmpty()){
+                    search();
+                }
             }
-            cursor.close();
-        }
-        return bitmap;
-    }
 
-    public Bitmap stringToBitMap(String encodedString) {
-        try {
-            File imgFile = new File(encodedString);
-            if (imgFile.exists()){
-                return BitmapFactory.decodeFile(imgFile.getAbsolutePath());
+            @Override
+            public void onLibraryUpdated(AudioLibrary library, LibraryIndex.Update update) {
+                audioList = library;
+                /*Same size doesn't mean same tracks anymore, publish again on the next play*/
+                publishedPlaylist = null;
+                librarySearch.applyUpdate(library, update);
+                /*Only the rows that changed are rebound*/
+                search();
             }
-        } catch (Exception e) {
-            e.getMessage();
-            return null;
-        }
-        return null;
+        });
     }
 }
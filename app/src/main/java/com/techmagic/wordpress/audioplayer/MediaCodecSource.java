@@ -0,0 +1,151 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * PcmSource decoding the first audio track of a file with MediaExtractor and MediaCodec. The
+ * decoded samples are read out of the codec buffers directly, no buffer or view is allocated per
+ * decoded buffer.
+ */
+
+public class MediaCodecSource implements PcmSource {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private final MediaExtractor extractor = new MediaExtractor();
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private int sampleRate;
+    private int channelCount;
+    private boolean inputDone = false;
+    private boolean outputDone = false;
+    /*Output buffer being read from, -1 when none is held*/
+    private int outputIndex = -1;
+    private ByteBuffer output;
+
+    public MediaCodecSource(String path) throws IOException {
+        MediaCodec decoder = null;
+        try {
+            extractor.setDataSource(path);
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null) {
+                throw new IOException("No audio track in " + path);
+            }
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+        } catch (IOException | RuntimeException e) {
+            /*Nobody gets to close a source that failed to open*/
+            if (decoder != null) {
+                decoder.release();
+            }
+            extractor.release();
+            throw e;
+        }
+        codec = decoder;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int count) throws IOException {
+        try {
+            while (output == null || output.remaining() < 2) {
+                releaseOutput();
+                if (outputDone) {
+                    return -1;
+                }
+                feedInput();
+                dequeueOutput();
+            }
+            int length = Math.min(count, output.remaining() / 2);
+            for (int i = 0; i < length; i++) {
+                buffer[offset + i] = output.getShort();
+            }
+            return length;
+        } catch (IllegalStateException e) {
+            throw new IOException("Decoder failed", e);
+        }
+    }
+
+    private void feedInput() {
+        if (inputDone) {
+            return;
+        }
+        int index = codec.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer input = codec.getInputBuffer(index);
+        int size = extractor.readSampleData(input, 0);
+        if (size < 0) {
+            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+        } else {
+            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+            extractor.advance();
+        }
+    }
+
+    private void dequeueOutput() {
+        int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            MediaFormat format = codec.getOutputFormat();
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            return;
+        }
+        if (index < 0) {
+            return;
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            outputDone = true;
+        }
+        ByteBuffer bytes = codec.getOutputBuffer(index);
+        bytes.position(info.offset);
+        bytes.limit(info.offset + info.size);
+        outputIndex = index;
+        output = bytes.order(ByteOrder.nativeOrder());
+    }
+
+    private void releaseOutput() {
+        if (outputIndex >= 0) {
+            codec.releaseOutputBuffer(outputIndex, false);
+            outputIndex = -1;
+        }
+        output = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaseOutput();
+        codec.stop();
+        codec.release();
+        extractor.release();
+    }
+}
@@ -0,0 +1,86 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.media.MediaPlayer;
+
+import java.util.ArrayDeque;
+
+/**
+ * Small pool of MediaPlayer instances with their listeners wired once at creation.
+ * Released players are reset and kept idle, so switching audio only pays for the prepare.
+ */
+
+public class MediaPlayerPool {
+
+    private final MediaPlayer.OnCompletionListener onCompletionListener;
+    private final MediaPlayer.OnPreparedListener onPreparedListener;
+    private final MediaPlayer.OnErrorListener onErrorListener;
+    private final MediaPlayer.OnSeekCompleteListener onSeekCompleteListener;
+    private final MediaPlayer.OnInfoListener onInfoListener;
+    private final MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener;
+
+    /*Upper bound of native players alive at once, idle and in use*/
+    private final int maxSize;
+    private final ArrayDeque<MediaPlayer> idle = new ArrayDeque<>();
+    private int created = 0;
+
+    public <L extends MediaPlayer.OnCompletionListener & MediaPlayer.OnPreparedListener & MediaPlayer.OnErrorListener
+            & MediaPlayer.OnSeekCompleteListener & MediaPlayer.OnInfoListener & MediaPlayer.OnBufferingUpdateListener>
+    MediaPlayerPool(L listener, int maxSize) {
+        this.onCompletionListener = listener;
+        this.onPreparedListener = listener;
+        this.onErrorListener = listener;
+        this.onSeekCompleteListener = listener;
+        this.onInfoListener = listener;
+        this.onBufferingUpdateListener = listener;
+        this.maxSize = maxSize;
+    }
+
+    /*Create idle players ahead of time, up to count idle ones*/
+    public void warmUp(int count) {
+        while (idle.size() < count && created < maxSize) {
+            idle.push(create());
+        }
+    }
+
+    /*An idle player, reset and with its listeners set*/
+    public MediaPlayer acquire() {
+        if (!idle.isEmpty()) {
+            return idle.pop();
+        }
+        if (created >= maxSize) {
+            throw new IllegalStateException("All " + maxSize + " media players are in use");
+        }
+        return create();
+    }
+
+    /*Give a player back, it's reset so that it stops and drops its data source*/
+    public void release(MediaPlayer player) {
+        player.reset();
+        idle.push(player);
+    }
+
+    /*Free the native resources of the idle players, players in use have to be released first*/
+    public void releaseAll() {
+        while (!idle.isEmpty()) {
+            idle.pop().release();
+            created--;
+        }
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    private MediaPlayer create() {
+        MediaPlayer player = new MediaPlayer();
+        /*SetUp MediaPlayer event listeners, they survive reset()*/
+        player.setOnCompletionListener(onCompletionListener);
+        player.setOnErrorListener(onErrorListener);
+        player.setOnPreparedListener(onPreparedListener);
+        player.setOnBufferingUpdateListener(onBufferingUpdateListener);
+        player.setOnSeekCompleteListener(onSeekCompleteListener);
+        player.setOnInfoListener(onInfoListener);
+        created++;
+        return player;
+    }
+}
@@ -8,13 +8,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.media.session.MediaSessionManager;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.v7.app.NotificationCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -23,12 +24,60 @@ import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MediaPlayerService extends Service implements MediaPlayer.OnCompletionListener, MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnSeekCompleteListener, MediaPlayer.OnInfoListener, MediaPlayer.OnBufferingUpdateListener, AudioManager.OnAudioFocusChangeListener {
 
     private MediaPlayer mediaPlayer;
+    /*Gapless playback: the upcoming audio is prepared while the current one plays
+    * and chained to it with setNextMediaPlayer*/
+    private static final boolean GAPLESS = true;
+    private MediaPlayer nextMediaPlayer;
+    /*Index the next player is preparing, and the index it's chained for once prepared (-1 if not chained)*/
+    private int pendingNextAudioIndex = -1;
+    private int nextAudioIndex = -1;
+    /*Completion of the last audio and start of the next one, used to log the gap between them*/
+    private long completionTime = 0;
+    private long nextStartTime = 0;
+    /*Players for the active and the next audio plus one warm spare*/
+    private static final int PLAYER_POOL_SIZE = 3;
+    private MediaPlayerPool playerPool;
+    /*Decode to PCM ourselves and play it through an AudioTrack instead of MediaPlayer.
+    * Off by default, there's no gapless chaining or seeking with it yet*/
+    private static final boolean PCM_ENGINE = false;
+    /*Ring buffer of about 1.5 seconds of 44.1kHz stereo, moved in chunks of about 20ms*/
+    private static final int PCM_BUFFER_SAMPLES = 128 * 1024;
+    private static final int PCM_CHUNK_SAMPLES = 2048;
+    private PcmPipeline pcmPipeline;
+    /*Streamed audio is played through a local caching proxy, so replays and seeks come from disk*/
+    private static final int STREAM_CHUNK_SIZE = 256 * 1024;
+    private static final long STREAM_CACHE_SIZE = 100 * 1024 * 1024;
+    private StreamProxy streamProxy;
+    /*The head of the streams that play next is loaded ahead, so a skip to one starts from the cache.
+    * About 30 seconds of a 128kbps stream each, the next track first*/
+    private static final int STREAM_PREFETCH_TRACKS = 3;
+    private static final long STREAM_PREFETCH_HEAD = 2 * STREAM_CHUNK_SIZE;
+    private static final long STREAM_PREFETCH_BUDGET = 6 * STREAM_CHUNK_SIZE;
+    private static final int STREAM_PREFETCH_CONCURRENCY = 2;
+    private StreamPrefetcher streamPrefetcher;
+    private final int[] upcoming = new int[STREAM_PREFETCH_TRACKS];
+    /*Per track gain from a loudness analysis of the playlist, set on a player once it's prepared.
+    * Tracks that weren't analyzed yet play at full volume*/
+    private static final boolean LOUDNESS_NORMALIZATION = true;
+    private final LoudnessCache loudnessCache = new LoudnessCache();
+    private File loudnessFile;
+    private LoudnessScanner loudnessScanner;
+    private final ExecutorService loudnessExecutor = Executors.newSingleThreadExecutor();
+    /*When the current switch to another audio started, and stats over the finished switches*/
+    private long switchStartTime = 0;
+    private long lastSwitchLatency = -1;
+    private long totalSwitchLatency = 0;
+    private int switchCount = 0;
     /*Path to Audio file*/
     private String mediaFile;
     private int resumePosition;
@@ -37,10 +86,35 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
     private PhoneStateListener phoneStateListener;
     private TelephonyManager telephonyManager;
     /*List of available audio files*/
-    private ArrayList<Audio> audioList;
+    private Playlist audioList;
     private int audioIndex = -1;
+    /*Play order over the positions of audioList, audioIndex is its current item*/
+    private PlayQueue playQueue = new PlayQueue();
+    /*Written when the queue is edited, so shuffle and queued audios survive process death*/
+    private File playQueueFile;
+    private final ExecutorService playQueueWriter = Executors.newSingleThreadExecutor();
+    /*Counts the resets and edits of the queue, a saved queue loaded meanwhile is out of date*/
+    private int playQueueEdits = 0;
     /*An object of the current playing audio*/
     private Audio activeAudio;
+    /*Position to seek to once the active audio is prepared, set when restoring after process death*/
+    private int startPosition = 0;
+
+    /*Playlist shared with the activity and the version of it the service holds*/
+    private PlaylistRepository repository;
+    private long playlistVersion = -1;
+
+    /*Persists index and position in the background, coalescing bursts of updates*/
+    private PlaybackStateJournal journal;
+    private final Handler handler = new Handler();
+    /*Rapid skips are collapsed: presses this close together only move the target*/
+    private static final long SKIP_SETTLE_MS = 300;
+    private boolean skipPending = false;
+    private long lastSkipTime = 0;
+    /*How often the playback position is checkpointed while playing*/
+    private static final long CHECKPOINT_INTERVAL_MS = 5000;
+    /*How long onDestroy waits for the last journal write, it finishes in the background after that*/
+    private static final long JOURNAL_CLOSE_TIMEOUT_MS = 50;
 
     public static final String ACTION_PLAY = "com.techmagic.wordpress.audioplayer.ACTION_PLAY";
     public static final String ACTION_PAUSE = "com.techmagic.wordpress.audioplayer.ACTION_PAUSE";
@@ -55,6 +129,12 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
 
     /*Audio Player Notification ID*/
     private static final int NOTIFICATION_ID = 101;
+    private NotificationUpdater notificationUpdater;
+    /*Album art at lock screen size for the media session metadata: the current, next and previous album*/
+    private static final int SESSION_ARTWORK_CACHE_SIZE = 3;
+    private SessionArtwork sessionArtwork;
+    /*Peaks of the current and the next track for a waveform scrubber*/
+    private WaveformLoader waveformLoader;
 
     public MediaPlayerService() {
     }
@@ -71,20 +151,71 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         registerReceiver();
         /*Listen for new audio to play -- BroadcastReceiver*/
         registerNewAudio();
+
+        repository = PlaylistRepository.getInstance(this);
+        playQueueFile = new File(getFilesDir(), "queue.bin");
+        waveformLoader = WaveformLoader.getInstance(this);
+        initLoudness();
+        playerPool = new MediaPlayerPool(this, PLAYER_POOL_SIZE);
+        playerPool.warmUp(1);
+        journal = new PlaybackStateJournal(new PlaybackStateJournal.Store() {
+            @Override
+            public void write(int audioIndex, int position, long timestamp) {
+                new StorageUtil(getApplicationContext()).storePlaybackState(audioIndex, position, timestamp);
+            }
+        });
+        handler.postDelayed(checkpoint, CHECKPOINT_INTERVAL_MS);
     }
 
+    /*Checkpoint the position while playing, a single getCurrentPosition() call every few seconds*/
+    private final Runnable checkpoint = new Runnable() {
+        @Override
+        public void run() {
+            if (mediaPlayer != null && mediaPlayer.isPlaying()) {
+                journal.record(audioIndex, mediaPlayer.getCurrentPosition());
+            }
+            handler.postDelayed(this, CHECKPOINT_INTERVAL_MS);
+        }
+    };
+
     /*The System calls this method when an activity, requests the service to be started*/
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        /*Transport actions from the notification keep the playlist, only a loaded one is scanned*/
+        boolean newPlaylist = false;
         try {
-            /*Load data from sharedPreference*/
-            StorageUtil storage = new StorageUtil(getApplicationContext());
-            audioList = storage.loadAudio();
-            audioIndex = storage.loadAudioIndex();
+            if (intent != null && intent.getAction() == null && repository.getPlaylist() != null){
+                /*Started by the activity to play a new audio, the playlist is shared in memory*/
+                PlaybackLatency.getInstance().stamp(PlaybackLatency.SERVICE);
+                audioList = repository.getPlaylist();
+                playlistVersion = repository.getVersion();
+                audioIndex = repository.getAudioIndex();
+                startPosition = 0;
+                resetPlayQueue();
+                newPlaylist = true;
+            }else if (intent == null || intent.getAction() == null){
+                /*Load the backup from storage*/
+                StorageUtil storage = new StorageUtil(getApplicationContext());
+                audioList = storage.loadAudio();
+                newPlaylist = true;
+                if (intent == null){
+                    /*Restarted by the system after the process died, continue where the journal left off*/
+                    audioIndex = storage.loadStateAudioIndex();
+                    startPosition = storage.loadStateResumePosition();
+                    restorePlayQueue();
+                }else {
+                    audioIndex = storage.loadAudioIndex();
+                    startPosition = 0;
+                    resetPlayQueue();
+                }
+            }
 
             if (audioIndex != -1 && audioIndex < audioList.size()){
                 /*Index is in valid range*/
-                activeAudio = audioList.get(audioIndex);
+                activeAudio = audioList.getAudio(audioIndex);
+                if (newPlaylist){
+                    scanLoudness();
+                }
             }else {
                 stopSelf();
             }
@@ -112,35 +243,53 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         return super.onStartCommand(intent, flags, startId);
     }
 
-    /*Initialize Media Player*/
+    /*Initialize Media Player, pooled players come reset and with their listeners set*/
     private void initMediaPlayer() {
-        mediaPlayer = new MediaPlayer();
-        /*SetUp MediaPlayer event listeners*/
-        mediaPlayer.setOnCompletionListener(this);
-        mediaPlayer.setOnErrorListener(this);
-        mediaPlayer.setOnPreparedListener(this);
-        mediaPlayer.setOnBufferingUpdateListener(this);
-        mediaPlayer.setOnSeekCompleteListener(this);
-        mediaPlayer.setOnInfoListener(this);
-        /*Reset so that the media player is not pointing to another data source*/
-        mediaPlayer.reset();
+        PlaybackLatency.getInstance().stamp(PlaybackLatency.PLAYER_SWITCH);
+        switchStartTime = SystemClock.elapsedRealtime();
+        if (PCM_ENGINE) {
+            startPcmPipeline();
+            return;
+        }
+        mediaPlayer = playerPool.acquire();
+        PlaybackTelemetry.getInstance().startSession(audioList.getId(audioIndex));
 
         mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
         try {
-            mediaPlayer.setDataSource(activeAudio.getData());
+            mediaPlayer.setDataSource(dataSource(activeAudio));
         } catch (IOException e) {
             e.printStackTrace();
             stopSelf();
         }
         mediaPlayer.prepareAsync();
+        PlaybackLatency.getInstance().stamp(PlaybackLatency.PREPARE);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        handler.removeCallbacks(checkpoint);
+        cancelPendingSkip();
+        /*Write out what is pending, the next start resumes from it*/
+        journal.close(JOURNAL_CLOSE_TIMEOUT_MS);
+        playQueueWriter.shutdown();
+        /*The scan stops, what it analyzed so far is still saved*/
+        loudnessScanner.shutdown();
+        loudnessExecutor.shutdown();
+        releaseNextMediaPlayer();
+        stopPcmPipeline();
         if (mediaPlayer != null){
             stopMedia();
-            mediaPlayer.release();
+            playerPool.release(mediaPlayer);
+            mediaPlayer = null;
+        }
+        playerPool.releaseAll();
+        PlaybackTelemetry.getInstance().dump();
+        if (streamPrefetcher != null){
+            streamPrefetcher.shutdown();
+        }
+        if (streamProxy != null){
+            streamProxy.stop();
         }
         removeAudioFocus();
         /*Disable the PhoneStateListener*/
@@ -151,34 +300,53 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         /*Unregister BroadcastReceivers*/
         unregisterReceiver(receiver);
         unregisterReceiver(playNewAudio);
-
-        /*Clear cached playlist*/
-        new StorageUtil(getApplicationContext()).clearCachedAudioPlaylist();
     }
 
     private void playMedia() {
+        if (pcmPipeline != null) {
+            pcmPipeline.resume();
+            return;
+        }
         if (!mediaPlayer.isPlaying()) {
             mediaPlayer.start();
+            PlaybackTelemetry.getInstance().onPlaying();
         }
     }
 
     private void stopMedia() {
+        stopPcmPipeline();
         if (mediaPlayer != null && mediaPlayer.isPlaying()) {
             mediaPlayer.stop();
         }
+        PlaybackTelemetry.getInstance().endSession();
     }
 
     private void pauseMedia() {
+        if (pcmPipeline != null) {
+            pcmPipeline.pause();
+            return;
+        }
         if (mediaPlayer.isPlaying()) {
             mediaPlayer.pause();
+            PlaybackTelemetry.getInstance().onPaused();
             resumePosition = mediaPlayer.getCurrentPosition();
+            journal.record(audioIndex, resumePosition);
         }
     }
 
     private void resumeMedia() {
+        if (skipPending) {
+            /*The skip target starts playing once the presses stop*/
+            return;
+        }
+        if (pcmPipeline != null) {
+            pcmPipeline.resume();
+            return;
+        }
         if (!mediaPlayer.isPlaying()) {
             mediaPlayer.seekTo(resumePosition);
             mediaPlayer.start();
+            PlaybackTelemetry.getInstance().onPlaying();
         }
     }
 
@@ -193,6 +361,10 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
     @Override
     public void onAudioFocusChange(int focusState) {
         /*Invoked when the audio focus of the system is updated*/
+        if (PCM_ENGINE){
+            onPcmAudioFocusChange(focusState);
+            return;
+        }
         switch (focusState){
             case AudioManager.AUDIOFOCUS_GAIN:
                 /*Resume Playback*/
@@ -201,29 +373,55 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
                 }else {
                     if (!mediaPlayer.isPlaying()){
                         mediaPlayer.start();
+                        PlaybackTelemetry.getInstance().onPlaying();
                     }
-                    mediaPlayer.setVolume(1.0f,1.0f);
+                    applyTrackGain(mediaPlayer, activeAudio);
                 }
                 break;
             case AudioManager.AUDIOFOCUS_LOSS:
                 /*Lost focus for an unbounded amount of time: stop playback and release media player*/
+                releaseNextMediaPlayer();
                 if (mediaPlayer.isPlaying()){
                     mediaPlayer.stop();
                 }
-                mediaPlayer.release();
+                PlaybackTelemetry.getInstance().endSession();
+                playerPool.release(mediaPlayer);
                 mediaPlayer = null;
+                /*Nothing will play for a while, free the native players*/
+                playerPool.releaseAll();
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
                 /*Lost focus for a short time, but we have to stop playback. we don't release media player
                 * because playback is likely to resume*/
                 if (mediaPlayer.isPlaying()){
                     mediaPlayer.pause();
+                    PlaybackTelemetry.getInstance().onPaused();
                 }
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
                 /*Lost focus for short time, but its ok to keep playing at an attenuated level*/
                 if (mediaPlayer.isPlaying()){
-                    mediaPlayer.setVolume(1.0f,1.0f);
+                    applyTrackGain(mediaPlayer, activeAudio);
+                }
+                break;
+        }
+    }
+
+    private void onPcmAudioFocusChange(int focusState){
+        switch (focusState){
+            case AudioManager.AUDIOFOCUS_GAIN:
+                if (pcmPipeline == null){
+                    initMediaPlayer();
+                }else {
+                    pcmPipeline.resume();
+                }
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS:
+                stopPcmPipeline();
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                if (pcmPipeline != null){
+                    pcmPipeline.pause();
                 }
                 break;
         }
@@ -246,20 +444,112 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
 
     @Override
     public void onBufferingUpdate(MediaPlayer mediaPlayer, int i) {
-
+        /*i is how much of a stream is buffered, in percent*/
+        if (mediaPlayer == this.mediaPlayer){
+            PlaybackTelemetry.getInstance().onBufferingUpdate(i);
+        }
     }
 
     @Override
     public void onCompletion(MediaPlayer mediaPlayer) {
         /*Invoked when playback of a media source has completed*/
-        stopMedia();
-        /*Stop the service*/
-        stopSelf();
+        if (mediaPlayer != this.mediaPlayer){
+            return;
+        }
+        completionTime = SystemClock.elapsedRealtime();
+        if (nextMediaPlayer != null && nextAudioIndex != -1){
+            /*The next audio was chained and has already been started by the framework*/
+            logGap();
+            PlaybackTelemetry.getInstance().startSession(audioList.getId(nextAudioIndex));
+            PlaybackTelemetry.getInstance().onPlaying();
+            MediaPlayer finished = this.mediaPlayer;
+            this.mediaPlayer = nextMediaPlayer;
+            /*The queue gave nextAudioIndex from peekAdvance*/
+            playQueue.advance();
+            audioIndex = nextAudioIndex;
+            activeAudio = audioList.getAudio(audioIndex);
+            nextMediaPlayer = null;
+            nextAudioIndex = -1;
+            pendingNextAudioIndex = -1;
+            playerPool.release(finished);
+
+            journal.record(audioIndex, 0);
+            updateMetaData();
+            buildNotification(PlaybackStatus.PLAYING);
+            prepareNextMediaPlayer();
+        }else if (playQueue.peekAdvance() != PlayQueue.NONE){
+            /*Nothing chained, fall back to preparing the next audio now*/
+            audioIndex = playQueue.advance();
+            activeAudio = audioList.getAudio(audioIndex);
+            journal.record(audioIndex, 0);
+            playActiveAudio();
+            updateMetaData();
+            buildNotification(PlaybackStatus.PLAYING);
+        }else {
+            /*End of the playlist*/
+            PlaybackTelemetry.getInstance().endSession();
+            stopMedia();
+            /*Stop the service*/
+            stopSelf();
+        }
+    }
+
+    /*Prepare the audio after the active one and chain it, so it starts without a gap*/
+    private void prepareNextMediaPlayer(){
+        releaseNextMediaPlayer();
+        if (!GAPLESS || mediaPlayer == null){
+            return;
+        }
+        int index = playQueue.peekAdvance();
+        if (index == PlayQueue.NONE){
+            return;
+        }
+        MediaPlayer player = playerPool.acquire();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        try {
+            player.setDataSource(dataSource(audioList.getAudio(index)));
+        } catch (IOException e) {
+            /*Not fatal, onCompletion prepares the audio the regular way*/
+            Log.w("Gapless", "Could not prepare next audio", e);
+            playerPool.release(player);
+            return;
+        }
+        nextMediaPlayer = player;
+        /*nextAudioIndex is set once the player is prepared and chained*/
+        nextAudioIndex = -1;
+        pendingNextAudioIndex = index;
+        player.prepareAsync();
+    }
+
+    private void releaseNextMediaPlayer(){
+        if (nextMediaPlayer == null){
+            return;
+        }
+        if (mediaPlayer != null && nextAudioIndex != -1){
+            try {
+                mediaPlayer.setNextMediaPlayer(null);
+            } catch (IllegalStateException e) {
+                /*The current player is being released itself*/
+            }
+        }
+        playerPool.release(nextMediaPlayer);
+        nextMediaPlayer = null;
+        nextAudioIndex = -1;
+        pendingNextAudioIndex = -1;
     }
 
     @Override
     public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
         /*Invoked when there has been an error during an asynchronous operation*/
+        if (mediaPlayer == nextMediaPlayer){
+            /*Only the look ahead failed, drop it and let onCompletion advance the regular way*/
+            Log.d("Gapless", "Next audio failed " + what + " " + extra);
+            releaseNextMediaPlayer();
+            return true;
+        }
+        if (mediaPlayer == this.mediaPlayer){
+            PlaybackTelemetry.getInstance().onError(what, extra);
+        }
         switch (what) {
             case MediaPlayer.MEDIA_ERROR_NOT_VALID_FOR_PROGRESSIVE_PLAYBACK:
                 Log.d("MediaPlayer Error", "MEDIA ERROR NOT VALID FOR PROGRESSIVE PLAYBACK " + extra);
@@ -276,12 +566,325 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
 
     @Override
     public boolean onInfo(MediaPlayer mediaPlayer, int i, int i1) {
+        if (i == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT){
+            nextStartTime = SystemClock.elapsedRealtime();
+            logGap();
+        }else if (mediaPlayer == this.mediaPlayer && i == MediaPlayer.MEDIA_INFO_BUFFERING_START){
+            /*Stalled waiting for data, a stream most likely*/
+            PlaybackTelemetry.getInstance().onStallStart();
+        }else if (mediaPlayer == this.mediaPlayer && i == MediaPlayer.MEDIA_INFO_BUFFERING_END){
+            PlaybackTelemetry.getInstance().onStallEnd();
+        }
         return false;
     }
 
+    /*Logs the gap once both the completion and the start of the next audio have been seen*/
+    private void logGap(){
+        if (completionTime != 0 && nextStartTime != 0){
+            Log.d("Gapless", "Gap between audios " + Math.max(0, nextStartTime - completionTime) + " ms");
+            completionTime = 0;
+            nextStartTime = 0;
+        }
+    }
+
     @Override
     public void onPrepared(MediaPlayer mediaPlayer) {
+        if (mediaPlayer == nextMediaPlayer){
+            /*Look ahead is ready, chain it to the active player*/
+            try {
+                applyTrackGain(mediaPlayer, audioList.getAudio(pendingNextAudioIndex));
+                this.mediaPlayer.setNextMediaPlayer(mediaPlayer);
+                nextAudioIndex = pendingNextAudioIndex;
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                Log.w("Gapless", "Could not chain next audio", e);
+                releaseNextMediaPlayer();
+            }
+            return;
+        }
+        if (mediaPlayer == this.mediaPlayer && !skipPending){
+            onActivePrepared();
+        }
+    }
+
+    /*The active player is prepared, start it and get the next audio ready*/
+    private void onActivePrepared(){
+        if (completionTime != 0){
+            /*Advanced without a chained player*/
+            nextStartTime = SystemClock.elapsedRealtime();
+            logGap();
+        }
+        if (startPosition > 0){
+            /*Restoring after process death*/
+            mediaPlayer.seekTo(startPosition);
+            startPosition = 0;
+        }
+        applyTrackGain(mediaPlayer, activeAudio);
         playMedia();
+        PlaybackLatency.getInstance().stamp(PlaybackLatency.STARTED);
+        if (switchStartTime != 0){
+            recordSwitchLatency(SystemClock.elapsedRealtime() - switchStartTime);
+            switchStartTime = 0;
+        }
+        prepareNextMediaPlayer();
+    }
+
+    private void recordSwitchLatency(long latency){
+        lastSwitchLatency = latency;
+        totalSwitchLatency += latency;
+        switchCount++;
+        Log.d("MediaPlayerPool", "Switch latency " + latency + " ms, average " + getAverageSwitchLatency() + " ms over " + switchCount);
+    }
+
+    /*Time from a track switch until its audio started, -1 before the first switch*/
+    public long getLastSwitchLatency(){
+        return lastSwitchLatency;
+    }
+
+    public long getAverageSwitchLatency(){
+        return switchCount == 0 ? -1 : totalSwitchLatency / switchCount;
+    }
+
+    /*Switch the active player to activeAudio. If the look ahead is already preparing
+    * this audio it's promoted, otherwise an idle pooled player is prepared*/
+    private void playActiveAudio(){
+        PlaybackLatency.getInstance().stamp(PlaybackLatency.PLAYER_SWITCH);
+        if (PCM_ENGINE){
+            initMediaPlayer();
+            return;
+        }
+        if (nextMediaPlayer != null && pendingNextAudioIndex == audioIndex){
+            boolean prepared = nextAudioIndex != -1;
+            MediaPlayer promoted = nextMediaPlayer;
+            nextMediaPlayer = null;
+            nextAudioIndex = -1;
+            pendingNextAudioIndex = -1;
+            releaseActiveMediaPlayer();
+            mediaPlayer = promoted;
+            PlaybackTelemetry.getInstance().startSession(audioList.getId(audioIndex));
+            switchStartTime = SystemClock.elapsedRealtime();
+            if (prepared){
+                onActivePrepared();
+            }
+            /*Otherwise onPrepared starts it*/
+            return;
+        }
+        releaseNextMediaPlayer();
+        releaseActiveMediaPlayer();
+        initMediaPlayer();
+    }
+
+    /*What the player is given for audio: the path of a local file, or the proxy address of a stream*/
+    private String dataSource(Audio audio){
+        String data = audio.getData();
+        if (!isStream(data) || !startStreamProxy()){
+            return data;
+        }
+        return streamProxy.proxyUrl(data);
+    }
+
+    private static boolean isStream(String data){
+        return data.startsWith("http://") || data.startsWith("https://");
+    }
+
+    /*Started on the first stream, false if it can't be*/
+    private boolean startStreamProxy(){
+        if (streamProxy == null){
+            StreamProxy proxy = new StreamProxy(new ChunkCache(new File(getCacheDir(), "streams"), STREAM_CHUNK_SIZE, STREAM_CACHE_SIZE));
+            try {
+                proxy.start();
+            } catch (IOException e) {
+                Log.w("StreamProxy", "Could not start, streaming without cache", e);
+                return false;
+            }
+            streamProxy = proxy;
+        }
+        return true;
+    }
+
+    /*Load the head of the streams skips move to next, replacing what was scheduled for the old queue or index*/
+    private void prefetchStreams(){
+        if (audioList == null || audioIndex < 0){
+            return;
+        }
+        int count = playQueue.peekUpcoming(upcoming);
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            String data = audioList.getAudio(upcoming[i]).getData();
+            if (isStream(data) && !urls.contains(data)){
+                urls.add(data);
+            }
+        }
+        if (streamPrefetcher == null){
+            if (urls.isEmpty() || !startStreamProxy()){
+                return;
+            }
+            streamPrefetcher = new StreamPrefetcher(streamProxy, STREAM_PREFETCH_CONCURRENCY,
+                    STREAM_PREFETCH_HEAD, STREAM_PREFETCH_BUDGET);
+        }
+        streamPrefetcher.schedule(urls);
+    }
+
+    private void releaseActiveMediaPlayer(){
+        if (mediaPlayer != null){
+            /*reset() also stops it and drops a chained next player*/
+            playerPool.release(mediaPlayer);
+            mediaPlayer = null;
+        }
+    }
+
+    private void initLoudness(){
+        loudnessFile = new File(getFilesDir(), "loudness.bin");
+        loudnessScanner = new LoudnessScanner(loudnessCache, new LoudnessScanner.SourceFactory() {
+            @Override
+            public PcmSource open(String path) throws IOException {
+                return new MediaCodecSource(path);
+            }
+        });
+        if (!LOUDNESS_NORMALIZATION){
+            return;
+        }
+        loudnessExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!loudnessFile.exists()){
+                    return;
+                }
+                try {
+                    loudnessCache.load(loudnessFile);
+                } catch (IOException e) {
+                    Log.w("Loudness", "Could not load the loudness cache", e);
+                }
+            }
+        });
+    }
+
+    /*Analyze the tracks of the playlist that aren't in the cache yet, the upcoming ones first*/
+    private void scanLoudness(){
+        if (!LOUDNESS_NORMALIZATION){
+            return;
+        }
+        final Playlist playlist = audioList;
+        final int start = audioIndex;
+        loudnessExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int size = playlist.size();
+                List<String> paths = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    paths.add(playlist.getAudio((start + i) % size).getData());
+                }
+                long startTime = SystemClock.elapsedRealtime();
+                int analyzed = loudnessScanner.scan(paths);
+                if (analyzed > 0){
+                    Log.d("Loudness", "Analyzed " + analyzed + " tracks in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                }
+                if (loudnessCache.isModified()){
+                    try {
+                        loudnessCache.save(loudnessFile);
+                    } catch (IOException e) {
+                        Log.w("Loudness", "Could not save the loudness cache", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /*Volume that plays audio at the reference loudness, 1 if it wasn't analyzed*/
+    private float trackGain(Audio audio){
+        if (!LOUDNESS_NORMALIZATION){
+            return 1f;
+        }
+        /*By path only, checking the modification time would touch the disk on the main thread*/
+        Loudness loudness = loudnessCache.get(audio.getData());
+        return loudness == null ? 1f : loudness.gain(Loudness.REFERENCE_LUFS);
+    }
+
+    private void applyTrackGain(MediaPlayer player, Audio audio){
+        float gain = trackGain(audio);
+        player.setVolume(gain, gain);
+    }
+
+    /*Play activeAudio through a new pipeline, replacing the one playing*/
+    private void startPcmPipeline(){
+        stopPcmPipeline();
+        PcmPipeline pipeline = null;
+        AudioTrackSink sink = new AudioTrackSink();
+        try {
+            pipeline = new PcmPipeline(new MediaCodecSource(dataSource(activeAudio)), sink,
+                    PCM_BUFFER_SAMPLES, PCM_CHUNK_SAMPLES);
+            pipeline.setListener(pcmListener);
+            pipeline.start();
+            /*The track exists once the pipeline started*/
+            sink.setVolume(trackGain(activeAudio));
+        } catch (IOException | RuntimeException e) {
+            if (pipeline != null){
+                /*Releases the decoder and the track, also when they never started*/
+                pipeline.stop();
+            }
+            Log.e("PcmPipeline", "Could not play " + activeAudio.getData(), e);
+            stopSelf();
+            return;
+        }
+        pcmPipeline = pipeline;
+        PlaybackLatency.getInstance().stamp(PlaybackLatency.STARTED);
+        if (switchStartTime != 0){
+            recordSwitchLatency(SystemClock.elapsedRealtime() - switchStartTime);
+            switchStartTime = 0;
+        }
+    }
+
+    private void stopPcmPipeline(){
+        if (pcmPipeline != null){
+            PcmPipeline pipeline = pcmPipeline;
+            pcmPipeline = null;
+            pipeline.stop();
+            Log.d("PcmPipeline", pipeline.getSamplesWritten() + " samples written, "
+                    + pipeline.getUnderruns() + " underruns");
+        }
+    }
+
+    /*Called on the pipeline threads, handled on the main thread if the pipeline is still the active one*/
+    private final PcmPipeline.Listener pcmListener = new PcmPipeline.Listener() {
+        @Override
+        public void onCompletion(final PcmPipeline pipeline) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (pipeline == pcmPipeline){
+                        onPcmCompletion();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onError(final PcmPipeline pipeline, final IOException e) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (pipeline == pcmPipeline){
+                        Log.e("PcmPipeline", "Playback failed", e);
+                        stopPcmPipeline();
+                        stopSelf();
+                    }
+                }
+            });
+        }
+    };
+
+    /*Same as the fallback path of onCompletion, there's no chained player to switch to*/
+    private void onPcmCompletion(){
+        stopPcmPipeline();
+        if (playQueue.peekAdvance() != PlayQueue.NONE){
+            audioIndex = playQueue.advance();
+            activeAudio = audioList.getAudio(audioIndex);
+            journal.record(audioIndex, 0);
+            playActiveAudio();
+            updateMetaData();
+            buildNotification(PlaybackStatus.PLAYING);
+        }else {
+            stopSelf();
+        }
     }
 
     @Override
@@ -323,14 +926,14 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
                 switch (state){
                     case TelephonyManager.CALL_STATE_OFFHOOK:
                     case TelephonyManager.CALL_STATE_RINGING:
-                        if (mediaPlayer != null){
+                        if (mediaPlayer != null || pcmPipeline != null){
                             pauseMedia();
                             onGoingCall = true;
                         }
                         break;
                     case TelephonyManager.CALL_STATE_IDLE:
                         /*Phone idle start playing*/
-                        if (mediaPlayer != null){
+                        if (mediaPlayer != null || pcmPipeline != null){
                             if (onGoingCall){
                                 onGoingCall = false;
                                 resumeMedia();
@@ -347,20 +950,37 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
     private BroadcastReceiver playNewAudio = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            /*Get the new media index from the share preference*/
-            audioIndex = new StorageUtil(getApplicationContext()).loadAudioIndex();
+            PlaybackLatency.getInstance().stamp(PlaybackLatency.SERVICE);
+            /*Pick up the playlist if the activity published a new one, then the new media index*/
+            boolean newPlaylist = repository.getVersion() != playlistVersion;
+            if (newPlaylist){
+                audioList = repository.getPlaylist();
+                playlistVersion = repository.getVersion();
+            }
+            audioIndex = repository.getAudioIndex();
             if (audioIndex != -1 && audioIndex < audioList.size()){
                 /*Index is in valid range*/
-                activeAudio = audioList.get(audioIndex);
+                activeAudio = audioList.getAudio(audioIndex);
+                if (newPlaylist){
+                    scanLoudness();
+                }
             }else {
                 stopSelf();
+                return;
+            }
+            int entry = newPlaylist ? PlayQueue.NONE : playQueue.find(audioIndex);
+            if (entry == PlayQueue.NONE){
+                resetPlayQueue();
+            }else {
+                /*Same playlist, keep the queue and its shuffle round*/
+                playQueue.jumpTo(entry);
             }
+            journal.record(audioIndex, 0);
+            cancelPendingSkip();
 
             /*PLAY_NEW _AUDIO action received
             * reset media player to play the audio*/
-            stopMedia();
-            mediaPlayer.reset();
-            initMediaPlayer();
+            playActiveAudio();
             updateMetaData();
             buildNotification(PlaybackStatus.PLAYING);
         }
@@ -436,7 +1056,25 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
     }
 
     private void updateMetaData(){
-        Bitmap albumArt = BitmapFactory.decodeResource(getResources(),R.drawable.image2);/*replace with media albumArt*/
+        if (sessionArtwork == null){
+            int size = getResources().getDimensionPixelSize(R.dimen.album_art_lockscreen_size);
+            sessionArtwork = new SessionArtwork(this, size, SESSION_ARTWORK_CACHE_SIZE, new SessionArtwork.Listener() {
+                @Override
+                public void onArtworkLoaded(long albumId) {
+                    /*Replace the default image once the art of the playing track is decoded*/
+                    if (activeAudio != null && activeAudio.getAlbumId() == albumId && mediaSession != null){
+                        updateMetaData();
+                    }
+                }
+            });
+        }
+        Bitmap albumArt = sessionArtwork.get(activeAudio.getAlbumId());
+        if (albumArt == null){
+            albumArt = sessionArtwork.getDefault();
+        }
+        prefetchNeighbourArtwork();
+        prefetchWaveforms();
+        prefetchStreams();
         /*Update current metaData*/
         mediaSession.setMetadata(new MediaMetadataCompat.Builder()
         .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART,albumArt)
@@ -445,87 +1083,272 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         .putString(MediaMetadataCompat.METADATA_KEY_TITLE,activeAudio.getTitle()).build());
     }
 
-    private void skipToNext(){
-        if (audioIndex == audioList.size() -1){
-            /*if last in playlist*/
-            audioIndex = 0;
-            activeAudio = audioList.get(audioIndex);
+    /*Decode the art of the previous and next tracks ahead, so a skip finds it cached*/
+    private void prefetchNeighbourArtwork(){
+        if (audioList == null || audioIndex < 0){
+            return;
+        }
+        prefetchArtwork(playQueue.peekNext());
+        prefetchArtwork(playQueue.peekPrevious());
+    }
+
+    private void prefetchArtwork(int index){
+        if (index == PlayQueue.NONE){
+            return;
+        }
+        long albumId = audioList.getAudio(index).getAlbumId();
+        sessionArtwork.prefetch(albumId);
+        if (notificationUpdater != null){
+            notificationUpdater.prefetch(albumId);
+        }
+    }
+
+    /*Extract the peaks of the current and the next track ahead of the scrubber asking for them.
+    * Not during a burst of skips, the targets it passes would only delay the one it settles on*/
+    private void prefetchWaveforms(){
+        if (audioList == null || audioIndex < 0){
+            return;
+        }
+        if (skipPending){
+            waveformLoader.cancelPrefetches();
+            return;
+        }
+        int next = playQueue.peekNext();
+        if (next == PlayQueue.NONE){
+            waveformLoader.prefetch(new long[]{audioList.getId(audioIndex)}, new String[]{activeAudio.getData()});
         }else {
-            /*Get next in playlist*/
-            activeAudio = audioList.get(++audioIndex);
+            waveformLoader.prefetch(new long[]{audioList.getId(audioIndex), audioList.getId(next)},
+                    new String[]{activeAudio.getData(), audioList.getAudio(next).getData()});
+        }
+    }
+
+    /*Peaks of the active audio for a waveform scrubber, see WaveformLoader.Callback*/
+    public void loadWaveform(WaveformLoader.Callback callback){
+        if (audioList == null || audioIndex < 0){
+            return;
         }
+        waveformLoader.load(audioList.getId(audioIndex), activeAudio.getData(), callback);
+    }
 
-        /*Update Stored Index*/
-        new StorageUtil(getApplicationContext()).storeAudioIndex(audioIndex);
+    public void setShuffle(boolean shuffle){
+        playQueue.setShuffle(shuffle);
+        onPlayQueueEdited();
+    }
 
-        stopMedia();
-        /*reset MediaPlayer*/
-        mediaPlayer.reset();
-        initMediaPlayer();
+    public boolean isShuffle(){
+        return playQueue.isShuffle();
     }
 
-    private void skipToPrevious(){
-        if (audioIndex == 0){
-            /*if first in playlist set index to the last of audioList*/
-            audioIndex = audioList.size() - 1;
-            activeAudio = audioList.get(audioIndex);
+    /*One of PlayQueue.REPEAT_OFF, REPEAT_ONE or REPEAT_ALL*/
+    public void setRepeatMode(int repeatMode){
+        playQueue.setRepeatMode(repeatMode);
+        onPlayQueueEdited();
+    }
+
+    public int getRepeatMode(){
+        return playQueue.getRepeatMode();
+    }
+
+    /*Queue the audio at position of the playlist to play after the current one*/
+    public void playNext(int position){
+        if (audioList == null || position < 0 || position >= audioList.size()){
+            return;
+        }
+        playQueue.insertNext(position);
+        onPlayQueueEdited();
+    }
+
+    private void onPlayQueueEdited(){
+        playQueueEdits++;
+        onPlayQueueChanged();
+        savePlayQueue();
+    }
+
+    /*What plays next changed, get the gapless player, the artwork and the streams ready for it*/
+    private void onPlayQueueChanged(){
+        if (mediaPlayer != null && !skipPending){
+            prepareNextMediaPlayer();
+        }
+        if (sessionArtwork != null){
+            prefetchNeighbourArtwork();
+        }
+        prefetchStreams();
+    }
+
+    /*A new playlist or a new start, the queue follows the playlist order from audioIndex again.
+    * Shuffle and repeat stay as they were*/
+    private void resetPlayQueue(){
+        playQueueEdits++;
+        playQueue.reset(audioList == null ? 0 : audioList.size(), audioIndex);
+        if (playQueue.isShuffle() || playQueue.getRepeatMode() != PlayQueue.REPEAT_OFF){
+            savePlayQueue();
         }else {
-            /*get previous in playlist*/
-            activeAudio = audioList.get(--audioIndex);
+            /*Same as having no saved queue*/
+            playQueueWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    playQueueFile.delete();
+                }
+            });
         }
+    }
 
-        /*Update stored index*/
-        new StorageUtil(getApplicationContext()).storeAudioIndex(audioIndex);
+    /*Written from a snapshot on the writer thread, the queue of a large playlist takes a while*/
+    private void savePlayQueue(){
+        final PlayQueue snapshot = playQueue.snapshot();
+        playQueueWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot.save(playQueueFile);
+                } catch (IOException e) {
+                    Log.w("PlayQueue", "Could not save the play queue", e);
+                }
+            }
+        });
+    }
 
-        stopMedia();
-        /*reset mediaPlayer*/
-        mediaPlayer.reset();
-        initMediaPlayer();
+    /*After process death: playback starts on the queue in playlist order, the saved queue is read on
+    * the writer thread and taken over if it still fits the playlist and the journal*/
+    private void restorePlayQueue(){
+        playQueue.reset(audioList == null ? 0 : audioList.size(), audioIndex);
+        if (audioList == null){
+            return;
+        }
+        final Playlist playlist = audioList;
+        final int edits = playQueueEdits;
+        playQueueWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!playQueueFile.exists()){
+                    return;
+                }
+                final PlayQueue saved;
+                try {
+                    saved = PlayQueue.load(playQueueFile);
+                } catch (IOException e) {
+                    Log.w("PlayQueue", "Discarding the saved play queue", e);
+                    playQueueFile.delete();
+                    return;
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        adoptPlayQueue(saved, playlist, edits);
+                    }
+                });
+            }
+        });
+    }
+
+    private void adoptPlayQueue(PlayQueue saved, Playlist playlist, int edits){
+        if (playQueueWriter.isShutdown() || audioList != playlist || playQueueEdits != edits){
+            /*Destroyed, or a new playlist or an edit came first and is saved over the file*/
+            return;
+        }
+        for (int entry = saved.firstEntry(); entry != PlayQueue.NONE; entry = saved.nextEntry(entry)){
+            if (saved.getItem(entry) >= audioList.size()){
+                resetPlayQueue();
+                return;
+            }
+        }
+        if (saved.getCurrentItem() != audioIndex){
+            /*The journal is written more often than the queue, and skips may have moved on since*/
+            int entry = saved.find(audioIndex);
+            if (entry == PlayQueue.NONE){
+                resetPlayQueue();
+                return;
+            }
+            saved.jumpTo(entry);
+        }
+        playQueue = saved;
+        onPlayQueueChanged();
+    }
+
+    /*audioIndex was moved to a skip target. The first skip after a while switches right away,
+    * skips following it within SKIP_SETTLE_MS only move the target: the player is paused, the
+    * prepare in flight is abandoned and only the last target is prepared and persisted*/
+    private void requestSkip(){
+        long now = SystemClock.uptimeMillis();
+        boolean burst = skipPending || now - lastSkipTime < SKIP_SETTLE_MS;
+        lastSkipTime = now;
+        handler.removeCallbacks(settleSkip);
+        if (!burst){
+            journal.record(audioIndex, 0);
+            playActiveAudio();
+            return;
+        }
+        skipPending = true;
+        releaseNextMediaPlayer();
+        if (pcmPipeline != null){
+            pcmPipeline.pause();
+        }
+        if (mediaPlayer != null && mediaPlayer.isPlaying()){
+            mediaPlayer.pause();
+        }
+        /*Until the skip settles the old session is paused, not playing or stalled*/
+        PlaybackTelemetry.getInstance().onPaused();
+        handler.postDelayed(settleSkip, SKIP_SETTLE_MS);
+    }
+
+    private final Runnable settleSkip = new Runnable() {
+        @Override
+        public void run() {
+            skipPending = false;
+            journal.record(audioIndex, 0);
+            /*Releasing the player also cancels a prepare of an earlier target*/
+            playActiveAudio();
+            prefetchWaveforms();
+        }
+    };
+
+    /*Another audio was picked, the skips in progress are moot*/
+    private void cancelPendingSkip(){
+        handler.removeCallbacks(settleSkip);
+        skipPending = false;
+    }
+
+    private void skipToNext(){
+        int index = playQueue.skipToNext();
+        if (index == PlayQueue.NONE){
+            return;
+        }
+        audioIndex = index;
+        activeAudio = audioList.getAudio(audioIndex);
+
+        /*Switch now, or once the presses stop*/
+        requestSkip();
+    }
+
+    private void skipToPrevious(){
+        int index = playQueue.skipToPrevious();
+        if (index == PlayQueue.NONE){
+            /*Start of the shuffle round*/
+            return;
+        }
+        audioIndex = index;
+        activeAudio = audioList.getAudio(audioIndex);
+
+        /*Switch now, or once the presses stop*/
+        requestSkip();
     }
 
     private void buildNotification(PlaybackStatus playbackStatus){
-        int notificationAction = android.R.drawable.ic_media_pause;/*Needs to be initialised*/
-        PendingIntent play_pauseAction = null;
-
-        /*Build a new notification according to current state of the mediaPlayer*/
-        if (playbackStatus == PlaybackStatus.PLAYING){
-            notificationAction = android.R.drawable.ic_media_pause;
-            /*Create pause action*/
-            play_pauseAction = playBackAction(1);
-        }else if (playbackStatus == PlaybackStatus.PAUSED){
-            notificationAction = android.R.drawable.ic_media_play;
-            /*Create play action*/
-            play_pauseAction = playBackAction(0);
-        }
-
-        Bitmap largeIcon = BitmapFactory.decodeResource(getResources(),R.drawable.image2);/*replace with your own image*/
-        /*Create a new notification*/
-        NotificationCompat.Builder builder = (NotificationCompat.Builder) new NotificationCompat.Builder(this).setShowWhen(false)
-                .setStyle(new NotificationCompat.MediaStyle()
-                /*Attach our media session token*/
-                .setMediaSession(mediaSession.getSessionToken())
-                /*Show our playback controls in the compact notification view*/
-                .setShowActionsInCompactView(0,1,2))
-                /*set the notification color*/
-                .setColor(getResources().getColor(R.color.colorPrimary))
-                /*set the large and small icons*/
-                .setLargeIcon(largeIcon)
-                .setSmallIcon(android.R.drawable.stat_sys_headset)
-                /*set notofication content information*/
-                .setContentText(activeAudio.getArtist())
-                .setContentTitle(activeAudio.getAlbum())
-                .setContentInfo(activeAudio.getTitle())
-                /*Add playback actions*/
-                .addAction(android.R.drawable.ic_media_previous,"previous",playBackAction(3))
-                .addAction(notificationAction,"pause",play_pauseAction)
-                .addAction(android.R.drawable.ic_media_next,"next",playBackAction(2));
-
-        ((NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE)).notify(NOTIFICATION_ID,builder.build());
+        if (notificationUpdater == null){
+            notificationUpdater = new NotificationUpdater(this, mediaSession.getSessionToken(), NOTIFICATION_ID,
+                    playBackAction(0), playBackAction(1), playBackAction(3), playBackAction(2));
+        }
+        /*Coalesced with the other updates of a burst of skips, and only posted if something changed*/
+        notificationUpdater.update(playbackStatus, activeAudio);
     }
 
     private void removeNotification(){
-        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManager.cancel(NOTIFICATION_ID);
+        if (notificationUpdater != null){
+            notificationUpdater.cancel();
+        }else {
+            NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            notificationManager.cancel(NOTIFICATION_ID);
+        }
     }
 
     private PendingIntent playBackAction(int actionNumber){
@@ -0,0 +1,197 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.app.NotificationCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+
+/**
+ * Posts the playback notification. Requests that match what is already shown are dropped, the others
+ * are posted at most once per MIN_POST_INTERVAL_MS and the last one requested is always posted.
+ * The large icon is decoded once per album at the notification size by a SessionArtwork. Main thread only.
+ */
+
+public class NotificationUpdater {
+
+    /*The NotificationManager drops updates of a package posting more than about 5 per second*/
+    static final long MIN_POST_INTERVAL_MS = 250;
+    /*The current album and the ones skipped back and forth between*/
+    private static final int ARTWORK_CACHE_SIZE = 4;
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final MediaSessionCompat.Token sessionToken;
+    private final int notificationId;
+    private final int color;
+    private final PendingIntent playAction;
+    private final PendingIntent pauseAction;
+    private final PendingIntent previousAction;
+    private final PendingIntent nextAction;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /*Large icons at the notification size*/
+    private final SessionArtwork artwork;
+
+    /*Latest requested state, the state on screen and its icon, null when nothing is shown*/
+    private State requested;
+    private State shown;
+    private Bitmap shownIcon;
+    private long lastPostTime = 0;
+    private boolean postScheduled = false;
+
+    private final Runnable post = new Runnable() {
+        @Override
+        public void run() {
+            postScheduled = false;
+            if (requested == null) {
+                return;
+            }
+            Bitmap icon = getLargeIcon(requested.albumId);
+            if (requested.equals(shown) && icon == shownIcon) {
+                return;
+            }
+            notificationManager.notify(notificationId, build(requested, icon));
+            shown = requested;
+            shownIcon = icon;
+            lastPostTime = SystemClock.uptimeMillis();
+        }
+    };
+
+    public NotificationUpdater(Context context, MediaSessionCompat.Token sessionToken, int notificationId,
+                               PendingIntent playAction, PendingIntent pauseAction,
+                               PendingIntent previousAction, PendingIntent nextAction) {
+        this.context = context;
+        this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        this.sessionToken = sessionToken;
+        this.notificationId = notificationId;
+        this.playAction = playAction;
+        this.pauseAction = pauseAction;
+        this.previousAction = previousAction;
+        this.nextAction = nextAction;
+        Resources resources = context.getResources();
+        this.color = resources.getColor(R.color.colorPrimary);
+        int iconSize = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        this.artwork = new SessionArtwork(context, iconSize, ARTWORK_CACHE_SIZE, new SessionArtwork.Listener() {
+            @Override
+            public void onArtworkLoaded(long albumId) {
+                if (requested != null && requested.albumId == albumId) {
+                    schedulePost();
+                }
+            }
+        });
+    }
+
+    /*Show audio in playbackStatus, cheap to call for every change*/
+    public void update(PlaybackStatus playbackStatus, Audio audio) {
+        requested = new State(playbackStatus, audio);
+        if (requested.equals(shown) && getLargeIcon(requested.albumId) == shownIcon) {
+            /*Back to what is shown before the pending post went out*/
+            handler.removeCallbacks(post);
+            postScheduled = false;
+            return;
+        }
+        schedulePost();
+    }
+
+    /*Decode the icon of an album that is likely to be shown next*/
+    public void prefetch(long albumId) {
+        artwork.prefetch(albumId);
+    }
+
+    /*Remove the notification, pending posts are dropped*/
+    public void cancel() {
+        handler.removeCallbacks(post);
+        postScheduled = false;
+        requested = null;
+        shown = null;
+        shownIcon = null;
+        notificationManager.cancel(notificationId);
+    }
+
+    private void schedulePost() {
+        if (postScheduled) {
+            /*The pending post picks up the latest request*/
+            return;
+        }
+        long delay = lastPostTime + MIN_POST_INTERVAL_MS - SystemClock.uptimeMillis();
+        postScheduled = true;
+        handler.postDelayed(post, Math.max(0, delay));
+    }
+
+    /*The cached icon of the album, or the default one while its art is decoded*/
+    private Bitmap getLargeIcon(long albumId) {
+        Bitmap icon = artwork.get(albumId);
+        return icon != null ? icon : artwork.getDefault();
+    }
+
+    private android.app.Notification build(State state, Bitmap largeIcon) {
+        int notificationAction;
+        PendingIntent play_pauseAction;
+        if (state.playbackStatus == PlaybackStatus.PLAYING) {
+            notificationAction = android.R.drawable.ic_media_pause;
+            play_pauseAction = pauseAction;
+        } else {
+            notificationAction = android.R.drawable.ic_media_play;
+            play_pauseAction = playAction;
+        }
+
+        NotificationCompat.Builder builder = (NotificationCompat.Builder) new NotificationCompat.Builder(context).setShowWhen(false)
+                .setStyle(new NotificationCompat.MediaStyle()
+                /*Attach our media session token*/
+                .setMediaSession(sessionToken)
+                /*Show our playback controls in the compact notification view*/
+                .setShowActionsInCompactView(0,1,2))
+                .setColor(color)
+                .setLargeIcon(largeIcon)
+                .setSmallIcon(android.R.drawable.stat_sys_headset)
+                .setContentText(state.artist)
+                .setContentTitle(state.album)
+                .setContentInfo(state.title)
+                .addAction(android.R.drawable.ic_media_previous,"previous",previousAction)
+                .addAction(notificationAction,"pause",play_pauseAction)
+                .addAction(android.R.drawable.ic_media_next,"next",nextAction);
+        return builder.build();
+    }
+
+    /*What the notification shows*/
+    private static class State {
+        final PlaybackStatus playbackStatus;
+        final String title;
+        final String album;
+        final String artist;
+        final long albumId;
+
+        State(PlaybackStatus playbackStatus, Audio audio) {
+            this.playbackStatus = playbackStatus;
+            this.title = audio.getTitle();
+            this.album = audio.getAlbum();
+            this.artist = audio.getArtist();
+            this.albumId = audio.getAlbumId();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            State other = (State) o;
+            return playbackStatus == other.playbackStatus && albumId == other.albumId
+                    && equal(title, other.title) && equal(album, other.album) && equal(artist, other.artist);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) albumId * 31 + playbackStatus.hashCode();
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
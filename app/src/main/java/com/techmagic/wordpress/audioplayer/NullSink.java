@@ -0,0 +1,64 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PcmSink that drops the samples, for measuring a pipeline without an audio device.
+ * Optionally takes as long as playing them would, like a device draining at the sample rate.
+ */
+
+public class NullSink implements PcmSink {
+
+    private final boolean realTime;
+    private int samplesPerSecond;
+    private volatile long samplesWritten = 0;
+    /*Real time: when the samples written so far are done playing*/
+    private long playedUntilNanos;
+
+    public NullSink() {
+        this(false);
+    }
+
+    public NullSink(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) {
+        samplesPerSecond = sampleRate * channelCount;
+        playedUntilNanos = System.nanoTime();
+    }
+
+    @Override
+    public void write(short[] buffer, int offset, int count) {
+        samplesWritten += count;
+        if (realTime && samplesPerSecond > 0) {
+            playedUntilNanos += count * 1000000000L / samplesPerSecond;
+            long wait = playedUntilNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    @Override
+    public void pause() {
+    }
+
+    @Override
+    public void resume() {
+        playedUntilNanos = System.nanoTime();
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+}
@@ -0,0 +1,249 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a PcmSource into a PcmSink over two threads: the decoder thread reads the source into a
+ * PcmRingBuffer and the output thread drains it into the sink. A thread with nothing to do parks
+ * until the other one signals, the chunk buffers and the ring are allocated up front so a
+ * running pipeline doesn't allocate. Counts the samples moved and the underruns of the output.
+ */
+
+public class PcmPipeline {
+
+    public interface Listener {
+        /*Output thread, every sample of the source was written to the sink*/
+        void onCompletion(PcmPipeline pipeline);
+
+        /*Decoder or output thread, the pipeline stopped*/
+        void onError(PcmPipeline pipeline, IOException e);
+    }
+
+    /*Parked threads wake up this often even without a signal, in case one is missed while stopping*/
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final PcmSource source;
+    private final PcmSink sink;
+    private final PcmRingBuffer ring;
+    private final short[] decodeChunk;
+    private final short[] outputChunk;
+    private Listener listener;
+
+    private Thread decoderThread;
+    private Thread outputThread;
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile boolean decodeFinished = false;
+    /*Set by a side before it parks, so the other one knows to unpark it*/
+    private volatile boolean decoderWaiting = false;
+    private volatile boolean outputWaiting = false;
+
+    /*Counters, each written by one thread only*/
+    private volatile long samplesDecoded = 0;
+    private volatile long samplesWritten = 0;
+    private volatile long underruns = 0;
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    /*bufferSamples is the ring capacity, chunkSamples how much each side moves at a time*/
+    public PcmPipeline(PcmSource source, PcmSink sink, int bufferSamples, int chunkSamples) {
+        if (chunkSamples <= 0 || chunkSamples > bufferSamples) {
+            throw new IllegalArgumentException("Chunk of " + chunkSamples + " for a buffer of " + bufferSamples);
+        }
+        this.source = source;
+        this.sink = sink;
+        this.ring = new PcmRingBuffer(bufferSamples);
+        this.decodeChunk = new short[chunkSamples];
+        this.outputChunk = new short[chunkSamples];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        sink.open(source.getSampleRate(), source.getChannelCount());
+        running = true;
+        startNanos = System.nanoTime();
+        decoderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, "PcmDecoder");
+        outputThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                output();
+            }
+        }, "PcmOutput");
+        /*Audio output must not wait for the UI*/
+        outputThread.setPriority(Thread.MAX_PRIORITY);
+        decoderThread.start();
+        outputThread.start();
+    }
+
+    public void pause() {
+        paused = true;
+        sink.pause();
+    }
+
+    public void resume() {
+        if (paused) {
+            sink.resume();
+            paused = false;
+            LockSupport.unpark(outputThread);
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /*Stop both threads and release the source and the sink, returns once they are done*/
+    public void stop() {
+        running = false;
+        if (decoderThread != null) {
+            sink.stop();
+            LockSupport.unpark(decoderThread);
+            LockSupport.unpark(outputThread);
+            try {
+                decoderThread.join();
+                outputThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sink.close();
+        try {
+            source.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /*Wait until the output wrote everything or the pipeline stopped, false on timeout*/
+    public boolean awaitCompletion(long timeoutMs) throws InterruptedException {
+        if (outputThread == null) {
+            return true;
+        }
+        outputThread.join(timeoutMs);
+        return !outputThread.isAlive();
+    }
+
+    public long getSamplesDecoded() {
+        return samplesDecoded;
+    }
+
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    /*Times the output ran dry in the middle of the source, each one a gap in the audio*/
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /*Samples written to the sink per second since start, until now or until the end*/
+    public double getThroughput() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long elapsed = end - startNanos;
+        return elapsed <= 0 ? 0 : samplesWritten * 1e9 / elapsed;
+    }
+
+    private void decode() {
+        try {
+            while (running) {
+                int count = source.read(decodeChunk, 0, decodeChunk.length);
+                if (count < 0) {
+                    break;
+                }
+                int offset = 0;
+                while (offset < count && running) {
+                    int written = ring.write(decodeChunk, offset, count - offset);
+                    if (written == 0) {
+                        /*Ring full, wait for the output to drain some*/
+                        decoderWaiting = true;
+                        if (ring.free() == 0 && running) {
+                            LockSupport.parkNanos(this, PARK_NANOS);
+                        }
+                        decoderWaiting = false;
+                        continue;
+                    }
+                    offset += written;
+                    samplesDecoded += written;
+                    if (outputWaiting) {
+                        LockSupport.unpark(outputThread);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            decodeFinished = true;
+            LockSupport.unpark(outputThread);
+        }
+    }
+
+    private void output() {
+        boolean starved = false;
+        try {
+            while (running) {
+                if (paused) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                    continue;
+                }
+                int count = ring.read(outputChunk, 0, outputChunk.length);
+                if (count == 0) {
+                    if (decodeFinished && ring.available() == 0) {
+                        endNanos = System.nanoTime();
+                        if (running && listener != null) {
+                            listener.onCompletion(this);
+                        }
+                        return;
+                    }
+                    if (samplesWritten > 0) {
+                        starved = true;
+                    }
+                    outputWaiting = true;
+                    if (ring.available() == 0 && !decodeFinished && running) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    outputWaiting = false;
+                    continue;
+                }
+                if (starved) {
+                    /*Counted once audio follows the gap, running dry at the end is no underrun*/
+                    underruns++;
+                    starved = false;
+                }
+                if (decoderWaiting) {
+                    LockSupport.unpark(decoderThread);
+                }
+                sink.write(outputChunk, 0, count);
+                samplesWritten += count;
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            if (endNanos == 0) {
+                endNanos = System.nanoTime();
+            }
+            /*The decoder may be parked on a full ring*/
+            running = false;
+            LockSupport.unpark(decoderThread);
+        }
+    }
+
+    private void fail(IOException e) {
+        boolean wasRunning = running;
+        running = false;
+        if (wasRunning && listener != null) {
+            listener.onError(this, e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free ring of 16 bit PCM samples between one writing and one reading thread.
+ * The positions only grow, each side publishes its own with an ordered store and keeps a cached copy
+ * of the other one, so a transfer touches shared state only when the cached copy says the ring is full or empty.
+ * Nothing is allocated after construction.
+ */
+
+public class PcmRingBuffer {
+
+    private final short[] samples;
+    private final int mask;
+
+    /*Samples written and read so far, each written by one side only*/
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    /*Writer's copy of readPosition and reader's copy of writePosition*/
+    private long cachedReadPosition = 0;
+    private long cachedWritePosition = 0;
+
+    /*The capacity is rounded up to a power of two*/
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        samples = new short[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    /*Writer thread, copies as many samples as fit and returns how many*/
+    public int write(short[] source, int offset, int count) {
+        long write = writePosition.get();
+        int free = samples.length - (int) (write - cachedReadPosition);
+        if (free < count) {
+            cachedReadPosition = readPosition.get();
+            free = samples.length - (int) (write - cachedReadPosition);
+        }
+        int length = Math.min(count, free);
+        if (length <= 0) {
+            return 0;
+        }
+        int index = (int) write & mask;
+        int first = Math.min(length, samples.length - index);
+        System.arraycopy(source, offset, samples, index, first);
+        System.arraycopy(source, offset + first, samples, 0, length - first);
+        writePosition.lazySet(write + length);
+        return length;
+    }
+
+    /*Reader thread, copies as many samples as are available up to count and returns how many*/
+    public int read(short[] target, int offset, int count) {
+        long read = readPosition.get();
+        int available = (int) (cachedWritePosition - read);
+        if (available < count) {
+            cachedWritePosition = writePosition.get();
+            available = (int) (cachedWritePosition - read);
+        }
+        int length = Math.min(count, available);
+        if (length <= 0) {
+            return 0;
+        }
+        int index = (int) read & mask;
+        int first = Math.min(length, samples.length - index);
+        System.arraycopy(samples, index, target, offset, first);
+        System.arraycopy(samples, 0, target, offset + first, length - first);
+        readPosition.lazySet(read + length);
+        return length;
+    }
+
+    /*Samples waiting to be read, exact only on the reader thread*/
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /*Room left for writing, exact only on the writer thread*/
+    public int free() {
+        return samples.length - available();
+    }
+
+    /*Drop everything, only while neither side is running*/
+    public void clear() {
+        writePosition.set(0);
+        readPosition.set(0);
+        cachedReadPosition = 0;
+        cachedWritePosition = 0;
+    }
+}
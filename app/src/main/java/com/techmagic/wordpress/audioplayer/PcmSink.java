@@ -0,0 +1,24 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.IOException;
+
+/**
+ * Output for 16 bit PCM, called from the output thread of a PcmPipeline only.
+ */
+
+public interface PcmSink {
+
+    void open(int sampleRate, int channelCount) throws IOException;
+
+    /*Writes count samples, may block while the output is full*/
+    void write(short[] buffer, int offset, int count) throws IOException;
+
+    void pause();
+
+    void resume();
+
+    /*Called from another thread when the pipeline stops, makes a blocked write return*/
+    void stop();
+
+    void close();
+}
@@ -0,0 +1,19 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.IOException;
+
+/**
+ * Decoded 16 bit PCM, interleaved when there is more than one channel.
+ */
+
+public interface PcmSource {
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    /*Reads up to count samples, blocking until some are decoded. Returns -1 at the end*/
+    int read(short[] buffer, int offset, int count) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,633 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Order the playlist positions are played in, with shuffle, repeat and "play next".
+ * The queue is a doubly linked list kept in parallel int arrays, an entry is an index into them and
+ * stays valid until it is removed. Appending, inserting after the current entry, moving an entry and
+ * every navigation step are O(1), amortized where the arrays grow.
+ * Shuffle draws the next entry at random from the ones not played in this round and keeps the drawn
+ * ones in a history, so going back and forth again replays the same order. Not thread safe.
+ */
+
+public class PlayQueue {
+
+    public static final int NONE = -1;
+
+    /*Repeat modes apply to completion, skips always wrap around*/
+    public static final int REPEAT_OFF = 0;
+    public static final int REPEAT_ONE = 1;
+    public static final int REPEAT_ALL = 2;
+
+    static final int MAGIC = 0x50515545;/*"PQUE"*/
+    static final int VERSION = 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Random random;
+
+    /*Playlist position and list links of every entry, the links of free entries chain the free list*/
+    private int[] items = new int[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int[] prev = new int[INITIAL_CAPACITY];
+    private int head = NONE;
+    private int tail = NONE;
+    private int size = 0;
+    /*Entries below this were handed out, free ones are reused first*/
+    private int allocated = 0;
+    private int freeHead = NONE;
+
+    private int current = NONE;
+    private int repeatMode = REPEAT_OFF;
+    private boolean shuffle = false;
+
+    /*Shuffle: the entries of this round in play order, the cursor is on the current one.
+    * Entries after the cursor were played before going back, or drawn by peekAdvance.
+    * Removed entries leave NONE holes, historyIndex is where every entry is in it or NONE*/
+    private int[] history = new int[INITIAL_CAPACITY];
+    private int[] historyIndex = new int[INITIAL_CAPACITY];
+    private int historySize = 0;
+    private int historyCursor = -1;
+    private int historyHoles = 0;
+    /*Shuffle: the entries not drawn yet in this round, and where every entry is in it or NONE.
+    * Every entry is either in the history or in the pool*/
+    private int[] pool = new int[INITIAL_CAPACITY];
+    private int[] poolIndex = new int[INITIAL_CAPACITY];
+    private int poolSize = 0;
+
+    public PlayQueue() {
+        this(new Random());
+    }
+
+    public PlayQueue(Random random) {
+        this.random = random;
+    }
+
+    /*Replace the queue with the positions 0 to count - 1 in order, currentItem is the one playing or NONE*/
+    public void reset(int count, int currentItem) {
+        clear();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            append(i);
+        }
+        /*Fresh entries are numbered like the positions*/
+        current = currentItem >= 0 && currentItem < count ? currentItem : NONE;
+        if (shuffle) {
+            startRound();
+        }
+    }
+
+    /*Independent copy, for saving on another thread*/
+    public PlayQueue snapshot() {
+        PlayQueue copy = new PlayQueue(random);
+        copy.items = items.clone();
+        copy.next = next.clone();
+        copy.prev = prev.clone();
+        copy.head = head;
+        copy.tail = tail;
+        copy.size = size;
+        copy.allocated = allocated;
+        copy.freeHead = freeHead;
+        copy.current = current;
+        copy.repeatMode = repeatMode;
+        copy.shuffle = shuffle;
+        copy.history = history.clone();
+        copy.historyIndex = historyIndex.clone();
+        copy.historySize = historySize;
+        copy.historyCursor = historyCursor;
+        copy.historyHoles = historyHoles;
+        copy.pool = pool.clone();
+        copy.poolIndex = poolIndex.clone();
+        copy.poolSize = poolSize;
+        return copy;
+    }
+
+    public void clear() {
+        head = NONE;
+        tail = NONE;
+        size = 0;
+        allocated = 0;
+        freeHead = NONE;
+        current = NONE;
+        historySize = 0;
+        historyCursor = -1;
+        historyHoles = 0;
+        poolSize = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRepeatMode() {
+        return repeatMode;
+    }
+
+    public void setRepeatMode(int repeatMode) {
+        if (repeatMode != REPEAT_OFF && repeatMode != REPEAT_ONE && repeatMode != REPEAT_ALL) {
+            throw new IllegalArgumentException("Unknown repeat mode " + repeatMode);
+        }
+        this.repeatMode = repeatMode;
+    }
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /*Turning shuffle on starts a round from the current entry, turning it off continues in list order from it*/
+    public void setShuffle(boolean shuffle) {
+        if (this.shuffle == shuffle) {
+            return;
+        }
+        this.shuffle = shuffle;
+        if (shuffle) {
+            startRound();
+        } else {
+            historySize = 0;
+            historyCursor = -1;
+            historyHoles = 0;
+            poolSize = 0;
+        }
+    }
+
+    /*The entry playing, NONE before the first move*/
+    public int getCurrent() {
+        return current;
+    }
+
+    /*Playlist position of the entry playing, or NONE*/
+    public int getCurrentItem() {
+        return current == NONE ? NONE : items[current];
+    }
+
+    public int getItem(int entry) {
+        return items[entry];
+    }
+
+    /*List order, for showing the queue: firstEntry() then nextEntry() until NONE*/
+    public int firstEntry() {
+        return head;
+    }
+
+    public int nextEntry(int entry) {
+        return next[entry];
+    }
+
+    /*First entry of the playlist position in list order, O(n)*/
+    public int find(int item) {
+        for (int entry = head; entry != NONE; entry = next[entry]) {
+            if (items[entry] == item) {
+                return entry;
+            }
+        }
+        return NONE;
+    }
+
+    /*Add the position at the end of the list, in shuffle it is drawn some time this round*/
+    public int append(int item) {
+        int entry = allocate(item);
+        linkAfter(entry, tail);
+        if (shuffle) {
+            addToPool(entry);
+        }
+        return entry;
+    }
+
+    /*Add the position to play right after the current entry, in list order and in shuffle*/
+    public int insertNext(int item) {
+        int entry = allocate(item);
+        linkAfter(entry, current == NONE ? tail : current);
+        if (shuffle) {
+            /*Drawn right after the cursor, the entries drawn ahead are drawn again after it*/
+            truncateHistory();
+            pushHistory(entry);
+        }
+        return entry;
+    }
+
+    /*Move entry right after afterEntry in the list, to the front for NONE. Shuffle order doesn't change*/
+    public void moveAfter(int entry, int afterEntry) {
+        if (entry == afterEntry) {
+            throw new IllegalArgumentException("Can't move an entry after itself");
+        }
+        unlink(entry);
+        linkAfter(entry, afterEntry);
+    }
+
+    /*Remove an entry. Removing the current entry leaves nothing current, the next move
+    * starts from the front in list order and goes on with the round in shuffle*/
+    public void remove(int entry) {
+        unlink(entry);
+        size--;
+        if (shuffle) {
+            removeFromPool(entry);
+            removeFromHistory(entry);
+        }
+        if (entry == current) {
+            current = NONE;
+        }
+        items[entry] = NONE;
+        next[entry] = freeHead;
+        freeHead = entry;
+    }
+
+    /*Play entry now, in shuffle it moves to the cursor and the entries drawn ahead are drawn again*/
+    public int jumpTo(int entry) {
+        current = entry;
+        if (shuffle) {
+            truncateHistory();
+            /*Either not drawn yet, or played earlier in this round and moved up to now*/
+            removeFromPool(entry);
+            removeFromHistory(entry);
+            pushHistory(entry);
+            historyCursor = historySize - 1;
+        }
+        return items[entry];
+    }
+
+    /*User skip to the next entry, after the last one it wraps around or starts a new shuffle round.
+    * Returns its position, NONE for an empty queue*/
+    public int skipToNext() {
+        return moveTo(following(true));
+    }
+
+    /*Completion: the next entry, the current one again in repeat one, NONE at the end without repeat all*/
+    public int advance() {
+        if (repeatMode == REPEAT_ONE && current != NONE) {
+            return items[current];
+        }
+        return moveTo(following(repeatMode == REPEAT_ALL));
+    }
+
+    /*The position advance() moves to, without moving. A shuffle draw made here is kept for advance*/
+    public int peekAdvance() {
+        if (repeatMode == REPEAT_ONE && current != NONE) {
+            return items[current];
+        }
+        return itemOf(following(repeatMode == REPEAT_ALL));
+    }
+
+    /*The position skipToNext() moves to, without moving*/
+    public int peekNext() {
+        return itemOf(following(true));
+    }
+
+    /*Positions of up to upcoming.length entries that skips move to, first the one peekNext() gives.
+    * In shuffle only entries already drawn follow it. Returns how many were written*/
+    public int peekUpcoming(int[] upcoming) {
+        int entry = following(true);
+        int count = 0;
+        while (entry != NONE && count < upcoming.length) {
+            upcoming[count++] = items[entry];
+            if (shuffle) {
+                int index = historyIndex[entry] + 1;
+                while (index < historySize && history[index] == NONE) {
+                    index++;
+                }
+                entry = index < historySize ? history[index] : NONE;
+            } else {
+                entry = next[entry] != NONE ? next[entry] : (current != NONE ? head : NONE);
+            }
+            if (entry == current) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /*User skip to the entry before the current one in list order, wrapping around,
+    * or to the one played before it in shuffle. NONE at the start of a shuffle round*/
+    public int skipToPrevious() {
+        return moveTo(preceding());
+    }
+
+    /*The position skipToPrevious() moves to, without moving*/
+    public int peekPrevious() {
+        return itemOf(preceding());
+    }
+
+    private int itemOf(int entry) {
+        return entry == NONE ? NONE : items[entry];
+    }
+
+    private int preceding() {
+        if (shuffle) {
+            int index = historyCursor - 1;
+            while (index >= 0 && history[index] == NONE) {
+                index--;
+            }
+            return index < 0 ? NONE : history[index];
+        }
+        if (current == NONE || prev[current] == NONE) {
+            return tail;
+        }
+        return prev[current];
+    }
+
+    private int moveTo(int entry) {
+        if (entry == NONE) {
+            return NONE;
+        }
+        current = entry;
+        if (shuffle) {
+            historyCursor = historyIndex[entry];
+        }
+        return items[entry];
+    }
+
+    /*The entry after the current one. In shuffle it is taken from the history or drawn into it*/
+    private int following(boolean wrap) {
+        if (!shuffle) {
+            if (current == NONE) {
+                return head;
+            }
+            return next[current] != NONE ? next[current] : (wrap ? head : NONE);
+        }
+        for (int index = historyCursor + 1; index < historySize; index++) {
+            if (history[index] != NONE) {
+                return history[index];
+            }
+        }
+        if (poolSize == 0) {
+            if (!wrap || size == 0) {
+                return NONE;
+            }
+            startRound();
+            if (poolSize == 0) {
+                /*Only the current entry is left, play it again*/
+                return current;
+            }
+        }
+        int entry = pool[random.nextInt(poolSize)];
+        removeFromPool(entry);
+        pushHistory(entry);
+        return entry;
+    }
+
+    /*New shuffle round: the history holds the current entry and everything else is in the pool*/
+    private void startRound() {
+        historySize = 0;
+        historyCursor = -1;
+        historyHoles = 0;
+        poolSize = 0;
+        for (int entry = head; entry != NONE; entry = next[entry]) {
+            poolIndex[entry] = NONE;
+            historyIndex[entry] = NONE;
+            if (entry != current) {
+                addToPool(entry);
+            }
+        }
+        if (current != NONE) {
+            pushHistory(current);
+            historyCursor = 0;
+        }
+    }
+
+    /*Entries drawn ahead of the cursor go back into the pool*/
+    private void truncateHistory() {
+        for (int i = historyCursor + 1; i < historySize; i++) {
+            if (history[i] == NONE) {
+                historyHoles--;
+            } else {
+                historyIndex[history[i]] = NONE;
+                addToPool(history[i]);
+            }
+        }
+        historySize = historyCursor + 1;
+    }
+
+    /*Leaves a hole that navigation skips, O(1). The holes are compacted once they are half the history*/
+    private void removeFromHistory(int entry) {
+        int index = historyIndex[entry];
+        if (index == NONE) {
+            return;
+        }
+        history[index] = NONE;
+        historyIndex[entry] = NONE;
+        historyHoles++;
+        if (historyHoles > INITIAL_CAPACITY && historyHoles * 2 > historySize) {
+            compactHistory();
+        }
+    }
+
+    /*Drops the holes, except one under the cursor so it stays between the same entries*/
+    private void compactHistory() {
+        int kept = 0;
+        int cursor = -1;
+        for (int i = 0; i < historySize; i++) {
+            if (i == historyCursor) {
+                cursor = kept;
+            }
+            if (history[i] != NONE || i == historyCursor) {
+                if (history[i] != NONE) {
+                    historyIndex[history[i]] = kept;
+                }
+                history[kept++] = history[i];
+            }
+        }
+        historyHoles = historyCursor >= 0 && history[cursor] == NONE ? 1 : 0;
+        historySize = kept;
+        historyCursor = cursor;
+    }
+
+    private void pushHistory(int entry) {
+        if (historySize == history.length) {
+            history = Arrays.copyOf(history, historySize * 2);
+        }
+        historyIndex[entry] = historySize;
+        history[historySize++] = entry;
+    }
+
+    private void addToPool(int entry) {
+        poolIndex[entry] = poolSize;
+        pool[poolSize++] = entry;
+    }
+
+    /*Swap with the last one, O(1)*/
+    private void removeFromPool(int entry) {
+        int index = poolIndex[entry];
+        if (index == NONE) {
+            return;
+        }
+        int last = pool[--poolSize];
+        pool[index] = last;
+        poolIndex[last] = index;
+        poolIndex[entry] = NONE;
+    }
+
+    private int allocate(int item) {
+        int entry;
+        if (freeHead != NONE) {
+            entry = freeHead;
+            freeHead = next[entry];
+        } else {
+            ensureCapacity(allocated + 1);
+            entry = allocated++;
+        }
+        items[entry] = item;
+        poolIndex[entry] = NONE;
+        historyIndex[entry] = NONE;
+        size++;
+        return entry;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= items.length) {
+            return;
+        }
+        int grown = Math.max(capacity, items.length * 2);
+        items = Arrays.copyOf(items, grown);
+        next = Arrays.copyOf(next, grown);
+        prev = Arrays.copyOf(prev, grown);
+        pool = Arrays.copyOf(pool, grown);
+        poolIndex = Arrays.copyOf(poolIndex, grown);
+        historyIndex = Arrays.copyOf(historyIndex, grown);
+    }
+
+    private void linkAfter(int entry, int afterEntry) {
+        prev[entry] = afterEntry;
+        next[entry] = afterEntry == NONE ? head : next[afterEntry];
+        if (next[entry] != NONE) {
+            prev[next[entry]] = entry;
+        } else {
+            tail = entry;
+        }
+        if (afterEntry != NONE) {
+            next[afterEntry] = entry;
+        } else {
+            head = entry;
+        }
+    }
+
+    private void unlink(int entry) {
+        if (prev[entry] != NONE) {
+            next[prev[entry]] = next[entry];
+        } else {
+            head = next[entry];
+        }
+        if (next[entry] != NONE) {
+            prev[next[entry]] = prev[entry];
+        } else {
+            tail = prev[entry];
+        }
+    }
+
+    /*Restores the list and the shuffle round, 4 bytes per entry plus 4 per played entry of the round.
+    * Entries are numbered in list order again after a load*/
+    public void save(File file) throws IOException {
+        int[] ordinals = new int[allocated];
+        int ordinal = 0;
+        for (int entry = head; entry != NONE; entry = next[entry]) {
+            ordinals[entry] = ordinal++;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        boolean replaced = false;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                out.writeByte(repeatMode);
+                out.writeBoolean(shuffle);
+                out.writeInt(current == NONE ? NONE : ordinals[current]);
+                for (int entry = head; entry != NONE; entry = next[entry]) {
+                    out.writeInt(items[entry]);
+                }
+                /*Without the holes, a cursor on a hole moves back to the entry before it*/
+                int savedSize = shuffle ? historySize - historyHoles : 0;
+                int savedCursor = -1;
+                for (int i = 0; shuffle && i <= historyCursor; i++) {
+                    if (history[i] != NONE) {
+                        savedCursor++;
+                    }
+                }
+                out.writeInt(savedSize);
+                out.writeInt(savedCursor);
+                for (int i = 0; shuffle && i < historySize; i++) {
+                    if (history[i] != NONE) {
+                        out.writeInt(ordinals[history[i]]);
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            replaced = true;
+        } finally {
+            /*A failed save leaves the old queue and no partial copy*/
+            if (!replaced) {
+                temp.delete();
+            }
+        }
+    }
+
+    public static PlayQueue load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a play queue");
+            }
+            int count = in.readInt();
+            int repeatMode = in.readByte();
+            boolean shuffle = in.readBoolean();
+            int current = in.readInt();
+            if (count < 0 || current < NONE || current >= count) {
+                throw new IOException("Corrupt play queue");
+            }
+            PlayQueue queue = new PlayQueue();
+            queue.setRepeatMode(repeatMode);
+            queue.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                /*Entries get the ordinals as numbers*/
+                queue.append(in.readInt());
+            }
+            queue.current = current;
+            int historySize = in.readInt();
+            int historyCursor = in.readInt();
+            if (historySize < 0 || historySize > count || historyCursor < -1 || historyCursor >= historySize) {
+                throw new IOException("Corrupt play queue");
+            }
+            if (shuffle) {
+                queue.shuffle = true;
+                boolean[] drawn = new boolean[count];
+                for (int i = 0; i < historySize; i++) {
+                    int entry = in.readInt();
+                    if (entry < 0 || entry >= count || drawn[entry]) {
+                        throw new IOException("Corrupt play queue");
+                    }
+                    queue.pushHistory(entry);
+                    drawn[entry] = true;
+                }
+                queue.historyCursor = historyCursor;
+                /*Whatever is not in the history was not drawn yet*/
+                for (int i = 0; i < count; i++) {
+                    if (!drawn[i]) {
+                        queue.addToPool(i);
+                    }
+                }
+            }
+            return queue;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt play queue", e);
+        } finally {
+            in.close();
+        }
+    }
+}
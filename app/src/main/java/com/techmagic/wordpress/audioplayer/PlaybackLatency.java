@@ -0,0 +1,112 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Stamps the stages between a tap on an audio and the start of its playback with monotonic
+ * timestamps and keeps a latency histogram per stage. Stamping is allocation free,
+ * the report is only built when it's dumped.
+ */
+
+public class PlaybackLatency {
+
+    private static final String TAG = "PlaybackLatency";
+
+    /*Stages in the order they happen, each is measured from the previous stamped stage*/
+    public static final int TAP = 0;
+    public static final int PLAY_AUDIO = 1;
+    public static final int SERVICE = 2;
+    public static final int PLAYER_SWITCH = 3;
+    public static final int PREPARE = 4;
+    public static final int STARTED = 5;
+    private static final String[] STAGE_NAMES = {
+            "tap", "playAudio", "service", "player switch", "prepareAsync", "started"};
+
+    private static PlaybackLatency instance;
+
+    private final long[] stamps = new long[STAGE_NAMES.length];
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+    private final LatencyHistogram total = new LatencyHistogram();
+    /*Last stage stamped for the current tap, -1 when no tap is being traced*/
+    private int lastStage = -1;
+
+    public static synchronized PlaybackLatency getInstance() {
+        if (instance == null) {
+            instance = new PlaybackLatency();
+        }
+        return instance;
+    }
+
+    PlaybackLatency() {
+        for (int i = 1; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void stamp(int stage) {
+        stamp(stage, System.nanoTime());
+    }
+
+    /*A tap starts a new trace, other stages only count while a trace is open and are
+    * ignored if they repeat or come out of order, for example on skips from the notification*/
+    synchronized void stamp(int stage, long nanos) {
+        if (stage == TAP) {
+            stamps[TAP] = nanos;
+            lastStage = TAP;
+            return;
+        }
+        if (lastStage == -1 || stage <= lastStage) {
+            return;
+        }
+        stages[stage].record((nanos - stamps[lastStage]) / 1000);
+        stamps[stage] = nanos;
+        lastStage = stage;
+        if (stage == STARTED) {
+            total.record((nanos - stamps[TAP]) / 1000);
+            lastStage = -1;
+        }
+    }
+
+    LatencyHistogram getStage(int stage) {
+        return stages[stage];
+    }
+
+    LatencyHistogram getTotal() {
+        return total;
+    }
+
+    public synchronized void reset() {
+        for (int i = 1; i < stages.length; i++) {
+            stages[i].reset();
+        }
+        total.reset();
+        lastStage = -1;
+    }
+
+    /*Count and p50/p95/p99/max in milliseconds for every stage and tap to audio overall*/
+    public synchronized String report() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 1; i < stages.length; i++) {
+            appendLine(builder, STAGE_NAMES[i], stages[i]);
+        }
+        appendLine(builder, "tap to audio", total);
+        return builder.toString();
+    }
+
+    public void dump() {
+        for (String line : report().split("\n")) {
+            Log.i(TAG, line);
+        }
+    }
+
+    private static void appendLine(StringBuilder builder, String name, LatencyHistogram histogram) {
+        builder.append(String.format(Locale.US, "%s: n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f ms\n",
+                name, histogram.getCount(),
+                histogram.getPercentile(50) / 1000.0,
+                histogram.getPercentile(95) / 1000.0,
+                histogram.getPercentile(99) / 1000.0,
+                histogram.getMax() / 1000.0));
+    }
+}
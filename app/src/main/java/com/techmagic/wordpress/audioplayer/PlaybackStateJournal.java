@@ -0,0 +1,106 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the playback state (audio index, position and time) on a background thread.
+ * Bursts of updates are coalesced into at most one write per interval, only the latest state is written.
+ */
+
+public class PlaybackStateJournal {
+
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    public interface Store {
+        /*Called on the journal thread, may block on disk*/
+        void write(int audioIndex, int position, long timestamp);
+    }
+
+    private final Store store;
+    private final long intervalMs;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    /*Latest recorded state, guarded by this*/
+    private int audioIndex;
+    private int position;
+    private long timestamp;
+    private boolean dirty = false;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public PlaybackStateJournal(Store store) {
+        this(store, DEFAULT_INTERVAL_MS);
+    }
+
+    public PlaybackStateJournal(Store store, long intervalMs) {
+        this.store = store;
+        this.intervalMs = intervalMs;
+    }
+
+    /*Cheap to call from the main thread, the write happens later on the journal thread*/
+    public void record(int audioIndex, int position) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            this.audioIndex = audioIndex;
+            this.position = position;
+            this.timestamp = System.currentTimeMillis();
+            dirty = true;
+            if (flushScheduled) {
+                /*A write is already pending, it will pick up this state*/
+                return;
+            }
+            flushScheduled = true;
+        }
+        executor.schedule(flushTask, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /*Write any pending state and stop the journal thread, waits for the write to finish*/
+    public void close() {
+        close(intervalMs);
+    }
+
+    /*Same, but waits at most timeoutMs. A write still in progress then finishes on the journal thread*/
+    public void close(long timeoutMs) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        executor.execute(flushTask);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        int audioIndex;
+        int position;
+        long timestamp;
+        synchronized (this) {
+            flushScheduled = false;
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            audioIndex = this.audioIndex;
+            position = this.position;
+            timestamp = this.timestamp;
+        }
+        store.write(audioIndex, position, timestamp);
+    }
+}
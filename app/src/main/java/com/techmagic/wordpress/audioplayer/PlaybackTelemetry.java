@@ -0,0 +1,457 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Playback quality of the recent sessions, a session being one track on the active player:
+ * time to first frame, time played, stalls after the first frame with their durations, buffering
+ * progress and error codes. Everything is kept in fixed size rings of primitives that overwrite
+ * the oldest records, recording allocates nothing and repeated buffering updates are dropped.
+ * A compact binary snapshot of the rings and the totals can be exported and read back.
+ */
+
+public class PlaybackTelemetry {
+
+    private static final String TAG = "PlaybackTelemetry";
+
+    static final int MAGIC = 0x544c4d59;/*"TLMY"*/
+    static final int VERSION = 1;
+
+    static final int SESSION_CAPACITY = 32;
+    static final int STALL_CAPACITY = 128;
+    static final int ERROR_CAPACITY = 32;
+    static final int BUFFERING_CAPACITY = 128;
+
+    private static PlaybackTelemetry instance;
+
+    /*Sessions, the last one is open while active. Times in ms, time to first frame -1 until it's played*/
+    private final long[] sessionTrack = new long[SESSION_CAPACITY];
+    private final int[] sessionFirstFrame = new int[SESSION_CAPACITY];
+    private final int[] sessionPlayed = new int[SESSION_CAPACITY];
+    private final int[] sessionStallTime = new int[SESSION_CAPACITY];
+    private final int[] sessionStalls = new int[SESSION_CAPACITY];
+    private final int[] sessionErrors = new int[SESSION_CAPACITY];
+    private final int[] sessionBuffered = new int[SESSION_CAPACITY];
+    private int sessionCount = 0;
+
+    /*Stalls, errors and buffering updates with their session number and ms since the session started*/
+    private final int[] stallSession = new int[STALL_CAPACITY];
+    private final int[] stallStart = new int[STALL_CAPACITY];
+    private final int[] stallDuration = new int[STALL_CAPACITY];
+    private int stallCount = 0;
+    private final int[] errorSession = new int[ERROR_CAPACITY];
+    private final int[] errorTime = new int[ERROR_CAPACITY];
+    private final int[] errorWhat = new int[ERROR_CAPACITY];
+    private final int[] errorExtra = new int[ERROR_CAPACITY];
+    private int errorCount = 0;
+    private final int[] bufferingSession = new int[BUFFERING_CAPACITY];
+    private final int[] bufferingTime = new int[BUFFERING_CAPACITY];
+    private final int[] bufferingPercent = new int[BUFFERING_CAPACITY];
+    private int bufferingCount = 0;
+
+    /*Totals over every session, not only the ones still in the ring*/
+    private long totalPlayed = 0;
+    private long totalStallTime = 0;
+    private long totalFirstFrame = 0;
+    private int firstFrames = 0;
+
+    /*The open session, -1 for none. Start times in ms, -1 when not playing or not stalled*/
+    private int current = -1;
+    private long sessionStart;
+    private long playingSince = -1;
+    private long stalledSince = -1;
+
+    public static synchronized PlaybackTelemetry getInstance() {
+        if (instance == null) {
+            instance = new PlaybackTelemetry();
+        }
+        return instance;
+    }
+
+    PlaybackTelemetry() {
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /*The player starts preparing trackId, ends the open session*/
+    public void startSession(long trackId) {
+        startSession(trackId, now());
+    }
+
+    synchronized void startSession(long trackId, long nowMs) {
+        endSession(nowMs);
+        current = sessionCount % SESSION_CAPACITY;
+        sessionCount++;
+        sessionTrack[current] = trackId;
+        sessionFirstFrame[current] = -1;
+        sessionPlayed[current] = 0;
+        sessionStallTime[current] = 0;
+        sessionStalls[current] = 0;
+        sessionErrors[current] = 0;
+        sessionBuffered[current] = -1;
+        sessionStart = nowMs;
+    }
+
+    /*Completion, stop or a switch to another track*/
+    public void endSession() {
+        endSession(now());
+    }
+
+    synchronized void endSession(long nowMs) {
+        if (current == -1) {
+            return;
+        }
+        onPaused(nowMs);
+        current = -1;
+    }
+
+    /*Audio started or resumed. The first time in a session it is the first frame*/
+    public void onPlaying() {
+        onPlaying(now());
+    }
+
+    synchronized void onPlaying(long nowMs) {
+        if (current == -1 || playingSince != -1) {
+            return;
+        }
+        if (sessionFirstFrame[current] == -1) {
+            sessionFirstFrame[current] = (int) (nowMs - sessionStart);
+            totalFirstFrame += nowMs - sessionStart;
+            firstFrames++;
+        }
+        if (stalledSince == -1) {
+            playingSince = nowMs;
+        }
+    }
+
+    /*Paused or stopped, by the user or for audio focus. Also ends a stall*/
+    public void onPaused() {
+        onPaused(now());
+    }
+
+    synchronized void onPaused(long nowMs) {
+        if (current == -1) {
+            return;
+        }
+        endStall(nowMs);
+        addPlayed(nowMs);
+    }
+
+    /*MEDIA_INFO_BUFFERING_START, only stalls while playing count, not buffering before the first frame*/
+    public void onStallStart() {
+        onStallStart(now());
+    }
+
+    synchronized void onStallStart(long nowMs) {
+        if (current == -1 || playingSince == -1) {
+            return;
+        }
+        addPlayed(nowMs);
+        stalledSince = nowMs;
+    }
+
+    /*MEDIA_INFO_BUFFERING_END*/
+    public void onStallEnd() {
+        onStallEnd(now());
+    }
+
+    synchronized void onStallEnd(long nowMs) {
+        if (current == -1 || stalledSince == -1) {
+            return;
+        }
+        endStall(nowMs);
+        playingSince = nowMs;
+    }
+
+    /*Called every second or so by the player, only changes are kept*/
+    public void onBufferingUpdate(int percent) {
+        onBufferingUpdate(percent, now());
+    }
+
+    synchronized void onBufferingUpdate(int percent, long nowMs) {
+        if (current == -1 || sessionBuffered[current] == percent) {
+            return;
+        }
+        sessionBuffered[current] = percent;
+        int slot = bufferingCount % BUFFERING_CAPACITY;
+        bufferingSession[slot] = sessionCount - 1;
+        bufferingTime[slot] = (int) (nowMs - sessionStart);
+        bufferingPercent[slot] = percent;
+        bufferingCount++;
+    }
+
+    /*The what and extra codes of MediaPlayer.OnErrorListener*/
+    public void onError(int what, int extra) {
+        onError(what, extra, now());
+    }
+
+    synchronized void onError(int what, int extra, long nowMs) {
+        if (current == -1) {
+            return;
+        }
+        sessionErrors[current]++;
+        int slot = errorCount % ERROR_CAPACITY;
+        errorSession[slot] = sessionCount - 1;
+        errorTime[slot] = (int) (nowMs - sessionStart);
+        errorWhat[slot] = what;
+        errorExtra[slot] = extra;
+        errorCount++;
+    }
+
+    private void addPlayed(long nowMs) {
+        if (playingSince != -1) {
+            sessionPlayed[current] += (int) (nowMs - playingSince);
+            totalPlayed += nowMs - playingSince;
+            playingSince = -1;
+        }
+    }
+
+    private void endStall(long nowMs) {
+        if (stalledSince == -1) {
+            return;
+        }
+        int duration = (int) (nowMs - stalledSince);
+        sessionStalls[current]++;
+        sessionStallTime[current] += duration;
+        totalStallTime += duration;
+        int slot = stallCount % STALL_CAPACITY;
+        stallSession[slot] = sessionCount - 1;
+        stallStart[slot] = (int) (stalledSince - sessionStart);
+        stallDuration[slot] = duration;
+        stallCount++;
+        stalledSince = -1;
+    }
+
+    /*Time stalled over the time audio should have played, 0 before anything played.
+    * The open stall or stretch of playing isn't counted until it ends*/
+    public synchronized double getRebufferRatio() {
+        long total = totalPlayed + totalStallTime;
+        return total == 0 ? 0 : (double) totalStallTime / total;
+    }
+
+    public synchronized int getStallCount() {
+        return stallCount;
+    }
+
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized int getSessionCount() {
+        return sessionCount;
+    }
+
+    /*Mean time to first frame in ms, -1 before the first one*/
+    public synchronized long getAverageTimeToFirstFrame() {
+        return firstFrames == 0 ? -1 : totalFirstFrame / firstFrames;
+    }
+
+    /*The totals and the rings oldest first, see Snapshot.read*/
+    public synchronized void writeSnapshot(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sessionCount);
+        out.writeInt(stallCount);
+        out.writeInt(errorCount);
+        out.writeLong(totalPlayed);
+        out.writeLong(totalStallTime);
+        out.writeLong(totalFirstFrame);
+        out.writeInt(firstFrames);
+
+        int first = Math.max(0, sessionCount - SESSION_CAPACITY);
+        out.writeInt(sessionCount - first);
+        for (int i = first; i < sessionCount; i++) {
+            int slot = i % SESSION_CAPACITY;
+            out.writeLong(sessionTrack[slot]);
+            out.writeInt(sessionFirstFrame[slot]);
+            out.writeInt(sessionPlayed[slot]);
+            out.writeInt(sessionStallTime[slot]);
+            out.writeShort(sessionStalls[slot]);
+            out.writeShort(sessionErrors[slot]);
+            out.writeByte(sessionBuffered[slot]);
+        }
+        first = Math.max(0, stallCount - STALL_CAPACITY);
+        out.writeInt(stallCount - first);
+        for (int i = first; i < stallCount; i++) {
+            int slot = i % STALL_CAPACITY;
+            out.writeInt(stallSession[slot]);
+            out.writeInt(stallStart[slot]);
+            out.writeInt(stallDuration[slot]);
+        }
+        first = Math.max(0, errorCount - ERROR_CAPACITY);
+        out.writeInt(errorCount - first);
+        for (int i = first; i < errorCount; i++) {
+            int slot = i % ERROR_CAPACITY;
+            out.writeInt(errorSession[slot]);
+            out.writeInt(errorTime[slot]);
+            out.writeInt(errorWhat[slot]);
+            out.writeInt(errorExtra[slot]);
+        }
+        first = Math.max(0, bufferingCount - BUFFERING_CAPACITY);
+        out.writeInt(bufferingCount - first);
+        for (int i = first; i < bufferingCount; i++) {
+            int slot = i % BUFFERING_CAPACITY;
+            out.writeInt(bufferingSession[slot]);
+            out.writeInt(bufferingTime[slot]);
+            out.writeByte(bufferingPercent[slot]);
+        }
+        out.flush();
+    }
+
+    public byte[] snapshot() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeSnapshot(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public synchronized void reset() {
+        sessionCount = 0;
+        stallCount = 0;
+        errorCount = 0;
+        bufferingCount = 0;
+        totalPlayed = 0;
+        totalStallTime = 0;
+        totalFirstFrame = 0;
+        firstFrames = 0;
+        current = -1;
+        playingSince = -1;
+        stalledSince = -1;
+    }
+
+    public synchronized String report() {
+        return String.format(Locale.US, "sessions=%d first frame avg=%d ms played=%.1f s stalls=%d stalled=%.1f s rebuffer=%.2f%% errors=%d",
+                sessionCount, getAverageTimeToFirstFrame(), totalPlayed / 1000.0, stallCount,
+                totalStallTime / 1000.0, getRebufferRatio() * 100, errorCount);
+    }
+
+    public void dump() {
+        Log.i(TAG, report());
+    }
+
+    /**
+     * A snapshot read back, the rings are oldest first and sessions are numbered from the first
+     * session ever recorded.
+     */
+    public static class Snapshot {
+        public int sessionCount;
+        public int stallCount;
+        public int errorCount;
+        public long totalPlayed;
+        public long totalStallTime;
+        public long totalFirstFrame;
+        public int firstFrames;
+
+        public long[] sessionTrack;
+        public int[] sessionFirstFrame;
+        public int[] sessionPlayed;
+        public int[] sessionStallTime;
+        public int[] sessionStalls;
+        public int[] sessionErrors;
+        /*-1 if the player didn't report buffering*/
+        public int[] sessionBuffered;
+
+        public int[] stallSession;
+        public int[] stallStart;
+        public int[] stallDuration;
+
+        public int[] errorSession;
+        public int[] errorTime;
+        public int[] errorWhat;
+        public int[] errorExtra;
+
+        public int[] bufferingSession;
+        public int[] bufferingTime;
+        public int[] bufferingPercent;
+
+        public double getRebufferRatio() {
+            long total = totalPlayed + totalStallTime;
+            return total == 0 ? 0 : (double) totalStallTime / total;
+        }
+
+        public static Snapshot read(InputStream stream) throws IOException {
+            DataInputStream in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a telemetry snapshot");
+            }
+            Snapshot snapshot = new Snapshot();
+            snapshot.sessionCount = in.readInt();
+            snapshot.stallCount = in.readInt();
+            snapshot.errorCount = in.readInt();
+            snapshot.totalPlayed = in.readLong();
+            snapshot.totalStallTime = in.readLong();
+            snapshot.totalFirstFrame = in.readLong();
+            snapshot.firstFrames = in.readInt();
+
+            int count = readCount(in, SESSION_CAPACITY);
+            snapshot.sessionTrack = new long[count];
+            snapshot.sessionFirstFrame = new int[count];
+            snapshot.sessionPlayed = new int[count];
+            snapshot.sessionStallTime = new int[count];
+            snapshot.sessionStalls = new int[count];
+            snapshot.sessionErrors = new int[count];
+            snapshot.sessionBuffered = new int[count];
+            for (int i = 0; i < count; i++) {
+                snapshot.sessionTrack[i] = in.readLong();
+                snapshot.sessionFirstFrame[i] = in.readInt();
+                snapshot.sessionPlayed[i] = in.readInt();
+                snapshot.sessionStallTime[i] = in.readInt();
+                snapshot.sessionStalls[i] = in.readUnsignedShort();
+                snapshot.sessionErrors[i] = in.readUnsignedShort();
+                snapshot.sessionBuffered[i] = in.readByte();
+            }
+            count = readCount(in, STALL_CAPACITY);
+            snapshot.stallSession = new int[count];
+            snapshot.stallStart = new int[count];
+            snapshot.stallDuration = new int[count];
+            for (int i = 0; i < count; i++) {
+                snapshot.stallSession[i] = in.readInt();
+                snapshot.stallStart[i] = in.readInt();
+                snapshot.stallDuration[i] = in.readInt();
+            }
+            count = readCount(in, ERROR_CAPACITY);
+            snapshot.errorSession = new int[count];
+            snapshot.errorTime = new int[count];
+            snapshot.errorWhat = new int[count];
+            snapshot.errorExtra = new int[count];
+            for (int i = 0; i < count; i++) {
+                snapshot.errorSession[i] = in.readInt();
+                snapshot.errorTime[i] = in.readInt();
+                snapshot.errorWhat[i] = in.readInt();
+                snapshot.errorExtra[i] = in.readInt();
+            }
+            count = readCount(in, BUFFERING_CAPACITY);
+            snapshot.bufferingSession = new int[count];
+            snapshot.bufferingTime = new int[count];
+            snapshot.bufferingPercent = new int[count];
+            for (int i = 0; i < count; i++) {
+                snapshot.bufferingSession[i] = in.readInt();
+                snapshot.bufferingTime[i] = in.readInt();
+                snapshot.bufferingPercent[i] = in.readByte();
+            }
+            return snapshot;
+        }
+
+        private static int readCount(DataInputStream in, int capacity) throws IOException {
+            int count = in.readInt();
+            if (count < 0 || count > capacity) {
+                throw new IOException("Bad ring size " + count);
+            }
+            return count;
+        }
+    }
+}
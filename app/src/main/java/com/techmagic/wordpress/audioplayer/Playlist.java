@@ -0,0 +1,15 @@
+package com.techmagic.wordpress.audioplayer;
+
+/**
+ * Random access view of the tracks the service plays, backed by memory or by a playlist file.
+ */
+
+public interface Playlist {
+
+    int size();
+
+    /*The MediaStore id of the track at position*/
+    int getId(int position);
+
+    Audio getAudio(int position);
+}
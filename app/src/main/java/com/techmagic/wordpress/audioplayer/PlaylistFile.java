@@ -0,0 +1,180 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary playlist file that is read through a MappedByteBuffer.
+ *
+ * Layout, big endian:
+ * header  int magic, int version, int count
+ * index   count x (int offset, int length) of every entry, offsets are from the start of the file
+ * entries int id, long albumId, then data, title, album and artist as
+ *         (int byte length, UTF-8 bytes) with a length of -1 for null
+ */
+
+public class PlaylistFile {
+
+    static final int MAGIC = 0x41504c53;/*"APLS"*/
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int INDEX_ENTRY_SIZE = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PlaylistFile() {
+    }
+
+    /*Write the playlist to a temporary file and rename it over file, readers never see a partial file*/
+    public static void write(File file, Playlist playlist) throws IOException {
+        int count = playlist.size();
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int dataStart = HEADER_SIZE + count * INDEX_ENTRY_SIZE;
+
+        File temp = new File(file.getPath() + ".tmp");
+        boolean replaced = false;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                FileChannel channel = fileOut.getChannel();
+                channel.position(dataStart);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+                for (int i = 0; i < count; i++) {
+                    Audio audio = playlist.getAudio(i);
+                    int start = out.size();
+                    out.writeInt(playlist.getId(i));
+                    out.writeLong(audio.getAlbumId());
+                    writeString(out, audio.getData());
+                    writeString(out, audio.getTitle());
+                    writeString(out, audio.getAlbum());
+                    writeString(out, audio.getArtist());
+                    offsets[i] = dataStart + start;
+                    lengths[i] = out.size() - start;
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(dataStart);
+                header.putInt(MAGIC).putInt(VERSION).putInt(count);
+                for (int i = 0; i < count; i++) {
+                    header.putInt(offsets[i]).putInt(lengths[i]);
+                }
+                header.flip();
+                channel.position(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            replaced = true;
+        } finally {
+            /*A failed write leaves the old file and no partial copy*/
+            if (!replaced) {
+                temp.delete();
+            }
+        }
+    }
+
+    public static Reader open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            /*The mapping stays valid after the channel is closed*/
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Reader(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /*Reads single entries in O(1) through the fixed width index, nothing is decoded up front*/
+    public static class Reader implements Playlist {
+
+        private final ByteBuffer buffer;
+        private final int count;
+
+        Reader(ByteBuffer buffer) throws IOException {
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a playlist file");
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported playlist version " + version);
+            }
+            count = buffer.getInt(8);
+            if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > buffer.capacity()) {
+                throw new IOException("Corrupt playlist index");
+            }
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public int getId(int position) {
+            return buffer.getInt(entryOffset(position));
+        }
+
+        public long getAlbumId(int position) {
+            return buffer.getLong(entryOffset(position) + 4);
+        }
+
+        @Override
+        public Audio getAudio(int position) {
+            /*Work on a duplicate so that concurrent readers don't share a position*/
+            ByteBuffer entry = buffer.duplicate();
+            entry.position(entryOffset(position));
+            entry.getInt();
+            long albumId = entry.getLong();
+            String data = readString(entry);
+            String title = readString(entry);
+            String album = readString(entry);
+            String artist = readString(entry);
+            return new Audio(data, title, album, artist, albumId);
+        }
+
+        private int entryOffset(int position) {
+            if (position < 0 || position >= count) {
+                throw new IndexOutOfBoundsException("Position " + position + ", size " + count);
+            }
+            return buffer.getInt(HEADER_SIZE + position * INDEX_ENTRY_SIZE);
+        }
+
+        private static String readString(ByteBuffer entry) {
+            int length = entry.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            entry.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.Context;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process wide playlist shared by reference between MainActivity and MediaPlayerService.
+ * Every new playlist gets a new version so the service can tell cheaply whether its copy is current.
+ * The playlist file and index are only written as a backup on a background thread,
+ * for when the service is restarted in a new process.
+ */
+
+public class PlaylistRepository {
+
+    private static PlaylistRepository instance;
+
+    private final StorageUtil storage;
+    private final ExecutorService backupExecutor = Executors.newSingleThreadExecutor();
+    /*Latest playlist waiting to be written, older ones are skipped*/
+    private final AtomicReference<Playlist> pendingBackup = new AtomicReference<>();
+
+    private Playlist playlist;
+    private int audioIndex = -1;
+    private long version = 0;
+
+    public static synchronized PlaylistRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new PlaylistRepository(new StorageUtil(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    PlaylistRepository(StorageUtil storage) {
+        this.storage = storage;
+    }
+
+    /*The playlist must not change after it's published, use an AudioLibrary snapshot*/
+    public synchronized void setPlaylist(Playlist playlist) {
+        this.playlist = playlist;
+        version++;
+        backupPlaylist(playlist);
+    }
+
+    public synchronized Playlist getPlaylist() {
+        return playlist;
+    }
+
+    /*Changes whenever a new playlist is published*/
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized void setAudioIndex(final int audioIndex) {
+        this.audioIndex = audioIndex;
+        backupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                storage.storeAudioIndex(audioIndex);
+            }
+        });
+    }
+
+    public synchronized int getAudioIndex() {
+        return audioIndex;
+    }
+
+    private void backupPlaylist(Playlist playlist) {
+        if (pendingBackup.getAndSet(playlist) != null) {
+            /*A backup is already queued, it will write this playlist instead*/
+            return;
+        }
+        backupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Playlist latest = pendingBackup.getAndSet(null);
+                if (latest != null) {
+                    storage.storeAudio(latest);
+                }
+            }
+        });
+    }
+}
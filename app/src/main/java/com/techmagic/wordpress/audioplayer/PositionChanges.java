@@ -0,0 +1,76 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.Arrays;
+
+/**
+ * Ordered insert, remove and change ranges that turn one list of tracks into another,
+ * in the form RecyclerView adapters are notified with. Consecutive changes of the same kind are
+ * merged into one range as they are added.
+ */
+
+public class PositionChanges {
+
+    /*Positions are valid at the time each range is dispatched*/
+    public interface Listener {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    static final int INSERTED = 0;
+    static final int REMOVED = 1;
+    static final int CHANGED = 2;
+
+    /*Type, position and count of every range*/
+    private int[] ranges = new int[3 * 8];
+    private int rangeCount = 0;
+
+    public boolean isEmpty() {
+        return rangeCount == 0;
+    }
+
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    public void dispatch(Listener listener) {
+        for (int i = 0; i < rangeCount * 3; i += 3) {
+            switch (ranges[i]) {
+                case INSERTED:
+                    listener.onInserted(ranges[i + 1], ranges[i + 2]);
+                    break;
+                case REMOVED:
+                    listener.onRemoved(ranges[i + 1], ranges[i + 2]);
+                    break;
+                default:
+                    listener.onChanged(ranges[i + 1], ranges[i + 2]);
+                    break;
+            }
+        }
+    }
+
+    void add(int type, int position) {
+        if (rangeCount > 0) {
+            int last = (rangeCount - 1) * 3;
+            if (ranges[last] == type) {
+                int start = ranges[last + 1];
+                int count = ranges[last + 2];
+                /*Removing at the same position again extends the removed range*/
+                if (type == REMOVED ? position == start : position == start + count) {
+                    ranges[last + 2]++;
+                    return;
+                }
+            }
+        }
+        if (rangeCount * 3 == ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        int next = rangeCount * 3;
+        ranges[next] = type;
+        ranges[next + 1] = position;
+        ranges[next + 2] = 1;
+        rangeCount++;
+    }
+}
@@ -1,6 +1,8 @@
 package com.techmagic.wordpress.audioplayer;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -9,8 +11,9 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by Keerthi Prasad on 9/1/2017.
@@ -18,12 +21,146 @@ import java.util.List;
 
 public class RecyclerView_Adapter extends RecyclerView.Adapter<RecyclerView_Adapter.ViewHolder> {
 
-    private List<Audio> list = Collections.emptyList();
+    /*Payload of a rebind that only moves the now playing highlight*/
+    private static final Object PAYLOAD_NOW_PLAYING = new Object();
+
+    private AudioLibrary list;
+    /*Library positions of the rows shown while searching, null shows every track*/
+    private int[] filter;
     private Context context;
+    private ArtworkLoader artworkLoader;
+    private int nowPlayingId = -1;
+    /*Adapter position of the highlighted row, -1 if it isn't shown. Moved along by the diffs*/
+    private int nowPlayingPosition = -1;
+    private final int nowPlayingColor;
+    private final int textColor;
+
+    /*Diffs are computed here, only the latest submitted list is applied*/
+    private final ExecutorService diffExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int submitted = 0;
+    /*Bumped whenever the rows change, a diff computed against older rows is computed again*/
+    private int rowsVersion = 0;
 
-    public RecyclerView_Adapter(List<Audio> list, Context context) {
+    public RecyclerView_Adapter(AudioLibrary list, Context context) {
         this.list = list;
         this.context = context;
+        this.artworkLoader = ArtworkLoader.getInstance(context);
+        this.nowPlayingColor = ContextCompat.getColor(context, R.color.colorAccent);
+        this.textColor = ContextCompat.getColor(context, R.color.primary_text);
+        /*Rows keep their views across updates, so their art isn't decoded again*/
+        setHasStableIds(true);
+    }
+
+    /*Rows were appended to the library. Without a filter they're shown right away,
+    * with one the caller submits the new results*/
+    public void appendRows(AudioLibrary library, int start, int count) {
+        list = library;
+        if (filter == null) {
+            rowsVersion++;
+            notifyItemRangeInserted(start, count);
+        }
+    }
+
+    /*Show library narrowed down to the filter positions, or all of it for a null filter.
+    * The changes are worked out off the main thread and applied when ready*/
+    public void submit(final AudioLibrary library, final int[] filter) {
+        final int submission = ++submitted;
+        /*Snapshots, the libraries may keep growing on this thread. They share the arrays, nothing is copied*/
+        final AudioLibrary oldList = list.snapshot();
+        final AudioLibrary newList = library.snapshot();
+        final int[] oldFilter = this.filter;
+        final int version = rowsVersion;
+        final int playingId = nowPlayingId;
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (submission != submitted) {
+                    return;
+                }
+                final PositionChanges changes = TrackListDiff.compute(oldList, oldFilter, newList, filter);
+                final int playingPosition = findRow(newList, filter, playingId);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (submission != submitted) {
+                            return;
+                        }
+                        if (version != rowsVersion || playingId != nowPlayingId) {
+                            /*Rows were appended or another track was tapped meanwhile, diff again*/
+                            submit(library, filter);
+                            return;
+                        }
+                        apply(library, filter, changes, playingPosition);
+                    }
+                });
+            }
+        });
+    }
+
+    /*Diff thread, the adapter position of the track with id in the rows, -1 if it isn't among them*/
+    private static int findRow(AudioLibrary library, int[] filter, int id) {
+        if (id == -1) {
+            return -1;
+        }
+        int count = filter == null ? library.size() : filter.length;
+        for (int i = 0; i < count; i++) {
+            if (library.getId(filter == null ? i : filter[i]) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void apply(AudioLibrary library, int[] filter, PositionChanges changes, int playingPosition) {
+        list = library;
+        this.filter = filter;
+        rowsVersion++;
+        nowPlayingPosition = playingPosition;
+        changes.dispatch(new PositionChanges.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                notifyItemRangeChanged(position, count);
+            }
+        });
+    }
+
+    /*Stop computing diffs, pending ones are dropped*/
+    public void release() {
+        submitted++;
+        diffExecutor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /*Move the highlight to the row at adapter position, only the two rows involved are rebound*/
+    public void setNowPlaying(int position) {
+        int previous = nowPlayingPosition;
+        nowPlayingId = list.getId(getLibraryPosition(position));
+        nowPlayingPosition = position;
+        if (previous != -1 && previous != position && previous < getItemCount()) {
+            notifyItemChanged(previous, PAYLOAD_NOW_PLAYING);
+        }
+        notifyItemChanged(position, PAYLOAD_NOW_PLAYING);
+    }
+
+    /*Position in the library of the row at adapter position*/
+    public int getLibraryPosition(int position) {
+        return filter == null ? position : filter[position];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return list.getId(getLibraryPosition(position));
     }
 
     @Override
@@ -34,18 +171,48 @@ public class RecyclerView_Adapter extends RecyclerView.Adapter<RecyclerView_Adap
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-        holder.title.setText(list.get(position).getTitle());
-        if (list.get(position).getAlbum_art() != null) {
-            holder.play_pause.setImageBitmap(list.get(position).getAlbum_art());
-        }else {
-            holder.play_pause.setImageDrawable(ContextCompat.getDrawable(context,R.drawable.images));
+    public void onBindViewHolder(ViewHolder holder, int adapterPosition, List<Object> payloads) {
+        if (!payloads.isEmpty() && onlyNowPlaying(payloads)) {
+            bindNowPlaying(holder, adapterPosition);
+            return;
+        }
+        onBindViewHolder(holder, adapterPosition);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int adapterPosition) {
+        int position = getLibraryPosition(adapterPosition);
+        bindNowPlaying(holder, adapterPosition);
+        /*Bind the title straight from the library's char buffer, no String is created per row*/
+        holder.title.setText(list.getChars(), list.getTitleStart(position), list.getTitleLength(position));
+        /*Album art is decoded off the main thread, the placeholder is shown until it is ready*/
+        artworkLoader.load(list.getAlbumId(position), holder.play_pause);
+    }
+
+    private void bindNowPlaying(ViewHolder holder, int adapterPosition) {
+        boolean playing = list.getId(getLibraryPosition(adapterPosition)) == nowPlayingId;
+        holder.title.setTextColor(playing ? nowPlayingColor : textColor);
+    }
+
+    private static boolean onlyNowPlaying(List<Object> payloads) {
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) != PAYLOAD_NOW_PLAYING) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        super.onViewRecycled(holder);
+        /*The row is reused for another track, its pending art must not show up in it*/
+        artworkLoader.cancel(holder.play_pause);
     }
 
     @Override
     public int getItemCount() {
-        return list.size();
+        return filter == null ? list.size() : filter.length;
     }
 
     @Override
@@ -0,0 +1,276 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over the titles, albums and artists of an AudioLibrary.
+ * Words are lower cased and stripped of accents, every word has a posting list of the
+ * library positions it appears in. A query matches the tracks that have, for every word of the query,
+ * a word starting with it. Not thread safe, use it from one thread.
+ */
+
+public class SearchIndex {
+
+    private static final int[] NO_RESULTS = new int[0];
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    /*Words in order for prefix ranges, rebuilt on the first search after words were added or dropped*/
+    private String[] sortedWords = new String[0];
+    private boolean wordsChanged = false;
+    private int size = 0;
+
+    /*Scratch bitsets over the library positions*/
+    private long[] matches = new long[0];
+    private long[] termMatches = new long[0];
+    private final Set<String> rowWords = new HashSet<>();
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        postings.clear();
+        sortedWords = new String[0];
+        wordsChanged = false;
+        size = 0;
+    }
+
+    /*Index rows appended to the library, start has to be the number of rows indexed so far*/
+    public void addRows(AudioLibrary library, int start, int count) {
+        if (start != size) {
+            throw new IllegalArgumentException("Rows from " + start + " added to an index of " + size);
+        }
+        for (int position = start; position < start + count; position++) {
+            addRow(library, position);
+        }
+        size = start + count;
+    }
+
+    /*Follow a library that was replaced with a delta applied. Kept rows are moved to their new
+    * positions, removed and changed rows are dropped and the new and changed rows indexed again*/
+    public void applyUpdate(AudioLibrary library, PositionChanges update) {
+        PositionMapper mapper = new PositionMapper(size);
+        update.dispatch(mapper);
+        int[] oldToNew = mapper.finish();
+
+        List<String> emptied = new ArrayList<>();
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            if (entry.getValue().remap(oldToNew) == 0) {
+                emptied.add(entry.getKey());
+            }
+        }
+        for (String word : emptied) {
+            postings.remove(word);
+        }
+        if (!emptied.isEmpty()) {
+            wordsChanged = true;
+        }
+
+        Set<Postings> unsorted = new HashSet<>();
+        for (int position : mapper.added) {
+            unsorted.addAll(addRow(library, position));
+        }
+        for (Postings list : unsorted) {
+            list.sort();
+        }
+        size = library.size();
+    }
+
+    /*Positions of the matching tracks in library order, every track for a query without words*/
+    public int[] search(String query) {
+        List<String> terms = new ArrayList<>();
+        tokenize(query, terms);
+        if (terms.isEmpty()) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        if (wordsChanged) {
+            sortedWords = postings.keySet().toArray(new String[postings.size()]);
+            Arrays.sort(sortedWords);
+            wordsChanged = false;
+        }
+        int words = (size + 63) >>> 6;
+        if (matches.length < words) {
+            matches = new long[words];
+            termMatches = new long[words];
+        }
+
+        for (int t = 0; t < terms.size(); t++) {
+            long[] target = t == 0 ? matches : termMatches;
+            Arrays.fill(target, 0, words, 0);
+            String term = terms.get(t);
+            int from = Arrays.binarySearch(sortedWords, term);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            boolean any = false;
+            for (int w = from; w < sortedWords.length && sortedWords[w].startsWith(term); w++) {
+                Postings list = postings.get(sortedWords[w]);
+                for (int i = 0; i < list.count; i++) {
+                    int position = list.positions[i];
+                    target[position >>> 6] |= 1L << position;
+                }
+                any = true;
+            }
+            if (!any) {
+                return NO_RESULTS;
+            }
+            if (t > 0) {
+                for (int i = 0; i < words; i++) {
+                    matches[i] &= termMatches[i];
+                }
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < words; i++) {
+            count += Long.bitCount(matches[i]);
+        }
+        int[] results = new int[count];
+        int next = 0;
+        for (int i = 0; i < words; i++) {
+            long bits = matches[i];
+            while (bits != 0) {
+                results[next++] = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return results;
+    }
+
+    /*Index the words of one row, returns the posting lists it was added to*/
+    private List<Postings> addRow(AudioLibrary library, int position) {
+        rowWords.clear();
+        tokenize(library.getTitle(position), rowWords);
+        tokenize(library.getAlbum(position), rowWords);
+        tokenize(library.getArtist(position), rowWords);
+        List<Postings> lists = new ArrayList<>(rowWords.size());
+        for (String word : rowWords) {
+            Postings list = postings.get(word);
+            if (list == null) {
+                list = new Postings();
+                postings.put(word, list);
+                wordsChanged = true;
+            }
+            list.add(position);
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    /*Lower cased words without accents, anything but letters and digits separates words*/
+    static void tokenize(String text, Collection<String> words) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+    }
+
+    /*Walks the old and the new positions along the changes of an update, rows in between were kept*/
+    private static class PositionMapper implements PositionChanges.Listener {
+        final int[] oldToNew;
+        final List<Integer> added = new ArrayList<>();
+        int oldPosition = 0;
+        int newPosition = 0;
+
+        PositionMapper(int oldSize) {
+            oldToNew = new int[oldSize];
+        }
+
+        private void keepUntil(int position) {
+            while (newPosition < position) {
+                oldToNew[oldPosition++] = newPosition++;
+            }
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            keepUntil(position);
+            for (int i = 0; i < count; i++) {
+                added.add(newPosition++);
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            keepUntil(position);
+            for (int i = 0; i < count; i++) {
+                oldToNew[oldPosition++] = -1;
+            }
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            keepUntil(position);
+            for (int i = 0; i < count; i++) {
+                oldToNew[oldPosition++] = -1;
+                added.add(newPosition++);
+            }
+        }
+
+        /*New position of every old row, -1 for the dropped ones*/
+        int[] finish() {
+            while (oldPosition < oldToNew.length) {
+                oldToNew[oldPosition++] = newPosition++;
+            }
+            return oldToNew;
+        }
+    }
+
+    /*Growable primitive list of positions*/
+    private static class Postings {
+        int[] positions = new int[4];
+        int count = 0;
+
+        void add(int position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+        }
+
+        /*Move to the new positions, dropping the removed ones, and return the new count*/
+        int remap(int[] oldToNew) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int position = oldToNew[positions[i]];
+                if (position >= 0) {
+                    positions[kept++] = position;
+                }
+            }
+            count = kept;
+            return count;
+        }
+
+        void sort() {
+            Arrays.sort(positions, 0, count);
+        }
+    }
+}
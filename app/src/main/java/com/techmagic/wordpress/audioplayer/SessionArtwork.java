@@ -0,0 +1,76 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Album art of the playing track and its neighbours at one size, for the notification and the media session.
+ * Art is decoded in the background by the ArtworkLoader, the few bitmaps in use are kept here. Main thread only.
+ */
+
+public class SessionArtwork {
+
+    public interface Listener {
+        /*The art of the album is cached now, get returns it*/
+        void onArtworkLoaded(long albumId);
+    }
+
+    private final Context context;
+    private final ArtworkLoader artworkLoader;
+    private final int size;
+    private final Listener listener;
+    /*album id -> art at size, albums without art map to the default image*/
+    private final LruCache<Long, Bitmap> cache;
+    private final Set<Long> loading = new HashSet<>();
+    private Bitmap defaultArtwork;
+
+    public SessionArtwork(Context context, int size, int cacheSize, Listener listener) {
+        this.context = context;
+        this.artworkLoader = ArtworkLoader.getInstance(context);
+        this.size = size;
+        this.cache = new LruCache<>(cacheSize);
+        this.listener = listener;
+    }
+
+    /*The art of the album if it is cached, otherwise it is loaded and null returned*/
+    public Bitmap get(long albumId) {
+        Bitmap bitmap = cache.get(albumId);
+        if (bitmap == null) {
+            prefetch(albumId);
+        }
+        return bitmap;
+    }
+
+    /*Start decoding the art of an album that is likely to be shown next*/
+    public void prefetch(long albumId) {
+        if (cache.get(albumId) != null || !loading.add(albumId)) {
+            return;
+        }
+        artworkLoader.loadArtwork(albumId, size, new ArtworkLoader.Callback() {
+            @Override
+            public void onArtworkLoaded(long albumId, Bitmap bitmap) {
+                loading.remove(albumId);
+                cache.put(albumId, bitmap != null ? bitmap : getDefault());
+                listener.onArtworkLoaded(albumId);
+            }
+        });
+    }
+
+    /*The bundled image, decoded once and sampled down towards size*/
+    public Bitmap getDefault() {
+        if (defaultArtwork == null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(context.getResources(), R.drawable.image2, options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = ArtworkLoader.calculateInSampleSize(options.outWidth, options.outHeight, size);
+            defaultArtwork = BitmapFactory.decodeResource(context.getResources(), R.drawable.image2, options);
+        }
+        return defaultArtwork;
+    }
+}
@@ -2,10 +2,13 @@ package com.techmagic.wordpress.audioplayer;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 
@@ -16,6 +19,10 @@ import java.util.ArrayList;
 public class StorageUtil {
 
     private final String STORAGE = " com.techmagic.wordpress.audioplayer.STORAGE";
+    private static final String TAG = "StorageUtil";
+    private static final String PLAYLIST_FILE = "playlist.bin";
+    /*Key of the Gson playlist written by older versions, only read once to migrate it*/
+    private static final String LEGACY_AUDIO_LIST = "audioArrayList";
     private SharedPreferences preferences;
     private Context context;
 
@@ -23,22 +30,49 @@ public class StorageUtil {
         this.context = context;
     }
 
-    public void storeAudio(ArrayList<Audio> arrayList){
-        preferences = context.getSharedPreferences(STORAGE,Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = preferences.edit();
-        Gson gson = new Gson();
-        String json = gson.toJson(arrayList);
-        editor.putString("audioArrayList",json);
-        editor.apply();
+    public void storeAudio(Playlist playlist){
+        try {
+            PlaylistFile.write(getPlaylistFile(), playlist);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not store the playlist", e);
+        }
     }
 
-    public ArrayList<Audio> loadAudio(){
+    /*Returns the stored playlist, entries are only decoded when they are read, or null if there is none*/
+    public Playlist loadAudio(){
+        File file = getPlaylistFile();
+        if (!file.exists()) {
+            migrateLegacyPlaylist();
+        }
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return PlaylistFile.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load the playlist", e);
+            return null;
+        }
+    }
+
+    /*Move a playlist stored as Gson in the SharedPreferences to the playlist file*/
+    private void migrateLegacyPlaylist(){
         preferences = context.getSharedPreferences(STORAGE,Context.MODE_PRIVATE);
-        Gson gson = new Gson();
-        String json = preferences.getString("audioArrayList",null);
+        String json = preferences.getString(LEGACY_AUDIO_LIST,null);
+        if (json == null){
+            return;
+        }
         Type type = new TypeToken<ArrayList<Audio>>(){
         }.getType();
-        return gson.fromJson(json,type);
+        ArrayList<Audio> arrayList = new Gson().fromJson(json,type);
+        if (arrayList != null){
+            storeAudio(AudioLibrary.fromList(arrayList));
+        }
+        preferences.edit().remove(LEGACY_AUDIO_LIST).apply();
+    }
+
+    private File getPlaylistFile(){
+        return new File(context.getFilesDir(), PLAYLIST_FILE);
     }
 
     public void storeAudioIndex(int index){
@@ -53,10 +87,24 @@ public class StorageUtil {
         return preferences.getInt("audioIndex",-1);/*return -1 if no data is found*/
     }
 
-    public void clearCachedAudioPlaylist(){
+    /*Called from the PlaybackStateJournal thread, so the blocking commit() is fine here.
+    * Uses its own keys so a late journal write never overrides an index stored by the activity*/
+    public void storePlaybackState(int index, int position, long timestamp){
         preferences = context.getSharedPreferences(STORAGE,Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = preferences.edit();
-        editor.clear();
-        editor.apply();
+        editor.putInt("stateAudioIndex",index);
+        editor.putInt("stateResumePosition",position);
+        editor.putLong("stateTimestamp",timestamp);
+        editor.commit();
+    }
+
+    public int loadStateAudioIndex(){
+        preferences = context.getSharedPreferences(STORAGE,Context.MODE_PRIVATE);
+        return preferences.getInt("stateAudioIndex",-1);/*return -1 if no data is found*/
+    }
+
+    public int loadStateResumePosition(){
+        preferences = context.getSharedPreferences(STORAGE,Context.MODE_PRIVATE);
+        return preferences.getInt("stateResumePosition",0);
     }
 }
@@ -0,0 +1,166 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the head of the streams that play next into the cache of a StreamProxy, so a skip to one
+ * of them starts from disk. Streams are loaded in the order they were scheduled in, a chunk at a
+ * time by at most maxConcurrent workers, and only up to headBytes of each and byteBudget in all.
+ * Scheduling again replaces what is left of the previous schedule. Chunks already loading finish,
+ * a player may be waiting for them.
+ */
+
+public class StreamPrefetcher {
+
+    private static class Job {
+        final String url;
+        final int index;
+
+        Job(String url, int index) {
+            this.url = url;
+            this.index = index;
+        }
+    }
+
+    private final StreamProxy proxy;
+    private final int maxConcurrent;
+    private final long headBytes;
+    private final long byteBudget;
+    private final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StreamPrefetcher");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /*Guarded by this*/
+    private final ArrayDeque<Job> pending = new ArrayDeque<>();
+    private int running = 0;
+    private boolean shutdown = false;
+    private int prefetchedChunks = 0;
+    private int cancelledChunks = 0;
+    private int failedChunks = 0;
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            Job job;
+            while ((job = nextJob()) != null) {
+                try {
+                    if (proxy.prefetch(job.url, job.index)) {
+                        synchronized (StreamPrefetcher.this) {
+                            prefetchedChunks++;
+                        }
+                    } else {
+                        dropStream(job.url, false);
+                    }
+                } catch (IOException e) {
+                    /*The rest of the stream would most likely fail too, the player gets its own error*/
+                    dropStream(job.url, true);
+                }
+            }
+        }
+    };
+
+    public StreamPrefetcher(StreamProxy proxy, int maxConcurrent, long headBytes, long byteBudget) {
+        this.proxy = proxy;
+        this.maxConcurrent = maxConcurrent;
+        this.headBytes = headBytes;
+        this.byteBudget = byteBudget;
+    }
+
+    /*Prefetch the head of urls, the one to play first first. Replaces the previous schedule*/
+    public synchronized void schedule(List<String> urls) {
+        if (shutdown) {
+            return;
+        }
+        cancelledChunks += pending.size();
+        pending.clear();
+        int chunkSize = proxy.getChunkSize();
+        int headChunks = (int) Math.max(1, (headBytes + chunkSize - 1) / chunkSize);
+        long budget = byteBudget;
+        for (String url : urls) {
+            for (int index = 0; index < headChunks && budget >= chunkSize; index++) {
+                pending.add(new Job(url, index));
+                budget -= chunkSize;
+            }
+        }
+        while (running < maxConcurrent && running < pending.size()) {
+            running++;
+            workers.execute(worker);
+        }
+    }
+
+    /*Drop what wasn't started yet*/
+    public synchronized void cancel() {
+        cancelledChunks += pending.size();
+        pending.clear();
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            cancel();
+        }
+        workers.shutdown();
+    }
+
+    /*Waits for the chunks loading, for tests*/
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (running > 0 || !pending.isEmpty()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.timedWait(this, left);
+            }
+        }
+        return true;
+    }
+
+    public synchronized int getPrefetchedChunks() {
+        return prefetchedChunks;
+    }
+
+    /*Scheduled chunks dropped by a new schedule or cancel() before they were started*/
+    public synchronized int getCancelledChunks() {
+        return cancelledChunks;
+    }
+
+    public synchronized int getFailedChunks() {
+        return failedChunks;
+    }
+
+    private synchronized Job nextJob() {
+        Job job = pending.poll();
+        if (job == null) {
+            running--;
+            notifyAll();
+        }
+        return job;
+    }
+
+    /*Past the end or failing, the chunks left of url aren't loaded*/
+    private synchronized void dropStream(String url, boolean failed) {
+        if (failed) {
+            failedChunks++;
+        }
+        Iterator<Job> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().url.equals(url)) {
+                iterator.remove();
+            }
+        }
+    }
+}
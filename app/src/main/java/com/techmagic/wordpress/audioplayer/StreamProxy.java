@@ -0,0 +1,397 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP server on the loopback interface that plays remote streams out of a ChunkCache.
+ * The player is given proxyUrl(url) instead of url, its requests and byte ranges are answered from
+ * the cached chunks and missing chunks are fetched from the origin with range requests. Streams
+ * whose length the origin doesn't tell are passed through uncached.
+ * Other apps can reach the loopback interface too, so proxy urls carry a token drawn on every
+ * start and requests without it are refused.
+ */
+
+public class StreamProxy {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final int TIMEOUT_MS = 15000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int TOKEN_BYTES = 16;
+
+    private final ChunkCache cache;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    /*Hex, the query of every proxy url starts with token=it*/
+    private volatile String token;
+
+    private final ChunkCache.Loader originLoader = new ChunkCache.Loader() {
+        @Override
+        public void load(String url, int index, OutputStream out) throws IOException {
+            fetchChunk(url, index, out);
+        }
+    };
+
+    public StreamProxy(ChunkCache cache) {
+        this.cache = cache;
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : random) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        token = hex.toString();
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        final ServerSocket server = serverSocket;
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        connections.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        /*Closed by stop()*/
+                    }
+                }
+            }
+        }, "StreamProxy");
+        acceptThread.start();
+    }
+
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        serverSocket = null;
+        /*Interrupts the connections blocked on the origin*/
+        connections.shutdownNow();
+    }
+
+    /*The address of url on the proxy*/
+    public String proxyUrl(String url) {
+        try {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/stream?token=" + token
+                    + "&url=" + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getChunkSize() {
+        return cache.getChunkSize();
+    }
+
+    /*Get chunk index of url into the cache ahead of the player asking for it. A player asking while
+    * it loads waits for this load. False if the chunk is past the end of the stream or the stream isn't cached*/
+    public boolean prefetch(String url, int index) throws IOException {
+        ChunkCache.StreamInfo info = cache.getInfo(url);
+        if (info != null && (info.length < 0 || (long) index * cache.getChunkSize() >= info.length)) {
+            return false;
+        }
+        try {
+            cache.getChunk(url, index, originLoader);
+        } catch (IOException e) {
+            info = cache.getInfo(url);
+            if (info != null && info.length < 0) {
+                /*Found out on the way*/
+                return false;
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            String requestLine = readLine(in);
+            String range = null;
+            String header;
+            while ((header = readLine(in)) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    range = header.substring(colon + 1).trim();
+                }
+            }
+            handle(requestLine, range, out);
+            out.flush();
+        } catch (IOException e) {
+            /*The player closes connections it doesn't need anymore, on a seek for example*/
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handle(String requestLine, String range, OutputStream out) throws IOException {
+        String[] parts = requestLine == null ? new String[0] : requestLine.split(" ");
+        boolean head = parts.length == 3 && parts[0].equals("HEAD");
+        if (parts.length != 3 || !(parts[0].equals("GET") || head) || !parts[1].startsWith("/stream?")) {
+            writeStatus(out, "400 Bad Request", 0);
+            return;
+        }
+        String query = parts[1].substring("/stream?".length());
+        int separator = query.indexOf('&');
+        String given = separator > 0 && query.startsWith("token=") ? query.substring("token=".length(), separator) : "";
+        /*Compared in constant time, how long a wrong guess takes tells nothing*/
+        if (!MessageDigest.isEqual(given.getBytes(ASCII), token.getBytes(ASCII))) {
+            writeStatus(out, "403 Forbidden", 0);
+            return;
+        }
+        if (!query.startsWith("url=", separator + 1)) {
+            writeStatus(out, "400 Bad Request", 0);
+            return;
+        }
+        String url = URLDecoder.decode(query.substring(separator + 1 + "url=".length()), "UTF-8");
+
+        ChunkCache.StreamInfo info = cache.getInfo(url);
+        if (info == null) {
+            /*Loading the first chunk tells the length. If there is none, fetchChunk fails before anything is cached*/
+            try {
+                cache.getChunk(url, 0, originLoader);
+            } catch (IOException e) {
+                info = cache.getInfo(url);
+                if (info == null || info.length >= 0) {
+                    writeStatus(out, "502 Bad Gateway", 0);
+                    return;
+                }
+            }
+            info = cache.getInfo(url);
+        }
+        if (info == null || info.length < 0) {
+            passThrough(url, range, head, out);
+            return;
+        }
+
+        long length = info.length;
+        long start = 0;
+        long end = length - 1;
+        boolean partial = false;
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher != null && matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            partial = true;
+            if (matcher.group(1).isEmpty()) {
+                /*The last n bytes*/
+                start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(end, Long.parseLong(matcher.group(2)));
+                }
+            }
+            if (start >= length || start > end) {
+                writeHeaders(out, "416 Range Not Satisfiable", info.contentType, 0,
+                        "Content-Range: bytes */" + length);
+                return;
+            }
+        }
+        long count = end - start + 1;
+        if (partial) {
+            writeHeaders(out, "206 Partial Content", info.contentType, count,
+                    "Content-Range: bytes " + start + "-" + end + "/" + length);
+        } else {
+            writeHeaders(out, "200 OK", info.contentType, count, null);
+        }
+        if (head) {
+            return;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int chunkSize = cache.getChunkSize();
+        long position = start;
+        while (position <= end) {
+            int index = (int) (position / chunkSize);
+            File chunk = cache.getChunk(url, index, originLoader);
+            long offset = position - (long) index * chunkSize;
+            long remaining = Math.min(end + 1, (long) (index + 1) * chunkSize) - position;
+            InputStream in = new FileInputStream(chunk);
+            try {
+                skipFully(in, offset);
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Chunk " + index + " is short");
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                    position += read;
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /*Chunk index of url from the origin, with a range request. Learns the length of the stream on the way.
+    * Fails without writing anything if the stream has no length or the origin ignores ranges, and if
+    * the origin sends less than the chunk, so a chunk in the cache is always whole*/
+    private void fetchChunk(String url, int index, OutputStream out) throws IOException {
+        int chunkSize = cache.getChunkSize();
+        long start = (long) index * chunkSize;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + (start + chunkSize - 1));
+        try {
+            int code = connection.getResponseCode();
+            String contentType = connection.getContentType() != null ? connection.getContentType() : DEFAULT_CONTENT_TYPE;
+            long length;
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+                if (!matcher.matches() || Long.parseLong(matcher.group(1)) != start) {
+                    throw new IOException("Unexpected range " + connection.getHeaderField("Content-Range"));
+                }
+                length = Long.parseLong(matcher.group(3));
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                /*The origin doesn't do ranges, every chunk would download the stream again from the start.
+                * It's passed through like a stream without a length*/
+                length = -1;
+            } else if (code == 416) {
+                /*Past the end, an empty chunk*/
+                return;
+            } else {
+                throw new IOException("Origin answered " + code);
+            }
+            cache.putInfo(url, new ChunkCache.StreamInfo(length, contentType));
+            if (length < 0) {
+                throw new IOException("Can't cache " + url);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = Math.max(0, Math.min(chunkSize, length - start));
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Origin ended " + remaining + " bytes short of chunk " + index);
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /*Streams without a known length or range support go straight from the origin to the player*/
+    private void passThrough(String url, String range, boolean head, OutputStream out) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        try {
+            int code = connection.getResponseCode();
+            String contentRange = connection.getHeaderField("Content-Range");
+            String contentType = connection.getContentType() != null ? connection.getContentType() : DEFAULT_CONTENT_TYPE;
+            out.write(("HTTP/1.1 " + code + " " + connection.getResponseMessage() + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + (contentRange != null ? "Content-Range: " + contentRange + "\r\n" : "")
+                    + "Connection: close\r\n\r\n").getBytes(ASCII));
+            if (head || code >= 400) {
+                return;
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void writeStatus(OutputStream out, String status, long length) throws IOException {
+        writeHeaders(out, status, "text/plain", length, null);
+    }
+
+    private static void writeHeaders(OutputStream out, String status, String contentType, long length, String extra) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + "Accept-Ranges: bytes\r\n"
+                + (extra != null ? extra + "\r\n" : "")
+                + "Connection: close\r\n\r\n").getBytes(ASCII));
+    }
+
+    /*A header line without the line break, null at the end of the stream*/
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return c < 0 && line.length() == 0 ? null : line.toString();
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Stream ended while skipping");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
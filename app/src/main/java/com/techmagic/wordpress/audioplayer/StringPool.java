@@ -0,0 +1,74 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Deduplicates strings that repeat across many tracks, such as album and artist names.
+ * Strings are only ever appended, so a view() can share the array and be read from other threads.
+ */
+
+public class StringPool {
+
+    /*Reference used for null strings*/
+    public static final int NULL = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /*null for views, which can't intern*/
+    private final Map<String, Integer> refs;
+    private String[] strings;
+    private int size;
+
+    public StringPool() {
+        refs = new HashMap<>();
+        strings = new String[INITIAL_CAPACITY];
+    }
+
+    private StringPool(StringPool source) {
+        refs = null;
+        strings = source.strings;
+        size = source.size;
+    }
+
+    /*Read only view of the strings interned so far, nothing is copied. The source only writes past
+    * the view's size or into a new array, references stay the same*/
+    public StringPool view() {
+        return refs == null ? this : new StringPool(this);
+    }
+
+    /*Returns the reference of value, adding it to the pool if it's not there yet*/
+    public int intern(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        if (refs == null) {
+            throw new IllegalStateException("Views can't be modified");
+        }
+        Integer ref = refs.get(value);
+        if (ref == null) {
+            if (size == strings.length) {
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+            ref = size;
+            strings[size++] = value;
+            refs.put(value, ref);
+        }
+        return ref;
+    }
+
+    public String get(int ref) {
+        if (ref == NULL) {
+            return null;
+        }
+        if (ref < 0 || ref >= size) {
+            throw new IndexOutOfBoundsException("Reference " + ref + ", size " + size);
+        }
+        return strings[ref];
+    }
+
+    public int size() {
+        return size;
+    }
+}
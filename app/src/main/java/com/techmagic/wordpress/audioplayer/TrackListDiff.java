@@ -0,0 +1,83 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.Arrays;
+
+/**
+ * Position changes between two lists of tracks, each a library optionally narrowed down to some of
+ * its positions. Both lists keep library order, so instead of DiffUtil's O(N*D) search a single
+ * merge over the track ids finds the changes in O(N log N), even when a search result replaces
+ * the whole library.
+ */
+
+public class TrackListDiff {
+
+    private TrackListDiff() {
+    }
+
+    /*filter holds the library positions shown, null for every track*/
+    public static PositionChanges compute(AudioLibrary oldLibrary, int[] oldFilter,
+                                          AudioLibrary newLibrary, int[] newFilter) {
+        int[] oldIds = ids(oldLibrary, oldFilter);
+        int[] newIds = ids(newLibrary, newFilter);
+        int[] sortedOld = oldIds.clone();
+        Arrays.sort(sortedOld);
+        int[] sortedNew = newIds.clone();
+        Arrays.sort(sortedNew);
+        /*Rows of the same library only differ in which tracks are shown*/
+        boolean compareContents = oldLibrary != newLibrary;
+
+        PositionChanges changes = new PositionChanges();
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < oldIds.length || j < newIds.length) {
+            if (i < oldIds.length && j < newIds.length && oldIds[i] == newIds[j]) {
+                if (compareContents && !sameContents(oldLibrary, position(oldFilter, i), newLibrary, position(newFilter, j))) {
+                    changes.add(PositionChanges.CHANGED, position);
+                }
+                i++;
+                j++;
+                position++;
+            } else if (j < newIds.length && (i == oldIds.length || Arrays.binarySearch(sortedOld, newIds[j]) < 0)) {
+                changes.add(PositionChanges.INSERTED, position);
+                j++;
+                position++;
+            } else {
+                /*Gone, or moved which the library order doesn't do, then it's inserted again later*/
+                changes.add(PositionChanges.REMOVED, position);
+                i++;
+            }
+        }
+        return changes;
+    }
+
+    private static int position(int[] filter, int row) {
+        return filter == null ? row : filter[row];
+    }
+
+    private static int[] ids(AudioLibrary library, int[] filter) {
+        int size = filter == null ? library.size() : filter.length;
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = library.getId(position(filter, i));
+        }
+        return ids;
+    }
+
+    /*What a row shows, the title and the album art*/
+    private static boolean sameContents(AudioLibrary a, int aPosition, AudioLibrary b, int bPosition) {
+        if (a.getAlbumId(aPosition) != b.getAlbumId(bPosition) || a.getTitleLength(aPosition) != b.getTitleLength(bPosition)) {
+            return false;
+        }
+        char[] aChars = a.getChars();
+        char[] bChars = b.getChars();
+        int aStart = a.getTitleStart(aPosition);
+        int bStart = b.getTitleStart(bPosition);
+        for (int k = a.getTitleLength(aPosition) - 1; k >= 0; k--) {
+            if (aChars[aStart + k] != bChars[bStart + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
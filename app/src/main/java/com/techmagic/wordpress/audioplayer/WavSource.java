@@ -0,0 +1,148 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * PcmSource over a 16 bit PCM WAV file. The samples are converted from the little endian bytes
+ * through one buffer allocated when the file is opened.
+ */
+
+public class WavSource implements PcmSource {
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private int sampleRate;
+    private int channelCount;
+    /*Bytes of sample data left in the data chunk*/
+    private long remaining;
+
+    public WavSource(File file) throws IOException {
+        in = new FileInputStream(file);
+        try {
+            readHeader();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        readFully(bytes, 12);
+        if (readInt(0) != 0x46464952/*"RIFF"*/ || readInt(8) != 0x45564157/*"WAVE"*/) {
+            throw new IOException("Not a WAV file");
+        }
+        boolean hasFormat = false;
+        while (true) {
+            readFully(bytes, 8);
+            int tag = readInt(0);
+            long size = readInt(4) & 0xffffffffL;
+            if (tag == 0x20746d66/*"fmt "*/) {
+                if (size < 16 || size > bytes.length) {
+                    throw new IOException("Bad fmt chunk");
+                }
+                readFully(bytes, (int) size);
+                int format = readShort(0);
+                channelCount = readShort(2);
+                sampleRate = readInt(4);
+                int bitsPerSample = readShort(14);
+                if ((format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) || bitsPerSample != 16 || channelCount <= 0) {
+                    throw new IOException("Only 16 bit PCM is supported");
+                }
+                hasFormat = true;
+            } else if (tag == 0x61746164/*"data"*/) {
+                if (!hasFormat) {
+                    throw new IOException("data before fmt");
+                }
+                remaining = size;
+                return;
+            } else {
+                skipFully(size);
+            }
+            if ((size & 1) != 0) {
+                /*Chunks are padded to an even size*/
+                skipFully(1);
+            }
+        }
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int count) throws IOException {
+        if (remaining < 2) {
+            return -1;
+        }
+        int length = (int) Math.min(Math.min(count * 2L, remaining), bytes.length) & ~1;
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                /*Truncated file, end with what was read*/
+                remaining = 0;
+                break;
+            }
+            read += n;
+        }
+        read &= ~1;
+        remaining -= read;
+        int samples = read / 2;
+        for (int i = 0; i < samples; i++) {
+            buffer[offset + i] = (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8));
+        }
+        return samples == 0 ? -1 : samples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readFully(byte[] target, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(target, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated WAV header");
+            }
+            read += n;
+        }
+    }
+
+    private void skipFully(long length) throws IOException {
+        while (length > 0) {
+            long n = in.skip(length);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated WAV header");
+                }
+                n = 1;
+            }
+            length -= n;
+        }
+    }
+
+    private int readInt(int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private int readShort(int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+}
@@ -0,0 +1,180 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Waveform peaks of many tracks in one memory mapped file. Every track takes a slot of the same
+ * size, as many slots as fit the size budget, and once they are all taken the least recently used
+ * one is reused. Peaks are served as read only views of the mapping, nothing is copied.
+ *
+ * Layout, big endian:
+ * header  int magic, int version, int bucketCount, int slotCount, long useClock
+ * slots   slotCount x (long trackId, long lastModified, long lastUsed), trackId -1 when free
+ * peaks   slotCount x bucketCount x (short min, short max)
+ */
+
+public class WaveformCache {
+
+    static final int MAGIC = 0x5045414b;/*"PEAK"*/
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int SLOT_SIZE = 24;
+    private static final long FREE = -1;
+
+    private final int bucketCount;
+    private final int slotCount;
+    private final int peaksSize;
+    private final MappedByteBuffer buffer;
+    /*Track id to slot, built from the slot table when the file is opened*/
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private long useClock;
+
+    /*Opens file, or starts it over if it was written with another bucket count or budget*/
+    public WaveformCache(File file, int bucketCount, long budgetBytes) throws IOException {
+        this.bucketCount = bucketCount;
+        this.peaksSize = bucketCount * 4;
+        this.slotCount = (int) Math.min(Integer.MAX_VALUE / (SLOT_SIZE + peaksSize),
+                (budgetBytes - HEADER_SIZE) / (SLOT_SIZE + peaksSize));
+        if (bucketCount <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("No slot of " + bucketCount + " buckets fits " + budgetBytes + " bytes");
+        }
+        long size = HEADER_SIZE + (long) slotCount * (SLOT_SIZE + peaksSize);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            boolean valid = randomAccessFile.length() == size && readHeader(randomAccessFile);
+            randomAccessFile.setLength(size);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (valid) {
+                loadSlots();
+            } else {
+                format();
+            }
+        } finally {
+            /*The mapping stays valid after the file is closed*/
+            randomAccessFile.close();
+        }
+    }
+
+    private boolean readHeader(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        return file.readInt() == MAGIC && file.readInt() == VERSION
+                && file.readInt() == bucketCount && file.readInt() == slotCount;
+    }
+
+    private void format() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, bucketCount);
+        buffer.putInt(12, slotCount);
+        useClock = 0;
+        buffer.putLong(16, useClock);
+        for (int slot = 0; slot < slotCount; slot++) {
+            buffer.putLong(slotOffset(slot), FREE);
+        }
+    }
+
+    private void loadSlots() {
+        useClock = buffer.getLong(16);
+        for (int slot = 0; slot < slotCount; slot++) {
+            long trackId = buffer.getLong(slotOffset(slot));
+            if (trackId != FREE) {
+                slots.put(trackId, slot);
+            }
+        }
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /*Read only view of bucketCount (min, max) pairs, null if the track wasn't stored at lastModified.
+    * The view shows whatever the slot holds, keep it only while the track is shown*/
+    public synchronized ShortBuffer get(long trackId, long lastModified) {
+        Integer slot = slots.get(trackId);
+        if (slot == null || buffer.getLong(slotOffset(slot) + 8) != lastModified) {
+            return null;
+        }
+        touch(slot);
+        ByteBuffer view = buffer.duplicate();
+        int offset = peaksOffset(slot);
+        view.position(offset);
+        view.limit(offset + peaksSize);
+        return view.slice().asShortBuffer().asReadOnlyBuffer();
+    }
+
+    /*Stores the first bucketCount pairs of peaks, in the slot of the track or the least recently used one*/
+    public synchronized void put(long trackId, long lastModified, short[] peaks) {
+        if (peaks.length < bucketCount * 2) {
+            throw new IllegalArgumentException(peaks.length / 2 + " buckets, need " + bucketCount);
+        }
+        Integer slot = slots.get(trackId);
+        if (slot == null) {
+            slot = freeSlot();
+            slots.put(trackId, slot);
+        }
+        int offset = slotOffset(slot);
+        /*Invalid while the peaks are written, in case the process dies in between*/
+        buffer.putLong(offset, FREE);
+        ByteBuffer view = buffer.duplicate();
+        view.position(peaksOffset(slot));
+        view.asShortBuffer().put(peaks, 0, bucketCount * 2);
+        buffer.putLong(offset + 8, lastModified);
+        buffer.putLong(offset, trackId);
+        touch(slot);
+    }
+
+    /*Writes the changes of the mapping to the file*/
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    private int freeSlot() {
+        if (slots.size() < slotCount) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (buffer.getLong(slotOffset(slot)) == FREE) {
+                    return slot;
+                }
+            }
+        }
+        int oldest = 0;
+        long oldestUse = Long.MAX_VALUE;
+        for (int slot = 0; slot < slotCount; slot++) {
+            long lastUsed = buffer.getLong(slotOffset(slot) + 16);
+            if (lastUsed < oldestUse) {
+                oldestUse = lastUsed;
+                oldest = slot;
+            }
+        }
+        slots.remove(buffer.getLong(slotOffset(oldest)));
+        return oldest;
+    }
+
+    private void touch(int slot) {
+        buffer.putLong(slotOffset(slot) + 16, ++useClock);
+        buffer.putLong(16, useClock);
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private int peaksOffset(int slot) {
+        return HEADER_SIZE + slotCount * SLOT_SIZE + slot * peaksSize;
+    }
+}
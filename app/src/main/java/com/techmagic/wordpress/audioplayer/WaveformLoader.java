@@ -0,0 +1,184 @@
+package com.techmagic.wordpress.audioplayer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Extracts waveform peaks of tracks in the background and keeps them in a WaveformCache, so a
+ * scrubber gets them without decoding. A track is decoded once per modification time.
+ */
+
+public class WaveformLoader {
+
+    private static final String TAG = "WaveformLoader";
+    private static final String CACHE_FILE = "waveforms.bin";
+    /*Enough for a scrubber as wide as a tablet, 2KB a track*/
+    public static final int BUCKET_COUNT = 512;
+    /*About 2000 tracks*/
+    private static final long CACHE_BUDGET = 4 * 1024 * 1024;
+
+    private static WaveformLoader instance;
+
+    public interface Callback {
+        /*Main thread, peaks is a read only view of BUCKET_COUNT (min, max) pairs, null if the track can't be decoded*/
+        void onWaveformLoaded(long trackId, ShortBuffer peaks);
+    }
+
+    private final File cacheFile;
+    /*Opened on the executor, null if the cache file can't be mapped*/
+    private WaveformCache cache;
+    /*Decoding is heavy, one track at a time*/
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final WaveformPeaks extractor = new WaveformPeaks();
+    private final short[] peaks = new short[BUCKET_COUNT * 2];
+    /*Paths of the tracks waiting for a prefetch by track id, in order. Guarded by itself*/
+    private final LinkedHashMap<Long, String> pendingPrefetches = new LinkedHashMap<>();
+    /*The track a prefetch is decoding, -1 for none. Guarded by pendingPrefetches*/
+    private long prefetchingTrackId = -1;
+    private boolean prefetchQueued = false;
+
+    public static synchronized WaveformLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new WaveformLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WaveformLoader(Context context) {
+        cacheFile = new File(context.getCacheDir(), CACHE_FILE);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache = new WaveformCache(cacheFile, BUCKET_COUNT, CACHE_BUDGET);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not open the waveform cache", e);
+                }
+            }
+        });
+    }
+
+    /*Peaks of the track at path, from the cache or decoded now*/
+    public void load(final long trackId, final String path, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ShortBuffer result = loadPeaks(trackId, path);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onWaveformLoaded(trackId, result);
+                    }
+                });
+            }
+        });
+    }
+
+    /*Get the peaks of tracks likely shown soon into the cache, in the order given. Replaces the
+    * prefetches asked for before: those of other tracks are dropped if they haven't started,
+    * a track pending or being decoded already isn't queued again*/
+    public void prefetch(long[] trackIds, String[] paths) {
+        synchronized (pendingPrefetches) {
+            LinkedHashMap<Long, String> kept = new LinkedHashMap<>();
+            for (int i = 0; i < trackIds.length; i++) {
+                if (trackIds[i] != prefetchingTrackId) {
+                    kept.put(trackIds[i], paths[i]);
+                }
+            }
+            pendingPrefetches.clear();
+            pendingPrefetches.putAll(kept);
+            if (!pendingPrefetches.isEmpty() && !prefetchQueued) {
+                prefetchQueued = true;
+                executor.execute(prefetchNext);
+            }
+        }
+    }
+
+    /*Drop the prefetches that haven't started*/
+    public void cancelPrefetches() {
+        synchronized (pendingPrefetches) {
+            pendingPrefetches.clear();
+        }
+    }
+
+    /*One track per run, a load asked for meanwhile goes before the rest of the prefetches*/
+    private final Runnable prefetchNext = new Runnable() {
+        @Override
+        public void run() {
+            long trackId;
+            String path;
+            synchronized (pendingPrefetches) {
+                Iterator<Map.Entry<Long, String>> iterator = pendingPrefetches.entrySet().iterator();
+                if (!iterator.hasNext()) {
+                    prefetchQueued = false;
+                    return;
+                }
+                Map.Entry<Long, String> entry = iterator.next();
+                iterator.remove();
+                trackId = entry.getKey();
+                path = entry.getValue();
+                prefetchingTrackId = trackId;
+            }
+            try {
+                loadPeaks(trackId, path);
+            } finally {
+                synchronized (pendingPrefetches) {
+                    prefetchingTrackId = -1;
+                    if (pendingPrefetches.isEmpty()) {
+                        prefetchQueued = false;
+                    } else {
+                        executor.execute(prefetchNext);
+                    }
+                }
+            }
+        }
+    };
+
+    /*Executor only*/
+    private ShortBuffer loadPeaks(long trackId, String path) {
+        if (cache == null) {
+            return null;
+        }
+        long lastModified = new File(path).lastModified();
+        ShortBuffer cached = cache.get(trackId, lastModified);
+        if (cached != null || lastModified == 0) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        try {
+            PcmSource source = new MediaCodecSource(path);
+            try {
+                extractor.extract(source, BUCKET_COUNT, peaks);
+            } finally {
+                source.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not decode " + path, e);
+            return null;
+        }
+        cache.put(trackId, lastModified, peaks);
+        cache.flush();
+        Log.d(TAG, "Peaks of " + trackId + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return cache.get(trackId, lastModified);
+    }
+}
@@ -0,0 +1,94 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.IOException;
+
+/**
+ * Reduces a PcmSource to a fixed number of (min, max) buckets over all channels, for drawing a waveform.
+ * The length of the track isn't needed up front: the source is first reduced to blocks of
+ * BLOCK_FRAMES frames, which are then merged into the buckets.
+ */
+
+public class WaveformPeaks {
+
+    private static final int BLOCK_FRAMES = 256;
+    private static final int BUFFER_SAMPLES = 8192;
+
+    /*Reused from track to track, one extractor per thread*/
+    private final short[] buffer = new short[BUFFER_SAMPLES];
+    private short[] blockMins = new short[4096];
+    private short[] blockMaxs = new short[4096];
+
+    /*Fills peaks with bucketCount pairs of (min, max), zeros for an empty source*/
+    public void extract(PcmSource source, int bucketCount, short[] peaks) throws IOException {
+        if (peaks.length < bucketCount * 2) {
+            throw new IllegalArgumentException("Room for " + peaks.length / 2 + " buckets, need " + bucketCount);
+        }
+        int channels = source.getChannelCount();
+        if (channels <= 0) {
+            throw new IOException("Bad channel count " + channels);
+        }
+        int blockSamples = BLOCK_FRAMES * channels;
+        int blockCount = 0;
+        int inBlock = 0;
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+
+        int count;
+        while ((count = source.read(buffer, 0, buffer.length)) >= 0) {
+            for (int i = 0; i < count; i++) {
+                short sample = buffer[i];
+                if (sample < min) {
+                    min = sample;
+                }
+                if (sample > max) {
+                    max = sample;
+                }
+                if (++inBlock == blockSamples) {
+                    addBlock(blockCount++, min, max);
+                    inBlock = 0;
+                    min = Short.MAX_VALUE;
+                    max = Short.MIN_VALUE;
+                }
+            }
+        }
+        if (inBlock > 0) {
+            addBlock(blockCount++, min, max);
+        }
+
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            if (blockCount == 0) {
+                peaks[2 * bucket] = 0;
+                peaks[2 * bucket + 1] = 0;
+                continue;
+            }
+            /*Shorter tracks than buckets repeat blocks*/
+            int first = (int) ((long) bucket * blockCount / bucketCount);
+            int end = Math.max(first + 1, (int) ((long) (bucket + 1) * blockCount / bucketCount));
+            short bucketMin = blockMins[first];
+            short bucketMax = blockMaxs[first];
+            for (int block = first + 1; block < end; block++) {
+                if (blockMins[block] < bucketMin) {
+                    bucketMin = blockMins[block];
+                }
+                if (blockMaxs[block] > bucketMax) {
+                    bucketMax = blockMaxs[block];
+                }
+            }
+            peaks[2 * bucket] = bucketMin;
+            peaks[2 * bucket + 1] = bucketMax;
+        }
+    }
+
+    private void addBlock(int index, short min, short max) {
+        if (index == blockMins.length) {
+            short[] mins = new short[index * 2];
+            short[] maxs = new short[index * 2];
+            System.arraycopy(blockMins, 0, mins, 0, index);
+            System.arraycopy(blockMaxs, 0, maxs, 0, index);
+            blockMins = mins;
+            blockMaxs = maxs;
+        }
+        blockMins[index] = min;
+        blockMaxs[index] = max;
+    }
+}
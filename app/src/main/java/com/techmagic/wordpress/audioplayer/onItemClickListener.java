@@ -8,4 +8,6 @@ import android.view.View;
 
 public interface onItemClickListener {
     public void onClick(View view, int index);
+
+    public void onLongClick(View view, int index);
 }
@@ -0,0 +1,95 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that album art is resolved with O(albums) queries instead of one query per track.
+ */
+public class AlbumArtResolverTest {
+
+    private static class CountingQuery implements AlbumArtResolver.AlbumQuery {
+        int queries = 0;
+        int albumsQueried = 0;
+
+        @Override
+        public Map<Long, String> query(long[] albumIds) {
+            queries++;
+            albumsQueried += albumIds.length;
+            Map<Long, String> result = new HashMap<>();
+            for (long albumId : albumIds) {
+                /*Every odd album has no art*/
+                if (albumId % 2 == 0) {
+                    result.put(albumId, "/art/" + albumId + ".jpg");
+                }
+            }
+            return result;
+        }
+    }
+
+    private static long[] tracks(int trackCount, int albumCount) {
+        long[] albumIds = new long[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            albumIds[i] = i % albumCount;
+        }
+        return albumIds;
+    }
+
+    @Test
+    public void queryCount_dependsOnAlbumsNotTracks() throws Exception {
+        CountingQuery query = new CountingQuery();
+        AlbumArtResolver resolver = new AlbumArtResolver(query);
+
+        resolver.prefetch(tracks(40000, 20));
+
+        assertEquals(1, query.queries);
+        assertEquals(20, query.albumsQueried);
+    }
+
+    @Test
+    public void pagedPrefetch_queriesEveryAlbumOnce() throws Exception {
+        CountingQuery query = new CountingQuery();
+        AlbumArtResolver resolver = new AlbumArtResolver(query);
+        long[] albumIds = tracks(40000, 1200);
+
+        /*Feed the resolver the way AudioScanner does, one page at a time*/
+        for (int start = 0; start < albumIds.length; start += 500) {
+            long[] page = new long[500];
+            System.arraycopy(albumIds, start, page, 0, 500);
+            resolver.prefetch(page);
+        }
+        for (long albumId : albumIds) {
+            resolver.getArtPath(albumId);
+        }
+
+        assertEquals(1200, query.albumsQueried);
+        assertTrue(query.queries <= 1200 / AlbumArtResolver.MAX_BATCH_SIZE + 3);
+    }
+
+    @Test
+    public void largePrefetch_isSplitIntoBoundedBatches() throws Exception {
+        CountingQuery query = new CountingQuery();
+        AlbumArtResolver resolver = new AlbumArtResolver(query);
+
+        resolver.prefetch(tracks(5000, 1201));
+
+        assertEquals(3, query.queries);
+        assertEquals(1201, query.albumsQueried);
+    }
+
+    @Test
+    public void albumsWithoutArt_areNotQueriedAgain() throws Exception {
+        CountingQuery query = new CountingQuery();
+        AlbumArtResolver resolver = new AlbumArtResolver(query);
+
+        assertEquals("/art/2.jpg", resolver.getArtPath(2));
+        assertNull(resolver.getArtPath(3));
+        assertNull(resolver.getArtPath(3));
+
+        assertEquals(2, query.queries);
+    }
+}
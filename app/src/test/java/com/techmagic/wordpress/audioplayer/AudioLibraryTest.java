@@ -0,0 +1,156 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the columnar library store: the columns read back, pages and snapshots, and the pooled
+ * names and packed text of a large library.
+ */
+public class AudioLibraryTest {
+
+    private static final int TRACKS = 100000;
+    private static final int ALBUMS = 8000;
+    private static final int ARTISTS = 2000;
+
+    @Test
+    public void add_readsBackEveryColumn() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        library.add(7, "/music/a.mp3", "First", "Album", "Artist", 3);
+        library.add(9, "/music/b.mp3", "Second", null, "Artist", 4);
+
+        assertEquals(2, library.size());
+        assertEquals(9, library.getId(1));
+        assertEquals("/music/a.mp3", library.getData(0));
+        assertEquals("Second", library.getTitle(1));
+        assertNull(library.getAlbum(1));
+        assertSame(library.getArtist(0), library.getArtist(1));
+        assertEquals(4, library.getAlbumId(1));
+        assertEquals("First", new String(library.getChars(), library.getTitleStart(0), library.getTitleLength(0)));
+    }
+
+    @Test
+    public void addAll_appendsPages() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        for (int page = 0; page < 10; page++) {
+            AudioLibrary rows = new AudioLibrary();
+            for (int i = 0; i < 100; i++) {
+                int id = page * 100 + i;
+                rows.add(id, "/music/" + id + ".mp3", "Title " + id, "Album " + (id % 7), "Artist " + (id % 3), id % 7);
+            }
+            library.addAll(rows);
+        }
+
+        assertEquals(1000, library.size());
+        for (int id = 0; id < 1000; id++) {
+            assertEquals(id, library.getId(id));
+            assertEquals("Title " + id, library.getTitle(id));
+            assertEquals("/music/" + id + ".mp3", library.getData(id));
+            assertEquals("Album " + (id % 7), library.getAlbum(id));
+            assertEquals("Artist " + (id % 3), library.getArtist(id));
+        }
+    }
+
+    @Test
+    public void charsHandedOut_surviveGrowth() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        library.add(0, "/music/0.mp3", "Kept", null, null, 0);
+        char[] chars = library.getChars();
+        for (int i = 1; i < 10000; i++) {
+            library.add(i, "/music/" + i + ".mp3", "Title " + i, null, null, 0);
+        }
+
+        assertNotSame(chars, library.getChars());
+        assertEquals("Kept", new String(chars, library.getTitleStart(0), library.getTitleLength(0)));
+    }
+
+    @Test
+    public void snapshot_sharesThePoolAndKeepsItsRowsWhileTheSourceGrows() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        library.add(0, "/music/0.mp3", "First", "Album 0", "Artist", 0);
+        AudioLibrary snapshot = library.snapshot();
+        for (int i = 1; i < 1000; i++) {
+            /*Enough new albums to grow the pool array*/
+            library.add(i, "/music/" + i + ".mp3", "Title " + i, "Album " + i, "Artist", i);
+        }
+
+        assertEquals(1, snapshot.size());
+        assertSame(library.getAlbum(0), snapshot.getAlbum(0));
+        assertSame(library.getArtist(999), snapshot.getArtist(0));
+        assertSame(snapshot, snapshot.snapshot());
+        try {
+            snapshot.add(5, "/music/5.mp3", "Five", "Album 5", null, 5);
+            fail("Added to a snapshot");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void writeColumns_readsBackWithNothingAfterThem() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        for (int i = 0; i < 10; i++) {
+            library.add(i, "/" + i, "" + i, null, null, i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        library.writeColumns(out);
+        out.flush();
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        AudioLibrary read = AudioLibrary.readColumns(in);
+
+        assertEquals(0, in.remaining());
+        assertEquals(10, read.size());
+        assertEquals(9, read.getId(9));
+        assertEquals("/9", read.getData(9));
+        assertNull(read.getArtist(9));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfRange() throws Exception {
+        new AudioLibrary().getTitle(0);
+    }
+
+    /*Names repeated across 100k tracks are kept once, the text of every track is packed into one buffer*/
+    @Test
+    public void largeLibrary_poolsNamesAndPacksText() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        long textLength = 0;
+        for (int i = 0; i < TRACKS; i++) {
+            /*Cursor.getString returns a new String for every row, album and artist included*/
+            library.add(i, path(i), title(i), new String(album(i)), new String(artist(i)), i % ALBUMS);
+            textLength += path(i).length() + title(i).length();
+        }
+
+        assertEquals(TRACKS, library.size());
+        assertEquals(ALBUMS + ARTISTS, library.getPooledStringCount());
+        for (int i = ALBUMS; i < TRACKS; i += 997) {
+            assertSame(library.getAlbum(i % ALBUMS), library.getAlbum(i));
+            assertSame(library.getArtist(i % ARTISTS), library.getArtist(i));
+        }
+        assertEquals(textLength, library.getCharCount());
+        /*Grown by doubling, never more than twice what it holds*/
+        assertTrue(library.getChars().length < 2 * textLength);
+    }
+
+    private static String path(int i) {
+        return "/storage/emulated/0/Music/Artist " + (i % ARTISTS) + "/Album " + (i % ALBUMS) + "/" + i + ".mp3";
+    }
+
+    private static String title(int i) {
+        return "Track number " + i;
+    }
+
+    private static String album(int i) {
+        return "Album " + (i % ALBUMS);
+    }
+
+    private static String artist(int i) {
+        return "Artist " + (i % ARTISTS);
+    }
+}
@@ -0,0 +1,79 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the histogram buckets and the percentiles read from them.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverTheirValues() {
+        for (long value = 0; value < 1L << 20; value += 7) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50050, histogram.getMean());
+        assertWithin(50000, histogram.getPercentile(50));
+        assertWithin(95000, histogram.getPercentile(95));
+        assertWithin(99000, histogram.getPercentile(99));
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1234);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void playbackLatency_measuresStagesOfATap() {
+        PlaybackLatency latency = new PlaybackLatency();
+        long ms = 1000000;
+        latency.stamp(PlaybackLatency.TAP, 0);
+        latency.stamp(PlaybackLatency.PLAY_AUDIO, 2 * ms);
+        latency.stamp(PlaybackLatency.SERVICE, 5 * ms);
+        latency.stamp(PlaybackLatency.PLAYER_SWITCH, 6 * ms);
+        /*Repeated stage is ignored*/
+        latency.stamp(PlaybackLatency.PLAYER_SWITCH, 7 * ms);
+        latency.stamp(PlaybackLatency.STARTED, 40 * ms);
+        /*No tap is being traced, an auto advance doesn't count*/
+        latency.stamp(PlaybackLatency.PLAYER_SWITCH, 50 * ms);
+
+        assertEquals(2000, latency.getStage(PlaybackLatency.PLAY_AUDIO).getMax());
+        assertEquals(3000, latency.getStage(PlaybackLatency.SERVICE).getMax());
+        assertEquals(1, latency.getStage(PlaybackLatency.PLAYER_SWITCH).getCount());
+        assertEquals(0, latency.getStage(PlaybackLatency.PREPARE).getCount());
+        /*Skipped stage, measured from the last stamped one*/
+        assertEquals(34000, latency.getStage(PlaybackLatency.STARTED).getMax());
+        assertEquals(40000, latency.getTotal().getMax());
+        assertTrue(latency.report().contains("tap to audio: n=1"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
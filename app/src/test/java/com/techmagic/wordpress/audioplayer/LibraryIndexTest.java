@@ -0,0 +1,120 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the delta between a LibraryIndex and the MediaStore markers and how it's applied.
+ */
+public class LibraryIndexTest {
+
+    private static AudioLibrary library(int... ids) {
+        AudioLibrary library = new AudioLibrary();
+        for (int id : ids) {
+            add(library, id, "Title " + id);
+        }
+        return library;
+    }
+
+    private static void add(AudioLibrary library, int id, String title) {
+        library.add(id, "/music/" + id + ".mp3", title, "Album", "Artist", id / 10);
+    }
+
+    private static LibraryIndex index(int... ids) {
+        long[] modified = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            modified[i] = 100;
+        }
+        return LibraryIndex.create(library(ids), ids, modified);
+    }
+
+    @Test
+    public void unchangedLibrary_hasAnEmptyDelta() {
+        LibraryIndex index = index(1, 2, 3);
+
+        assertTrue(index.diff(new int[]{1, 2, 3}, new long[]{100, 100, 100}).isEmpty());
+    }
+
+    @Test
+    public void diff_findsInsertedUpdatedAndDeletedTracks() {
+        LibraryIndex index = index(1, 2, 3);
+
+        LibraryIndex.Delta delta = index.diff(new int[]{1, 3, 4}, new long[]{100, 200, 100});
+
+        assertArrayEquals(new int[]{2}, delta.getDeletedIds());
+        assertArrayEquals(new int[]{3, 4}, delta.getChangedIds());
+    }
+
+    @Test
+    public void apply_producesTheNewLibraryAndItsPositionChanges() {
+        LibraryIndex index = index(10, 20, 30);
+        LibraryIndex.Delta delta = index.diff(new int[]{10, 30, 40}, new long[]{100, 200, 300});
+        AudioLibrary rows = new AudioLibrary();
+        add(rows, 30, "Title 30 remastered");
+        /*Sorts between Title 10 and Title 30*/
+        add(rows, 40, "Title 15");
+
+        LibraryIndex.Update update = index.apply(delta, rows);
+
+        AudioLibrary merged = update.getIndex().getLibrary();
+        assertEquals(3, merged.size());
+        assertEquals(10, merged.getId(0));
+        assertEquals(40, merged.getId(1));
+        assertEquals(30, merged.getId(2));
+        assertEquals("Title 30 remastered", merged.getTitle(2));
+        assertEquals(300, update.getIndex().getDateModified(1));
+        assertEquals(200, update.getIndex().getDateModified(2));
+
+        /*Replaying the changes on the old list must end with the new one*/
+        final List<Integer> list = new ArrayList<>();
+        list.add(10);
+        list.add(20);
+        list.add(30);
+        final List<Integer> changed = new ArrayList<>();
+        update.dispatch(new PositionChanges.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    list.add(position + i, -1);
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    list.remove(position);
+                }
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    changed.add(list.get(position + i));
+                }
+            }
+        });
+        assertEquals(3, list.size());
+        assertEquals(10, (int) list.get(0));
+        assertEquals(-1, (int) list.get(1));
+        assertEquals(30, (int) list.get(2));
+        assertEquals(1, changed.size());
+        assertEquals(30, (int) changed.get(0));
+        assertTrue(update.getIndex().diff(new int[]{10, 30, 40}, new long[]{100, 200, 300}).isEmpty());
+    }
+
+    @Test
+    public void changedTrackMissingFromTheRows_isRemoved() {
+        LibraryIndex index = index(1, 2);
+        LibraryIndex.Delta delta = index.diff(new int[]{1, 2}, new long[]{100, 200});
+
+        LibraryIndex.Update update = index.apply(delta, new AudioLibrary());
+
+        assertEquals(1, update.getIndex().size());
+        assertEquals(1, update.getIndex().getLibrary().getId(0));
+        assertEquals(1, update.getRangeCount());
+    }
+}
@@ -0,0 +1,188 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes LibrarySnapshot files and reads them back: the tracks, markers and album art, an index that
+ * keeps working after the read, and files that are not snapshots or were cut short.
+ */
+public class LibrarySnapshotTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("library", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static LibraryIndex index(AudioLibrary library) {
+        int[] ids = new int[library.size()];
+        long[] modified = new long[library.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = library.getId(i);
+            modified[i] = 1000 + i;
+        }
+        return LibraryIndex.create(library, ids, modified);
+    }
+
+    private static AudioLibrary sample() {
+        AudioLibrary library = new AudioLibrary();
+        library.add(7, "/music/a.mp3", "Caf\u00e9 \u4e2d\u6587", "Album", "Artist", 70);
+        library.add(3, "/music/b.mp3", "", null, null, 30);
+        library.add(12, "/music/c.mp3", "Third", "Album", "Other artist", 70);
+        return library;
+    }
+
+    private static void assertSameTracks(AudioLibrary expected, AudioLibrary actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertEquals(expected.getAlbumId(i), actual.getAlbumId(i));
+            assertEquals(expected.getTitle(i), actual.getTitle(i));
+            assertEquals(expected.getData(i), actual.getData(i));
+            assertEquals(expected.getAlbum(i), actual.getAlbum(i));
+            assertEquals(expected.getArtist(i), actual.getArtist(i));
+        }
+    }
+
+    @Test
+    public void readBack_givesTheTracksMarkersAndArt() throws Exception {
+        AudioLibrary library = sample();
+        Map<Long, String> art = new HashMap<>();
+        art.put(70L, "/albumthumbs/70.jpg");
+        art.put(30L, null);
+        LibrarySnapshot.write(file, index(library), art);
+
+        LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+        assertSameTracks(library, snapshot.getIndex().getLibrary());
+        for (int i = 0; i < library.size(); i++) {
+            assertEquals(1000 + i, snapshot.getIndex().getDateModified(i));
+        }
+        Map<Long, String> readArt = new HashMap<>();
+        for (int i = 0; i < snapshot.getArtAlbumIds().length; i++) {
+            readArt.put(snapshot.getArtAlbumIds()[i], snapshot.getArtPaths()[i]);
+        }
+        assertEquals(art, readArt);
+    }
+
+    @Test
+    public void write_thatFailsKeepsTheOldSnapshotAndNoTemporaryFile() throws Exception {
+        LibrarySnapshot.write(file, index(sample()), new HashMap<Long, String>());
+        /*A null album id fails the write after the columns*/
+        Map<Long, String> art = new HashMap<>();
+        art.put(null, "/albumthumbs/broken.jpg");
+        try {
+            LibrarySnapshot.write(file, index(sample()), art);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertSameTracks(sample(), LibrarySnapshot.read(file).getIndex().getLibrary());
+    }
+
+    @Test
+    public void readBack_ofAnEmptyLibrary() throws Exception {
+        LibrarySnapshot.write(file, index(new AudioLibrary()), new HashMap<Long, String>());
+
+        LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+        assertEquals(0, snapshot.getIndex().size());
+        assertEquals(0, snapshot.getArtAlbumIds().length);
+    }
+
+    @Test
+    public void readBack_ofALargeLibrary() throws Exception {
+        AudioLibrary library = new AudioLibrary();
+        for (int i = 0; i < 40000; i++) {
+            int album = i / 10;
+            library.add(i, "/storage/emulated/0/Music/Artist " + album / 4 + "/Album " + album + "/" + i + ".mp3",
+                    "Track " + i, "Album " + album, "Artist " + album / 4, album);
+        }
+        LibrarySnapshot.write(file, index(library), new HashMap<Long, String>());
+
+        LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+        assertSameTracks(library, snapshot.getIndex().getLibrary());
+    }
+
+    @Test
+    public void readIndex_keepsDiffingAndApplying() throws Exception {
+        LibrarySnapshot.write(file, index(sample()), new HashMap<Long, String>());
+        LibraryIndex index = LibrarySnapshot.read(file).getIndex();
+
+        /*3 deleted, 12 modified*/
+        LibraryIndex.Delta delta = index.diff(new int[]{7, 12}, new long[]{1000, 5000});
+        assertArrayEquals(new int[]{3}, delta.getDeletedIds());
+        assertArrayEquals(new int[]{12}, delta.getChangedIds());
+        AudioLibrary rows = new AudioLibrary();
+        rows.add(12, "/music/c.mp3", "Third again", "Album", "Other artist", 70);
+        LibraryIndex updated = index.apply(delta, rows).getIndex();
+        assertEquals(2, updated.size());
+        assertEquals("Third again", updated.getLibrary().getTitle(1));
+        assertEquals(5000, updated.getDateModified(1));
+    }
+
+    @Test
+    public void readLibrary_canGrow() throws Exception {
+        LibrarySnapshot.write(file, index(sample()), new HashMap<Long, String>());
+        AudioLibrary read = AudioLibrary.readColumns(readAll(file, 8));
+
+        read.add(20, "/music/d.mp3", "Fourth", "Album", "Artist", 70);
+        assertEquals(4, read.size());
+        assertEquals("Fourth", read.getTitle(3));
+        assertEquals("Artist", read.getArtist(3));
+        assertEquals("Caf\u00e9 \u4e2d\u6587", read.getTitle(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        PlaylistFile.write(file, sample());
+        LibrarySnapshot.read(file);
+    }
+
+    @Test
+    public void read_rejectsTruncatedFiles() throws Exception {
+        Map<Long, String> art = new HashMap<>();
+        art.put(70L, "/albumthumbs/70.jpg");
+        LibrarySnapshot.write(file, index(sample()), art);
+        long length = file.length();
+        for (long cut = length - 1; cut > 0; cut -= 7) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(cut);
+            randomAccessFile.close();
+            try {
+                LibrarySnapshot.read(file);
+                fail("Read a snapshot cut at " + cut + " of " + length);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static ByteBuffer readAll(File file, int skip) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.position(skip);
+            return buffer;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
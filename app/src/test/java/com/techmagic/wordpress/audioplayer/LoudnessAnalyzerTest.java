@@ -0,0 +1,130 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the LoudnessAnalyzer against the reference levels of BS.1770 and the gain of Loudness.
+ */
+public class LoudnessAnalyzerTest {
+
+    /*seconds of a sine followed by silentSeconds of silence*/
+    static class SineSource implements PcmSource {
+
+        private final int sampleRate;
+        private final int channels;
+        private final double frequency;
+        private final double amplitude;
+        private final int toneFrames;
+        private final int totalFrames;
+        private int frame = 0;
+        private int channel = 0;
+
+        SineSource(int sampleRate, int channels, double frequency, double amplitude, double seconds, double silentSeconds) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.frequency = frequency;
+            this.amplitude = amplitude;
+            this.toneFrames = (int) (seconds * sampleRate);
+            this.totalFrames = toneFrames + (int) (silentSeconds * sampleRate);
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return channels;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int count) {
+            if (frame == totalFrames) {
+                return -1;
+            }
+            int read = 0;
+            while (read < count && frame < totalFrames) {
+                double value = frame < toneFrames ? amplitude * Math.sin(2 * Math.PI * frequency * frame / sampleRate) : 0;
+                buffer[offset + read++] = (short) Math.round(value * 32767);
+                if (++channel == channels) {
+                    channel = 0;
+                    frame++;
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Loudness analyze(SineSource source) throws Exception {
+        return new LoudnessAnalyzer().analyze(source);
+    }
+
+    @Test
+    public void fullScaleSine_isMinus3LufsOnOneChannel() throws Exception {
+        Loudness loudness = analyze(new SineSource(48000, 1, 997, 1, 5, 0));
+        assertEquals(-3.01, loudness.getIntegrated(), 0.1);
+        assertEquals(1, loudness.getPeak(), 0.001);
+    }
+
+    @Test
+    public void sineOnBothChannels_isLouderBy3Lu() throws Exception {
+        Loudness mono = analyze(new SineSource(48000, 1, 997, 0.5, 5, 0));
+        Loudness stereo = analyze(new SineSource(48000, 2, 997, 0.5, 5, 0));
+        assertEquals(mono.getIntegrated() + 3.01, stereo.getIntegrated(), 0.05);
+    }
+
+    @Test
+    public void halfTheAmplitude_isQuieterBy6Lu() throws Exception {
+        Loudness full = analyze(new SineSource(44100, 2, 997, 0.8, 5, 0));
+        Loudness half = analyze(new SineSource(44100, 2, 997, 0.4, 5, 0));
+        assertEquals(full.getIntegrated() - 6.02, half.getIntegrated(), 0.05);
+    }
+
+    @Test
+    public void sampleRate_doesNotChangeTheResult() throws Exception {
+        Loudness at44 = analyze(new SineSource(44100, 2, 997, 0.5, 5, 0));
+        Loudness at48 = analyze(new SineSource(48000, 2, 997, 0.5, 5, 0));
+        assertEquals(at48.getIntegrated(), at44.getIntegrated(), 0.05);
+    }
+
+    @Test
+    public void silence_isGatedOut() throws Exception {
+        Loudness tone = analyze(new SineSource(44100, 2, 997, 0.5, 5, 0));
+        Loudness withSilence = analyze(new SineSource(44100, 2, 997, 0.5, 5, 10));
+        /*Only the blocks over the end of the tone, partly silent, pass the gates*/
+        assertEquals(tone.getIntegrated(), withSilence.getIntegrated(), 0.2);
+
+        Loudness silent = analyze(new SineSource(44100, 2, 997, 0, 0, 5));
+        assertTrue(Double.isInfinite(silent.getIntegrated()));
+        assertEquals(1f, silent.gain(Loudness.REFERENCE_LUFS), 0f);
+    }
+
+    @Test
+    public void lowFrequencies_areWeightedDown() throws Exception {
+        Loudness mid = analyze(new SineSource(48000, 2, 997, 0.5, 5, 0));
+        Loudness low = analyze(new SineSource(48000, 2, 20, 0.5, 5, 0));
+        assertTrue(low.getIntegrated() < mid.getIntegrated() - 10);
+    }
+
+    @Test
+    public void gain_attenuatesLoudTracksAndNeverAmplifies() {
+        assertEquals(Math.pow(10, -0.5), new Loudness(-8, 0.5f).gain(-18), 0.0001);
+        assertEquals(1f, new Loudness(-30, 0.1f).gain(-18), 0f);
+        assertEquals(1f, new Loudness(-18, 1f).gain(-18), 0.0001);
+    }
+
+    @Test
+    public void gain_keepsThePeakUnderFullScale() {
+        /*Would need +2 dB, a peak of 0.5 allows at most 2x but the volume stops at 1*/
+        assertEquals(1f, new Loudness(-20, 0.5f).gain(-18), 0f);
+        /*A target above the track with a peak over full scale is cut to the peak*/
+        assertEquals(1 / 1.25f, new Loudness(-20, 1.25f).gain(-10), 0.0001);
+    }
+}
@@ -0,0 +1,156 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scans WAV files with the LoudnessScanner and checks that the LoudnessCache analyzes each once.
+ */
+public class LoudnessScannerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private File dir;
+    private LoudnessCache cache;
+    private LoudnessScanner scanner;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("loudness", "");
+        dir.delete();
+        dir.mkdir();
+        cache = new LoudnessCache();
+        scanner = new LoudnessScanner(cache, new LoudnessScanner.SourceFactory() {
+            @Override
+            public PcmSource open(String path) throws IOException {
+                return new WavSource(new File(path));
+            }
+        }, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scanner.shutdown();
+        File[] files = dir.listFiles();
+        for (File file : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /*Two seconds of a stereo 997Hz sine*/
+    static void writeSineWav(File file, double amplitude) throws IOException {
+        LoudnessAnalyzerTest.SineSource source = new LoudnessAnalyzerTest.SineSource(SAMPLE_RATE, 2, 997, amplitude, 2, 0);
+        WavFiles.write(file, SAMPLE_RATE, 2, WavFiles.read(source, SAMPLE_RATE * 2 * 2));
+    }
+
+    private List<String> writeTracks(int count) throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File file = new File(dir, "track" + i + ".wav");
+            writeSineWav(file, 0.1 + 0.05 * i);
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void scan_analyzesEveryTrackOnce() throws Exception {
+        List<String> paths = writeTracks(12);
+        assertEquals(12, scanner.scan(paths));
+        assertEquals(12, cache.size());
+        assertEquals(0, scanner.scan(paths));
+
+        /*Louder tracks measure louder*/
+        double previous = Double.NEGATIVE_INFINITY;
+        for (String path : paths) {
+            double integrated = cache.get(path).getIntegrated();
+            assertTrue(integrated > previous);
+            previous = integrated;
+        }
+    }
+
+    @Test
+    public void scan_analyzesTheTracksInQueueOrder() throws Exception {
+        List<String> paths = writeTracks(16);
+        final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+        LoudnessScanner single = new LoudnessScanner(cache, new LoudnessScanner.SourceFactory() {
+            @Override
+            public PcmSource open(String path) throws IOException {
+                opened.add(path);
+                return new WavSource(new File(path));
+            }
+        }, 1);
+        try {
+            assertEquals(16, single.scan(paths));
+        } finally {
+            single.shutdown();
+        }
+        assertEquals(paths, opened);
+    }
+
+    @Test
+    public void scan_analyzesAModifiedTrackAgain() throws Exception {
+        List<String> paths = writeTracks(3);
+        scanner.scan(paths);
+        File file = new File(paths.get(1));
+        double before = cache.get(paths.get(1)).getIntegrated();
+        writeSineWav(file, 0.9);
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+
+        assertEquals(1, scanner.scan(paths));
+        assertTrue(cache.get(paths.get(1)).getIntegrated() > before + 10);
+    }
+
+    @Test
+    public void scan_skipsFilesItCannotDecode() throws Exception {
+        List<String> paths = writeTracks(2);
+        File broken = new File(dir, "broken.wav");
+        FileOutputStream out = new FileOutputStream(broken);
+        out.write(new byte[100]);
+        out.close();
+        paths.add(broken.getPath());
+        paths.add(new File(dir, "missing.wav").getPath());
+
+        assertEquals(2, scanner.scan(paths));
+        assertNull(cache.get(broken.getPath()));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cache_survivesSaveAndLoad() throws Exception {
+        List<String> paths = writeTracks(4);
+        scanner.scan(paths);
+        assertTrue(cache.isModified());
+        File file = new File(dir, "loudness.bin");
+        cache.save(file);
+        assertFalse(cache.isModified());
+
+        LoudnessCache loaded = new LoudnessCache();
+        loaded.load(file);
+        assertEquals(4, loaded.size());
+        for (String path : paths) {
+            long lastModified = new File(path).lastModified();
+            assertEquals(cache.get(path).getIntegrated(), loaded.get(path, lastModified).getIntegrated(), 0);
+            assertEquals(cache.get(path).getPeak(), loaded.get(path, lastModified).getPeak(), 0);
+            assertNull(loaded.get(path, lastModified + 1));
+        }
+    }
+
+    @Test
+    public void shutdown_endsTheScan() throws Exception {
+        List<String> paths = writeTracks(2);
+        scanner.shutdown();
+        assertEquals(0, scanner.scan(paths));
+    }
+}
@@ -0,0 +1,205 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * Plays generated WAV files through a PcmPipeline into a NullSink and checks the counters.
+ */
+public class PcmPipelineTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("pcm", ".wav");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    /*A 16 bit WAV whose sample i is (short) i, with a LIST chunk before the data*/
+    static void writeWav(File file, int samples, int sampleRate, int channels) throws IOException {
+        short[] ramp = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            ramp[i] = (short) i;
+        }
+        WavFiles.write(file, sampleRate, channels, ramp, true);
+    }
+
+    @Test
+    public void wavSource_readsTheHeaderAndTheSamples() throws Exception {
+        writeWav(file, 10000, SAMPLE_RATE, CHANNELS);
+        WavSource source = new WavSource(file);
+        try {
+            assertEquals(SAMPLE_RATE, source.getSampleRate());
+            assertEquals(CHANNELS, source.getChannelCount());
+            short[] buffer = new short[3000];
+            int total = 0;
+            int count;
+            while ((count = source.read(buffer, 0, buffer.length)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    assertEquals((short) (total + i), buffer[i]);
+                }
+                total += count;
+            }
+            assertEquals(10000, total);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void wavSource_rejectsOtherFiles() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("ID3 not a wav file at all".getBytes("US-ASCII"));
+        out.close();
+        new WavSource(file);
+    }
+
+    @Test
+    public void pipeline_writesEverySampleToTheSink() throws Exception {
+        /*Ten seconds of stereo*/
+        int samples = SAMPLE_RATE * CHANNELS * 10;
+        writeWav(file, samples, SAMPLE_RATE, CHANNELS);
+        final boolean[] completed = new boolean[1];
+        NullSink sink = new NullSink();
+        PcmPipeline pipeline = new PcmPipeline(new WavSource(file), sink, 16384, 1024);
+        pipeline.setListener(new PcmPipeline.Listener() {
+            @Override
+            public void onCompletion(PcmPipeline pipeline) {
+                completed[0] = true;
+            }
+
+            @Override
+            public void onError(PcmPipeline pipeline, IOException e) {
+                fail(e.toString());
+            }
+        });
+        pipeline.start();
+        assertTrue(pipeline.awaitCompletion(10000));
+        pipeline.stop();
+
+        assertTrue(completed[0]);
+        assertEquals(samples, pipeline.getSamplesDecoded());
+        assertEquals(samples, pipeline.getSamplesWritten());
+        assertEquals(samples, sink.getSamplesWritten());
+        /*Far faster than real time without a device behind it*/
+        assertTrue(pipeline.getThroughput() > SAMPLE_RATE * CHANNELS);
+    }
+
+    @Test
+    public void pipeline_countsUnderrunsOfASlowSource() throws Exception {
+        PcmSource slow = new PcmSource() {
+            private int chunks = 0;
+
+            @Override
+            public int getSampleRate() {
+                return SAMPLE_RATE;
+            }
+
+            @Override
+            public int getChannelCount() {
+                return CHANNELS;
+            }
+
+            @Override
+            public int read(short[] buffer, int offset, int count) {
+                if (chunks == 5) {
+                    return -1;
+                }
+                if (chunks++ > 0) {
+                    /*Decoding slower than the sink drains*/
+                    LockSupport.parkNanos(20000000L);
+                }
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        PcmPipeline pipeline = new PcmPipeline(slow, new NullSink(), 4096, 512);
+        pipeline.start();
+        assertTrue(pipeline.awaitCompletion(10000));
+        pipeline.stop();
+
+        assertEquals(5 * 512, pipeline.getSamplesWritten());
+        /*One per gap between chunks, however often the output woke up in it*/
+        assertEquals(4, pipeline.getUnderruns());
+    }
+
+    @Test
+    public void pipeline_holdsTheOutputWhilePaused() throws Exception {
+        writeWav(file, SAMPLE_RATE * CHANNELS, SAMPLE_RATE, CHANNELS);
+        PcmPipeline pipeline = new PcmPipeline(new WavSource(file), new NullSink(true), 8192, 1024);
+        pipeline.start();
+        pipeline.pause();
+        Thread.sleep(100);
+        long written = pipeline.getSamplesWritten();
+        Thread.sleep(100);
+        assertEquals(written, pipeline.getSamplesWritten());
+        assertEquals(0, pipeline.getUnderruns());
+        pipeline.resume();
+        assertTrue(pipeline.awaitCompletion(5000));
+        pipeline.stop();
+        assertEquals(SAMPLE_RATE * CHANNELS, pipeline.getSamplesWritten());
+    }
+
+    @Test
+    public void stop_endsAPipelineWaitingOnAFullRing() throws Exception {
+        writeWav(file, SAMPLE_RATE * CHANNELS * 5, SAMPLE_RATE, CHANNELS);
+        PcmPipeline pipeline = new PcmPipeline(new WavSource(file), new NullSink(true), 4096, 1024);
+        pipeline.start();
+        Thread.sleep(50);
+        pipeline.stop();
+        assertTrue(pipeline.awaitCompletion(0));
+        assertTrue(pipeline.getSamplesWritten() < SAMPLE_RATE * CHANNELS * 5);
+    }
+
+    @Test
+    public void stop_afterAFailedStartReleasesTheSourceAndTheSink() throws Exception {
+        writeWav(file, 1024, SAMPLE_RATE, CHANNELS);
+        final boolean[] closed = new boolean[2];
+        PcmSource source = new WavSource(file) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        PcmSink sink = new NullSink() {
+            @Override
+            public void open(int sampleRate, int channelCount) {
+                throw new IllegalStateException("No audio device");
+            }
+
+            @Override
+            public void close() {
+                closed[1] = true;
+            }
+        };
+        PcmPipeline pipeline = new PcmPipeline(source, sink, 4096, 1024);
+        try {
+            pipeline.start();
+            fail("Started without a sink");
+        } catch (IllegalStateException expected) {
+        }
+        pipeline.stop();
+        assertTrue(closed[0]);
+        assertTrue(closed[1]);
+    }
+}
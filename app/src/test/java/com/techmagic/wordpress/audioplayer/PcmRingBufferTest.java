@@ -0,0 +1,113 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bounds and the wrap around of the PcmRingBuffer, and a transfer between two threads.
+ */
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacity_isRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new PcmRingBuffer(5).capacity());
+        assertEquals(8, new PcmRingBuffer(8).capacity());
+        assertEquals(1, new PcmRingBuffer(1).capacity());
+    }
+
+    @Test
+    public void write_stopsWhenFullAndReadStopsWhenEmpty() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] source = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(8, ring.write(source, 0, source.length));
+        assertEquals(0, ring.write(source, 8, 2));
+        assertEquals(0, ring.free());
+
+        short[] target = new short[10];
+        assertEquals(8, ring.read(target, 0, target.length));
+        assertEquals(0, ring.read(target, 0, target.length));
+        assertEquals(8, target[7]);
+        assertEquals(0, ring.available());
+    }
+
+    @Test
+    public void transfer_wrapsAroundTheEnd() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] chunk = new short[5];
+        short[] target = new short[5];
+        short next = 0;
+        short expected = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = next++;
+            }
+            assertEquals(5, ring.write(chunk, 0, 5));
+            assertEquals(5, ring.read(target, 0, 5));
+            for (short sample : target) {
+                assertEquals(expected++, sample);
+            }
+        }
+    }
+
+    @Test
+    public void clear_dropsTheSamples() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        ring.write(new short[]{1, 2, 3}, 0, 3);
+        ring.clear();
+        assertEquals(0, ring.available());
+        assertEquals(4, ring.free());
+    }
+
+    @Test
+    public void transfer_betweenTwoThreadsKeepsEverySampleInOrder() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(1024);
+        final int total = 4000000;
+        final short[] errors = new short[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] target = new short[300];
+                short expected = 0;
+                int received = 0;
+                while (received < total) {
+                    int count = ring.read(target, 0, target.length);
+                    for (int i = 0; i < count; i++) {
+                        if (target[i] != expected++) {
+                            errors[0]++;
+                        }
+                    }
+                    received += count;
+                    if (count == 0) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        short[] chunk = new short[333];
+        short next = 0;
+        int sent = 0;
+        while (sent < total) {
+            int length = Math.min(chunk.length, total - sent);
+            for (int i = 0; i < length; i++) {
+                chunk[i] = (short) (next + i);
+            }
+            int offset = 0;
+            while (offset < length) {
+                int written = ring.write(chunk, offset, length - offset);
+                if (written == 0) {
+                    Thread.yield();
+                }
+                offset += written;
+            }
+            next += length;
+            sent += length;
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertEquals(0, errors[0]);
+        assertEquals(0, ring.available());
+    }
+}
@@ -0,0 +1,337 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks navigation, shuffle rounds, repeat modes and edits of the PlayQueue, and its file format.
+ */
+public class PlayQueueTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("queue", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static List<Integer> listOrder(PlayQueue queue) {
+        List<Integer> items = new ArrayList<>();
+        for (int entry = queue.firstEntry(); entry != PlayQueue.NONE; entry = queue.nextEntry(entry)) {
+            items.add(queue.getItem(entry));
+        }
+        return items;
+    }
+
+    private static List<Integer> list(Integer... items) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    @Test
+    public void listOrder_completionStopsAtTheEndWithoutRepeat() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(3, 1);
+
+        assertEquals(2, queue.advance());
+        assertEquals(PlayQueue.NONE, queue.peekAdvance());
+        assertEquals(PlayQueue.NONE, queue.advance());
+        assertEquals(2, queue.getCurrentItem());
+    }
+
+    @Test
+    public void listOrder_skipsWrapAround() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(3, 2);
+
+        assertEquals(0, queue.peekNext());
+        assertEquals(0, queue.skipToNext());
+        assertEquals(2, queue.peekPrevious());
+        assertEquals(2, queue.skipToPrevious());
+        assertEquals(1, queue.skipToPrevious());
+    }
+
+    @Test
+    public void repeatAll_completionWrapsAround() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(3, 2);
+        queue.setRepeatMode(PlayQueue.REPEAT_ALL);
+
+        assertEquals(0, queue.peekAdvance());
+        assertEquals(0, queue.advance());
+    }
+
+    @Test
+    public void repeatOne_repeatsOnCompletionButSkipsMove() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(3, 1);
+        queue.setRepeatMode(PlayQueue.REPEAT_ONE);
+
+        assertEquals(1, queue.peekAdvance());
+        assertEquals(1, queue.advance());
+        assertEquals(2, queue.skipToNext());
+        assertEquals(2, queue.advance());
+    }
+
+    @Test
+    public void insertNext_playsAfterTheCurrentEntry() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(4, 1);
+
+        queue.insertNext(3);
+
+        assertEquals(list(0, 1, 3, 2, 3), listOrder(queue));
+        assertEquals(3, queue.skipToNext());
+        assertEquals(2, queue.skipToNext());
+        assertEquals(5, queue.size());
+    }
+
+    @Test
+    public void moveAfter_reordersTheList() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(4, 0);
+        int last = queue.find(3);
+
+        queue.moveAfter(last, PlayQueue.NONE);
+        assertEquals(list(3, 0, 1, 2), listOrder(queue));
+        queue.moveAfter(last, queue.find(1));
+        assertEquals(list(0, 1, 3, 2), listOrder(queue));
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void removedEntries_areReused() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(3, 0);
+
+        int removed = queue.find(1);
+        queue.remove(removed);
+        assertEquals(list(0, 2), listOrder(queue));
+        assertEquals(2, queue.skipToNext());
+
+        assertEquals(removed, queue.append(7));
+        assertEquals(list(0, 2, 7), listOrder(queue));
+    }
+
+    @Test
+    public void shuffle_playsEveryEntryOncePerRound() {
+        PlayQueue queue = new PlayQueue(new Random(42));
+        queue.reset(100, 0);
+        queue.setShuffle(true);
+
+        Set<Integer> played = new HashSet<>();
+        played.add(queue.getCurrentItem());
+        for (int item = queue.advance(); item != PlayQueue.NONE; item = queue.advance()) {
+            assertTrue("played twice: " + item, played.add(item));
+        }
+        assertEquals(100, played.size());
+    }
+
+    @Test
+    public void shuffle_previousAndNextReplayTheSameOrder() {
+        PlayQueue queue = new PlayQueue(new Random(7));
+        queue.reset(50, 0);
+        queue.setShuffle(true);
+
+        int[] forward = new int[10];
+        for (int i = 0; i < forward.length; i++) {
+            forward[i] = queue.skipToNext();
+        }
+        for (int i = forward.length - 2; i >= 0; i--) {
+            assertEquals(forward[i], queue.peekPrevious());
+            assertEquals(forward[i], queue.skipToPrevious());
+        }
+        assertEquals(0, queue.skipToPrevious());
+        assertEquals(PlayQueue.NONE, queue.skipToPrevious());
+        for (int i = 0; i < forward.length; i++) {
+            assertEquals(forward[i], queue.skipToNext());
+        }
+    }
+
+    @Test
+    public void shuffle_peekAdvanceIsWhatAdvancePlays() {
+        PlayQueue queue = new PlayQueue(new Random(3));
+        queue.reset(20, 5);
+        queue.setShuffle(true);
+
+        for (int i = 0; i < 19; i++) {
+            int peeked = queue.peekAdvance();
+            assertEquals(peeked, queue.peekAdvance());
+            assertEquals(peeked, queue.advance());
+        }
+        assertEquals(PlayQueue.NONE, queue.peekAdvance());
+    }
+
+    @Test
+    public void shuffle_repeatAllStartsANewRound() {
+        PlayQueue queue = new PlayQueue(new Random(11));
+        queue.reset(5, 0);
+        queue.setShuffle(true);
+        queue.setRepeatMode(PlayQueue.REPEAT_ALL);
+
+        for (int round = 0; round < 3; round++) {
+            Set<Integer> played = new HashSet<>();
+            for (int i = 0; i < 4; i++) {
+                played.add(queue.skipToNext());
+            }
+            assertEquals(4, played.size());
+        }
+    }
+
+    @Test
+    public void shuffle_insertNextIsDrawnNext() {
+        PlayQueue queue = new PlayQueue(new Random(5));
+        queue.reset(30, 0);
+        queue.setShuffle(true);
+        queue.skipToNext();
+        /*Drawn ahead for the gapless player, the inserted entry goes before it*/
+        queue.peekAdvance();
+
+        queue.insertNext(99);
+
+        assertEquals(99, queue.skipToNext());
+        Set<Integer> played = new HashSet<>();
+        for (int item = queue.advance(); item != PlayQueue.NONE; item = queue.advance()) {
+            assertTrue("played twice: " + item, played.add(item));
+        }
+        /*Everything but the three played is left for the rest of the round*/
+        assertEquals(28, played.size());
+    }
+
+    @Test
+    public void peekUpcoming_followsTheSkipOrder() {
+        PlayQueue queue = new PlayQueue();
+        queue.reset(4, 2);
+        int[] upcoming = new int[6];
+        /*Wraps around and stops before the current entry*/
+        assertEquals(3, queue.peekUpcoming(upcoming));
+        assertArrayEquals(new int[]{3, 0, 1}, Arrays.copyOf(upcoming, 3));
+
+        queue.setShuffle(true);
+        for (int i = 0; i < 3; i++) {
+            queue.skipToNext();
+        }
+        queue.skipToPrevious();
+        queue.skipToPrevious();
+        /*The next draw and the entries already drawn after it*/
+        assertEquals(2, queue.peekUpcoming(upcoming));
+        assertEquals(upcoming[0], queue.skipToNext());
+        assertEquals(upcoming[1], queue.skipToNext());
+    }
+
+    @Test
+    public void shuffle_removedEntriesAreSkipped() {
+        PlayQueue queue = new PlayQueue(new Random(13));
+        queue.reset(100, 0);
+        queue.setShuffle(true);
+        int[] forward = new int[60];
+        for (int i = 0; i < forward.length; i++) {
+            forward[i] = queue.skipToNext();
+        }
+        for (int i = 0; i < 30; i++) {
+            queue.skipToPrevious();
+        }
+
+        /*Enough removals to compact the history on the way*/
+        for (int i = 0; i < forward.length; i += 3) {
+            queue.remove(queue.find(forward[i]));
+        }
+
+        assertEquals(forward[29], queue.getCurrentItem());
+        assertEquals(forward[28], queue.skipToPrevious());
+        assertEquals(forward[26], queue.skipToPrevious());
+        assertEquals(forward[28], queue.skipToNext());
+        assertEquals(forward[29], queue.skipToNext());
+        assertEquals(forward[31], queue.skipToNext());
+        assertEquals(forward[32], queue.skipToNext());
+    }
+
+    @Test
+    public void saveAndLoad_restoresOrderAndShuffleRound() throws Exception {
+        PlayQueue queue = new PlayQueue(new Random(9));
+        queue.reset(40, 3);
+        queue.moveAfter(queue.find(10), PlayQueue.NONE);
+        queue.insertNext(77);
+        queue.setShuffle(true);
+        queue.setRepeatMode(PlayQueue.REPEAT_ONE);
+        int[] played = new int[5];
+        for (int i = 0; i < played.length; i++) {
+            played[i] = queue.skipToNext();
+        }
+        queue.skipToPrevious();
+
+        queue.save(file);
+        PlayQueue loaded = PlayQueue.load(file);
+
+        assertEquals(listOrder(queue), listOrder(loaded));
+        assertTrue(loaded.isShuffle());
+        assertEquals(PlayQueue.REPEAT_ONE, loaded.getRepeatMode());
+        assertEquals(queue.getCurrentItem(), loaded.getCurrentItem());
+        assertEquals(played[4], loaded.skipToNext());
+        for (int i = 3; i >= 0; i--) {
+            assertEquals(played[i], loaded.skipToPrevious());
+        }
+        /*The rest of the round is still to come, once each*/
+        loaded.setRepeatMode(PlayQueue.REPEAT_OFF);
+        loaded.skipToNext();
+        loaded.skipToNext();
+        loaded.skipToNext();
+        loaded.skipToNext();
+        Set<Integer> rest = new HashSet<>();
+        for (int item = loaded.advance(); item != PlayQueue.NONE; item = loaded.advance()) {
+            assertTrue("played twice: " + item, rest.add(item));
+        }
+        assertEquals(41 - 6, rest.size());
+    }
+
+    @Test
+    public void snapshot_isIndependent() {
+        PlayQueue queue = new PlayQueue(new Random(4));
+        queue.reset(10, 0);
+        queue.setShuffle(true);
+        queue.skipToNext();
+
+        PlayQueue snapshot = queue.snapshot();
+        int next = snapshot.peekNext();
+        queue.insertNext(42);
+
+        assertEquals(10, snapshot.size());
+        assertEquals(next, snapshot.skipToNext());
+        assertEquals(42, queue.skipToNext());
+    }
+
+    @Test
+    public void largeQueue_staysConsistent() {
+        PlayQueue queue = new PlayQueue(new Random(1));
+        queue.reset(100000, 0);
+        for (int i = 0; i < 1000; i++) {
+            queue.insertNext(100000 + i);
+            queue.skipToNext();
+        }
+        assertEquals(101000, queue.size());
+        int count = 0;
+        for (int entry = queue.firstEntry(); entry != PlayQueue.NONE; entry = queue.nextEntry(entry)) {
+            count++;
+        }
+        assertEquals(101000, count);
+    }
+}
@@ -0,0 +1,117 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that bursts of playback state updates are coalesced into a bounded number of writes.
+ */
+public class PlaybackStateJournalTest {
+
+    private static final long INTERVAL_MS = 100;
+
+    private static class CountingStore implements PlaybackStateJournal.Store {
+        volatile int writes = 0;
+        volatile int audioIndex = -1;
+        volatile int position = -1;
+
+        @Override
+        public synchronized void write(int audioIndex, int position, long timestamp) {
+            writes++;
+            this.audioIndex = audioIndex;
+            this.position = position;
+        }
+    }
+
+    @Test
+    public void rapidUpdates_areCoalesced() throws Exception {
+        CountingStore store = new CountingStore();
+        PlaybackStateJournal journal = new PlaybackStateJournal(store, INTERVAL_MS);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            journal.record(i, 0);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Thread.sleep(3 * INTERVAL_MS);
+
+        /*One write per interval the burst spanned, plus the trailing one*/
+        assertTrue("writes: " + store.writes, store.writes <= elapsed / INTERVAL_MS + 2);
+        assertEquals(9999, store.audioIndex);
+        journal.close();
+    }
+
+    @Test
+    public void nothingIsWritten_beforeTheInterval() throws Exception {
+        CountingStore store = new CountingStore();
+        PlaybackStateJournal journal = new PlaybackStateJournal(store, 10 * INTERVAL_MS);
+
+        journal.record(1, 500);
+        Thread.sleep(INTERVAL_MS);
+
+        assertEquals(0, store.writes);
+        journal.close();
+        assertEquals(1, store.writes);
+    }
+
+    @Test
+    public void spacedUpdates_areEachWritten() throws Exception {
+        CountingStore store = new CountingStore();
+        PlaybackStateJournal journal = new PlaybackStateJournal(store, INTERVAL_MS);
+
+        for (int i = 0; i < 3; i++) {
+            journal.record(2, i * 5000);
+            Thread.sleep(3 * INTERVAL_MS);
+        }
+
+        assertEquals(3, store.writes);
+        assertEquals(10000, store.position);
+        journal.close();
+        assertEquals(3, store.writes);
+    }
+
+    @Test
+    public void close_flushesPendingState_andIgnoresLaterUpdates() throws Exception {
+        CountingStore store = new CountingStore();
+        PlaybackStateJournal journal = new PlaybackStateJournal(store, 10 * INTERVAL_MS);
+
+        journal.record(4, 1234);
+        journal.close();
+        journal.record(5, 0);
+        Thread.sleep(INTERVAL_MS);
+
+        assertEquals(1, store.writes);
+        assertEquals(4, store.audioIndex);
+        assertEquals(1234, store.position);
+    }
+
+    @Test
+    public void boundedClose_returnsWhileTheWriteFinishesInTheBackground() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+        PlaybackStateJournal journal = new PlaybackStateJournal(new PlaybackStateJournal.Store() {
+            @Override
+            public void write(int audioIndex, int position, long timestamp) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                written.countDown();
+            }
+        }, 10 * INTERVAL_MS);
+
+        journal.record(6, 42);
+        journal.close(0);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        assertEquals(1, written.getCount());
+        release.countDown();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+    }
+}
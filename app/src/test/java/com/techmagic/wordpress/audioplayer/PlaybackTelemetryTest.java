@@ -0,0 +1,166 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays player callbacks with fixed timestamps into PlaybackTelemetry and checks the sessions,
+ * stalls, rebuffer ratio and the snapshot read back.
+ */
+public class PlaybackTelemetryTest {
+
+    private static PlaybackTelemetry.Snapshot read(PlaybackTelemetry telemetry) throws IOException {
+        return PlaybackTelemetry.Snapshot.read(new ByteArrayInputStream(telemetry.snapshot()));
+    }
+
+    @Test
+    public void session_recordsFirstFramePlayTimeAndStalls() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        telemetry.startSession(42, 1000);
+        /*Buffering before the first frame is startup, not a stall*/
+        telemetry.onStallStart(1050);
+        telemetry.onPlaying(1300);
+        telemetry.onStallStart(6300);
+        telemetry.onStallEnd(7300);
+        telemetry.onPaused(10300);
+        /*A stall while paused doesn't count*/
+        telemetry.onStallStart(11000);
+        telemetry.onStallEnd(11500);
+        telemetry.onPlaying(20300);
+        telemetry.endSession(21300);
+
+        assertEquals(1, telemetry.getSessionCount());
+        assertEquals(1, telemetry.getStallCount());
+        assertEquals(300, telemetry.getAverageTimeToFirstFrame());
+        /*1 s stalled against 9 s played*/
+        assertEquals(0.1, telemetry.getRebufferRatio(), 1e-9);
+
+        PlaybackTelemetry.Snapshot snapshot = read(telemetry);
+        assertEquals(42, snapshot.sessionTrack[0]);
+        assertEquals(300, snapshot.sessionFirstFrame[0]);
+        assertEquals(9000, snapshot.sessionPlayed[0]);
+        assertEquals(1000, snapshot.sessionStallTime[0]);
+        assertEquals(1, snapshot.sessionStalls[0]);
+        assertEquals(5300, snapshot.stallStart[0]);
+        assertEquals(1000, snapshot.stallDuration[0]);
+    }
+
+    @Test
+    public void pauseOrANewSession_endsAStall() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        telemetry.startSession(1, 0);
+        telemetry.onPlaying(100);
+        telemetry.onStallStart(1100);
+        telemetry.onPaused(1600);
+        telemetry.onPlaying(2000);
+        telemetry.onStallStart(3000);
+        telemetry.startSession(2, 3200);
+
+        PlaybackTelemetry.Snapshot snapshot = read(telemetry);
+        assertEquals(2, snapshot.sessionCount);
+        assertEquals(2, snapshot.sessionStalls[0]);
+        assertEquals(700, snapshot.sessionStallTime[0]);
+        assertEquals(2000, snapshot.sessionPlayed[0]);
+        /*Not played yet*/
+        assertEquals(-1, snapshot.sessionFirstFrame[1]);
+    }
+
+    @Test
+    public void skipBurst_pausedTimeBeforeTheNextSessionIsNotPlayed() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        telemetry.startSession(1, 0);
+        telemetry.onPlaying(100);
+        telemetry.onStallStart(1100);
+        /*A burst of skips pauses the player, the session of the track it settles on starts later*/
+        telemetry.onPaused(1300);
+        telemetry.startSession(5, 1600);
+
+        PlaybackTelemetry.Snapshot snapshot = read(telemetry);
+        assertEquals(1000, snapshot.sessionPlayed[0]);
+        assertEquals(200, snapshot.sessionStallTime[0]);
+    }
+
+    @Test
+    public void bufferingUpdates_keepOnlyChanges() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        telemetry.startSession(1, 0);
+        int[] percents = {5, 5, 20, 20, 20, 60, 100, 100, 100};
+        for (int i = 0; i < percents.length; i++) {
+            telemetry.onBufferingUpdate(percents[i], i * 1000);
+        }
+
+        PlaybackTelemetry.Snapshot snapshot = read(telemetry);
+        assertArrayEquals(new int[]{5, 20, 60, 100}, snapshot.bufferingPercent);
+        assertArrayEquals(new int[]{0, 2000, 5000, 6000}, snapshot.bufferingTime);
+        assertEquals(100, snapshot.sessionBuffered[0]);
+    }
+
+    @Test
+    public void errors_areKeptWithTheirSession() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        /*Nothing to attach it to*/
+        telemetry.onError(1, -1004, 0);
+        telemetry.startSession(1, 0);
+        telemetry.startSession(2, 100);
+        telemetry.onError(100, 0, 150);
+
+        PlaybackTelemetry.Snapshot snapshot = read(telemetry);
+        assertEquals(1, snapshot.errorCount);
+        assertArrayEquals(new int[]{1}, snapshot.errorSession);
+        assertArrayEquals(new int[]{50}, snapshot.errorTime);
+        assertArrayEquals(new int[]{100}, snapshot.errorWhat);
+        assertArrayEquals(new int[]{0, 1}, snapshot.sessionErrors);
+    }
+
+    @Test
+    public void rings_keepTheLatestRecordsAndTheTotalsEverything() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        int sessions = PlaybackTelemetry.SESSION_CAPACITY + 10;
+        long time = 0;
+        for (int i = 0; i < sessions; i++) {
+            telemetry.startSession(i, time);
+            telemetry.onPlaying(time + 10);
+            for (int stall = 0; stall < 5; stall++) {
+                telemetry.onStallStart(time + 100 + stall * 100);
+                telemetry.onStallEnd(time + 150 + stall * 100);
+            }
+            time += 1000;
+        }
+        telemetry.endSession(time);
+
+        PlaybackTelemetry.Snapshot snapshot = read(telemetry);
+        assertEquals(sessions, snapshot.sessionCount);
+        assertEquals(sessions * 5, snapshot.stallCount);
+        assertEquals(PlaybackTelemetry.SESSION_CAPACITY, snapshot.sessionTrack.length);
+        assertEquals(10, snapshot.sessionTrack[0]);
+        assertEquals(sessions - 1, snapshot.sessionTrack[snapshot.sessionTrack.length - 1]);
+        assertEquals(PlaybackTelemetry.STALL_CAPACITY, snapshot.stallSession.length);
+        assertEquals(sessions - 1, snapshot.stallSession[snapshot.stallSession.length - 1]);
+        /*250 ms stalled of every 990 ms*/
+        assertEquals(250.0 / 990, snapshot.getRebufferRatio(), 1e-9);
+        assertEquals(telemetry.getRebufferRatio(), snapshot.getRebufferRatio(), 1e-12);
+    }
+
+    @Test
+    public void snapshot_isCompact() throws Exception {
+        PlaybackTelemetry telemetry = new PlaybackTelemetry();
+        assertEquals(0, read(telemetry).sessionTrack.length);
+        assertEquals(0, telemetry.getRebufferRatio(), 0);
+        assertEquals(-1, telemetry.getAverageTimeToFirstFrame());
+
+        telemetry.startSession(7, 0);
+        telemetry.onPlaying(200);
+        telemetry.endSession(60000);
+        /*Header, totals, one session and the four ring sizes*/
+        assertEquals(8 + 40 + 4 + 25 + 12, telemetry.snapshot().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherData() throws Exception {
+        PlaybackTelemetry.Snapshot.read(new ByteArrayInputStream(new byte[64]));
+    }
+}
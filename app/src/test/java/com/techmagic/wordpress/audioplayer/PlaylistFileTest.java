@@ -0,0 +1,142 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips playlists through the binary playlist file.
+ */
+public class PlaylistFileTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("playlist", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static AudioLibrary library(int count) {
+        AudioLibrary library = new AudioLibrary();
+        for (int i = 0; i < count; i++) {
+            library.add(1000 + i, "/music/" + i + ".mp3", "T\u00edtulo " + i, i % 3 == 0 ? null : "Album " + i % 5, "Artist", i % 5);
+        }
+        return library;
+    }
+
+    @Test
+    public void writeAndOpen_readsEveryEntry() throws Exception {
+        AudioLibrary library = library(2000);
+        PlaylistFile.write(file, library);
+
+        PlaylistFile.Reader reader = PlaylistFile.open(file);
+        assertEquals(2000, reader.size());
+        for (int i = 0; i < 2000; i++) {
+            Audio audio = reader.getAudio(i);
+            assertEquals(1000 + i, reader.getId(i));
+            assertEquals(i % 5, reader.getAlbumId(i));
+            assertEquals(library.getData(i), audio.getData());
+            assertEquals(library.getTitle(i), audio.getTitle());
+            assertEquals(library.getAlbum(i), audio.getAlbum());
+            assertEquals(library.getArtist(i), audio.getArtist());
+        }
+    }
+
+    @Test
+    public void randomAccess_doesNotDependOnOrder() throws Exception {
+        PlaylistFile.write(file, library(500));
+        PlaylistFile.Reader reader = PlaylistFile.open(file);
+
+        assertEquals("/music/499.mp3", reader.getAudio(499).getData());
+        assertEquals("/music/0.mp3", reader.getAudio(0).getData());
+        assertEquals("/music/250.mp3", reader.getAudio(250).getData());
+    }
+
+    @Test
+    public void write_replacesTheOldFile() throws Exception {
+        PlaylistFile.write(file, library(10));
+        PlaylistFile.Reader old = PlaylistFile.open(file);
+        PlaylistFile.write(file, library(3));
+
+        assertEquals(3, PlaylistFile.open(file).size());
+        /*A reader of the old file keeps working, the new file was renamed over it*/
+        assertEquals(10, old.size());
+        assertEquals("/music/9.mp3", old.getAudio(9).getData());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void write_thatFailsKeepsTheOldFileAndNoTemporaryFile() throws Exception {
+        PlaylistFile.write(file, library(3));
+        final AudioLibrary library = library(10);
+        Playlist failing = new Playlist() {
+            @Override
+            public int size() {
+                return library.size();
+            }
+
+            @Override
+            public int getId(int position) {
+                return library.getId(position);
+            }
+
+            @Override
+            public Audio getAudio(int position) {
+                if (position == 5) {
+                    throw new IllegalStateException("Gone");
+                }
+                return library.getAudio(position);
+            }
+        };
+        try {
+            PlaylistFile.write(file, failing);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(3, PlaylistFile.open(file).size());
+    }
+
+    @Test
+    public void emptyPlaylist() throws Exception {
+        PlaylistFile.write(file, new AudioLibrary());
+        assertEquals(0, PlaylistFile.open(file).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("[{\"data\":\"/music/a.mp3\"}]".getBytes("UTF-8"));
+        out.close();
+        PlaylistFile.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherVersions() throws Exception {
+        PlaylistFile.write(file, library(1));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(4);
+        randomAccessFile.writeInt(PlaylistFile.VERSION + 1);
+        randomAccessFile.close();
+        PlaylistFile.open(file);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getAudio_outOfRange() throws Exception {
+        PlaylistFile.write(file, library(1));
+        PlaylistFile.open(file).getAudio(1);
+    }
+}
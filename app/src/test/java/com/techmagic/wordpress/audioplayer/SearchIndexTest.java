@@ -0,0 +1,101 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks prefix search over the library and that the index follows appends and deltas.
+ */
+public class SearchIndexTest {
+
+    private static AudioLibrary library() {
+        AudioLibrary library = new AudioLibrary();
+        library.add(1, "/music/1.mp3", "Hey Jude", "Past Masters", "The Beatles", 1);
+        library.add(2, "/music/2.mp3", "Let It Be", "Let It Be", "The Beatles", 2);
+        library.add(3, "/music/3.mp3", "Jolene", "Jolene", "Dolly Parton", 3);
+        library.add(4, "/music/4.mp3", "Caf\u00e9 del Mar", "Caf\u00e9 del Mar", "Energy 52", 4);
+        return library;
+    }
+
+    @Test
+    public void tokenize_normalizesWords() {
+        List<String> words = new ArrayList<>();
+        SearchIndex.tokenize("Caf\u00e9 del Mar - Energy_52!", words);
+
+        assertEquals(5, words.size());
+        assertEquals("cafe", words.get(0));
+        assertEquals("energy", words.get(3));
+        assertEquals("52", words.get(4));
+    }
+
+    @Test
+    public void search_matchesPrefixesOfEveryWord() {
+        SearchIndex index = new SearchIndex();
+        AudioLibrary library = library();
+        index.addRows(library, 0, library.size());
+
+        assertArrayEquals(new int[]{0, 1}, index.search("beat"));
+        assertArrayEquals(new int[]{0, 2}, index.search("j"));
+        assertArrayEquals(new int[]{1}, index.search("be LET"));
+        assertArrayEquals(new int[]{3}, index.search("CAF\u00c9"));
+        assertArrayEquals(new int[]{3}, index.search("cafe"));
+        assertArrayEquals(new int[0], index.search("beatles zeppelin"));
+        assertArrayEquals(new int[]{0, 1, 2, 3}, index.search("  "));
+    }
+
+    @Test
+    public void addRows_extendsTheIndex() {
+        SearchIndex index = new SearchIndex();
+        AudioLibrary library = new AudioLibrary();
+        library.add(1, "/music/1.mp3", "Jolene", null, null, 1);
+        index.addRows(library, 0, 1);
+        assertArrayEquals(new int[]{0}, index.search("jol"));
+
+        library.add(2, "/music/2.mp3", "Jolly", null, null, 1);
+        index.addRows(library, 1, 1);
+        assertArrayEquals(new int[]{0, 1}, index.search("jol"));
+        assertArrayEquals(new int[]{1}, index.search("jolly"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addRows_rejectsGaps() {
+        new SearchIndex().addRows(library(), 1, 1);
+    }
+
+    @Test
+    public void applyUpdate_followsTheDelta() {
+        AudioLibrary library = library();
+        int[] ids = {1, 2, 3, 4};
+        long[] modified = {1, 1, 1, 1};
+        LibraryIndex libraryIndex = LibraryIndex.create(library, ids, modified);
+        SearchIndex index = new SearchIndex();
+        index.addRows(libraryIndex.getLibrary(), 0, library.size());
+
+        /*Let It Be is deleted, Jolene renamed and Blackbird added*/
+        LibraryIndex.Delta delta = libraryIndex.diff(new int[]{1, 3, 4, 5}, new long[]{1, 2, 1, 1});
+        AudioLibrary rows = new AudioLibrary();
+        rows.add(3, "/music/3.mp3", "Jolene (Live)", "Jolene", "Dolly Parton", 3);
+        rows.add(5, "/music/5.mp3", "Blackbird", "The Beatles", "The Beatles", 5);
+        LibraryIndex.Update update = libraryIndex.apply(delta, rows);
+        AudioLibrary updated = update.getIndex().getLibrary();
+        index.applyUpdate(updated, update);
+
+        assertEquals(4, index.size());
+        assertEquals(updated.size(), index.size());
+        int[] beatles = index.search("beatles");
+        assertEquals(2, beatles.length);
+        assertEquals("Blackbird", updated.getTitle(beatles[0]));
+        assertEquals("Hey Jude", updated.getTitle(beatles[1]));
+        int[] live = index.search("live");
+        assertEquals(1, live.length);
+        assertEquals("Jolene (Live)", updated.getTitle(live[0]));
+        assertEquals(0, index.search("let").length);
+        int[] mar = index.search("mar");
+        assertEquals(1, mar.length);
+        assertEquals(4, updated.getId(mar[0]));
+    }
+}
@@ -0,0 +1,291 @@
+package com.techmagic.wordpress.audioplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prefetches the head of upcoming tracks from a local stand-in origin and checks that a skip to one
+ * of them is served from the cache, or waits for the prefetch in flight, without asking the origin again.
+ */
+public class StreamPrefetcherTest {
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+    private static final int LENGTH = 5 * CHUNK_SIZE;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] data = new byte[LENGTH];
+    /*Origin requests in the order they came, as "path chunk"*/
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    /*Origin requests wait for it while it's set*/
+    private volatile CountDownLatch originGate;
+    /*Released once by every origin request*/
+    private final Semaphore originEntered = new Semaphore(0);
+    private HttpServer origin;
+    private File cacheDir;
+    private StreamProxy proxy;
+    private StreamPrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(2).nextBytes(data);
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serveOrigin(exchange);
+            }
+        });
+        origin.setExecutor(Executors.newCachedThreadPool());
+        origin.start();
+        cacheDir = File.createTempFile("prefetch", "");
+        cacheDir.delete();
+        proxy = new StreamProxy(new ChunkCache(cacheDir, CHUNK_SIZE, 100 * CHUNK_SIZE));
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        openOrigin();
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+        }
+        proxy.stop();
+        origin.stop(0);
+        File[] files = cacheDir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        cacheDir.delete();
+    }
+
+    private void serveOrigin(HttpExchange exchange) throws IOException {
+        int concurrent = concurrentRequests.incrementAndGet();
+        while (true) {
+            int max = maxConcurrentRequests.get();
+            if (concurrent <= max || maxConcurrentRequests.compareAndSet(max, concurrent)) {
+                break;
+            }
+        }
+        try {
+            Matcher matcher = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+            if (!matcher.matches()) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            int start = Integer.parseInt(matcher.group(1));
+            requests.add(exchange.getRequestURI().getPath() + " " + start / CHUNK_SIZE);
+            originEntered.release();
+            CountDownLatch gate = originGate;
+            if (gate != null) {
+                gate.await();
+            }
+            int end = Math.min(LENGTH - 1, Integer.parseInt(matcher.group(2)));
+            exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + LENGTH);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            OutputStream out = exchange.getResponseBody();
+            out.write(data, start, end - start + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            concurrentRequests.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+
+    private List<String> urls(String... paths) {
+        List<String> urls = new ArrayList<>();
+        for (String path : paths) {
+            urls.add(url(path));
+        }
+        return urls;
+    }
+
+    private void closeOrigin() {
+        originGate = new CountDownLatch(1);
+    }
+
+    private void openOrigin() {
+        CountDownLatch gate = originGate;
+        originGate = null;
+        if (gate != null) {
+            gate.countDown();
+        }
+    }
+
+    private void awaitOriginRequests(int count) throws InterruptedException {
+        assertTrue(originEntered.tryAcquire(count, 5, TimeUnit.SECONDS));
+    }
+
+    /*What a player skipping to path gets first: the first byte of the audio*/
+    private void readFirstByte(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxy.proxyUrl(url(path))).openConnection();
+        InputStream in = connection.getInputStream();
+        try {
+            assertEquals(data[0] & 0xff, in.read());
+        } finally {
+            in.close();
+            connection.disconnect();
+        }
+    }
+
+    /*Until a player connection waits for a chunk that another thread loads*/
+    private static void awaitReaderWaitingOnALoad() throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+                boolean waits = false;
+                boolean serves = false;
+                for (StackTraceElement frame : stack) {
+                    waits |= frame.getClassName().equals("java.util.concurrent.FutureTask") && frame.getMethodName().equals("get");
+                    serves |= frame.getClassName().equals(StreamProxy.class.getName()) && frame.getMethodName().equals("handle");
+                }
+                if (waits && serves) {
+                    return;
+                }
+            }
+            Thread.sleep(5);
+        }
+        fail("No player waits for the prefetch");
+    }
+
+    @Test
+    public void skip_toAPrefetchedTrackStartsFromTheCache() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 2, 2 * CHUNK_SIZE, 4 * CHUNK_SIZE);
+        prefetcher.schedule(urls("/warm.mp3"));
+        assertTrue(prefetcher.awaitIdle(5000));
+        /*Both workers load a chunk, in either order*/
+        assertEquals(2, requests.size());
+        assertTrue(requests.containsAll(Arrays.asList("/warm.mp3 0", "/warm.mp3 1")));
+
+        /*The origin is closed now, only a cached head gets the player its first byte*/
+        closeOrigin();
+        readFirstByte("/warm.mp3");
+        /*The proxy may go on to the chunks after the head before it sees the player is gone*/
+        assertEquals(1, Collections.frequency(requests, "/warm.mp3 0"));
+        assertEquals(1, Collections.frequency(requests, "/warm.mp3 1"));
+        assertEquals(2, prefetcher.getPrefetchedChunks());
+    }
+
+    @Test
+    public void skip_duringThePrefetchWaitsForItInsteadOfFetchingAgain() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 1, CHUNK_SIZE, CHUNK_SIZE);
+        closeOrigin();
+        prefetcher.schedule(urls("/next.mp3"));
+        awaitOriginRequests(1);
+
+        ExecutorService player = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> skip = player.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    readFirstByte("/next.mp3");
+                    return null;
+                }
+            });
+            awaitReaderWaitingOnALoad();
+            openOrigin();
+            skip.get(5, TimeUnit.SECONDS);
+        } finally {
+            player.shutdownNow();
+        }
+        assertEquals(1, Collections.frequency(requests, "/next.mp3 0"));
+    }
+
+    @Test
+    public void schedule_loadsTheNextTrackFirstWithinTheBudget() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 1, 2 * CHUNK_SIZE, 3 * CHUNK_SIZE);
+        prefetcher.schedule(urls("/a.mp3", "/b.mp3", "/c.mp3"));
+        assertTrue(prefetcher.awaitIdle(5000));
+
+        assertEquals(Arrays.asList("/a.mp3 0", "/a.mp3 1", "/b.mp3 0"), requests);
+        assertEquals(3, prefetcher.getPrefetchedChunks());
+    }
+
+    @Test
+    public void schedule_keepsToTheConcurrencyLimit() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 2, 3 * CHUNK_SIZE, 100 * CHUNK_SIZE);
+        closeOrigin();
+        prefetcher.schedule(urls("/a.mp3", "/b.mp3", "/c.mp3", "/d.mp3"));
+        /*Both workers hold a request, no third one starts while they do*/
+        awaitOriginRequests(2);
+        openOrigin();
+        assertTrue(prefetcher.awaitIdle(5000));
+
+        assertEquals(12, requests.size());
+        assertEquals(2, maxConcurrentRequests.get());
+    }
+
+    @Test
+    public void schedule_dropsPrefetchesMadeStale() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 1, 2 * CHUNK_SIZE, 100 * CHUNK_SIZE);
+        closeOrigin();
+        prefetcher.schedule(urls("/a.mp3", "/b.mp3"));
+        awaitOriginRequests(1);
+        /*The queue changed while the first chunk of a loads*/
+        prefetcher.schedule(urls("/c.mp3"));
+        openOrigin();
+        assertTrue(prefetcher.awaitIdle(5000));
+
+        assertEquals(Arrays.asList("/a.mp3 0", "/c.mp3 0", "/c.mp3 1"), requests);
+        assertEquals(3, prefetcher.getCancelledChunks());
+    }
+
+    @Test
+    public void schedule_stopsAtTheEndOfAShortStream() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 1, 10 * CHUNK_SIZE, 100 * CHUNK_SIZE);
+        prefetcher.schedule(urls("/a.mp3"));
+        assertTrue(prefetcher.awaitIdle(5000));
+
+        assertEquals(LENGTH / CHUNK_SIZE, requests.size());
+        assertEquals(LENGTH / CHUNK_SIZE, prefetcher.getPrefetchedChunks());
+    }
+
+    @Test
+    public void failingOrigin_skipsToTheNextStream() throws Exception {
+        prefetcher = new StreamPrefetcher(proxy, 1, 2 * CHUNK_SIZE, 100 * CHUNK_SIZE);
+        List<String> urls = new ArrayList<>();
+        urls.add("http://127.0.0.1:1/gone.mp3");
+        urls.addAll(urls("/b.mp3"));
+        prefetcher.schedule(urls);
+        assertTrue(prefetcher.awaitIdle(5000));
+
+        assertEquals(1, prefetcher.getFailedChunks());
+        assertEquals(2, prefetcher.getPrefetchedChunks());
+    }
+}
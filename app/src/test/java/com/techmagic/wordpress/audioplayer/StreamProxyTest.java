@@ -0,0 +1,352 @@
+package com.techmagic.wordpress.audioplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Plays a stream from a local stand-in origin through the StreamProxy: whole reads, seeks with
+ * ranges, reads served from the ChunkCache, readers sharing a download and eviction.
+ */
+public class StreamProxyTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /*Four full chunks and a short one*/
+    private static final int LENGTH = 4 * CHUNK_SIZE + 12345;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] data = new byte[LENGTH];
+    private final AtomicInteger originRequests = new AtomicInteger();
+    private volatile long originDelayMs = 0;
+    /*The origin drops the connection halfway through each response*/
+    private volatile boolean originCutsShort = false;
+    private HttpServer origin;
+    private File cacheDir;
+    private StreamProxy proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(1).nextBytes(data);
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/audio.ogg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serveOrigin(exchange, true);
+            }
+        });
+        origin.createContext("/noranges.ogg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serveOrigin(exchange, false);
+            }
+        });
+        origin.createContext("/live.ogg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                originRequests.incrementAndGet();
+                /*Chunked, no length*/
+                exchange.sendResponseHeaders(200, 0);
+                exchange.getResponseBody().write(data);
+                exchange.close();
+            }
+        });
+        origin.setExecutor(Executors.newCachedThreadPool());
+        origin.start();
+        cacheDir = File.createTempFile("streams", "");
+        cacheDir.delete();
+        proxy = startProxy(10 * CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        proxy.stop();
+        origin.stop(0);
+        File[] files = cacheDir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        cacheDir.delete();
+    }
+
+    private StreamProxy startProxy(long cacheSize) throws IOException {
+        StreamProxy proxy = new StreamProxy(new ChunkCache(cacheDir, CHUNK_SIZE, cacheSize));
+        proxy.start();
+        return proxy;
+    }
+
+    private void serveOrigin(HttpExchange exchange, boolean ranges) throws IOException {
+        originRequests.incrementAndGet();
+        try {
+            Thread.sleep(originDelayMs);
+        } catch (InterruptedException ignored) {
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        exchange.getResponseHeaders().set("Content-Type", "audio/ogg");
+        int start = 0;
+        int end = LENGTH - 1;
+        if (ranges && matcher != null && matcher.matches()) {
+            start = Integer.parseInt(matcher.group(1));
+            end = Math.min(end, Integer.parseInt(matcher.group(2)));
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + LENGTH);
+            if (originCutsShort) {
+                exchange.sendResponseHeaders(206, 0);
+                exchange.getResponseBody().write(data, start, (end - start + 1) / 2);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(206, end - start + 1);
+        } else {
+            exchange.sendResponseHeaders(200, LENGTH);
+        }
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(data, start, end - start + 1);
+        } catch (IOException e) {
+            /*The proxy stops reading past its chunk*/
+        }
+        exchange.close();
+    }
+
+    private static class Response {
+        int code;
+        String contentRange;
+        String contentType;
+        byte[] body;
+    }
+
+    private Response get(String path, String range) throws IOException {
+        String url = "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxy.proxyUrl(url)).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        Response response = new Response();
+        response.code = connection.getResponseCode();
+        response.contentRange = connection.getHeaderField("Content-Range");
+        response.contentType = connection.getContentType();
+        InputStream in = response.code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+            in.close();
+        }
+        response.body = body.toByteArray();
+        connection.disconnect();
+        return response;
+    }
+
+    private int cachedChunks() {
+        int count = 0;
+        for (String name : cacheDir.list()) {
+            if (!name.endsWith(".info")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private byte[] slice(int start, int end) {
+        return Arrays.copyOfRange(data, start, end + 1);
+    }
+
+    @Test
+    public void get_servesTheWholeStream() throws Exception {
+        Response response = get("/audio.ogg", null);
+        assertEquals(200, response.code);
+        assertEquals("audio/ogg", response.contentType);
+        assertArrayEquals(data, response.body);
+        assertEquals(5, originRequests.get());
+    }
+
+    @Test
+    public void range_seeksIntoTheMiddleAcrossChunks() throws Exception {
+        int start = CHUNK_SIZE - 100;
+        int end = 3 * CHUNK_SIZE + 100;
+        Response response = get("/audio.ogg", "bytes=" + start + "-" + end);
+        assertEquals(206, response.code);
+        assertEquals("bytes " + start + "-" + end + "/" + LENGTH, response.contentRange);
+        assertArrayEquals(slice(start, end), response.body);
+        /*Chunk 0 for the length, then chunks 0 to 3 of which 0 is cached*/
+        assertEquals(4, originRequests.get());
+    }
+
+    @Test
+    public void range_withoutAnEndOrAsASuffix() throws Exception {
+        Response open = get("/audio.ogg", "bytes=200000-");
+        assertEquals(206, open.code);
+        assertArrayEquals(slice(200000, LENGTH - 1), open.body);
+
+        Response suffix = get("/audio.ogg", "bytes=-500");
+        assertEquals(206, suffix.code);
+        assertEquals("bytes " + (LENGTH - 500) + "-" + (LENGTH - 1) + "/" + LENGTH, suffix.contentRange);
+        assertArrayEquals(slice(LENGTH - 500, LENGTH - 1), suffix.body);
+    }
+
+    @Test
+    public void range_pastTheEndIsNotSatisfiable() throws Exception {
+        Response response = get("/audio.ogg", "bytes=" + LENGTH + "-");
+        assertEquals(416, response.code);
+        assertEquals("bytes */" + LENGTH, response.contentRange);
+    }
+
+    @Test
+    public void replay_isServedFromTheCache() throws Exception {
+        get("/audio.ogg", null);
+        int requests = originRequests.get();
+        assertArrayEquals(data, get("/audio.ogg", null).body);
+        assertArrayEquals(slice(1000, 150000), get("/audio.ogg", "bytes=1000-150000").body);
+        assertEquals(requests, originRequests.get());
+
+        /*And after a restart of the proxy*/
+        proxy.stop();
+        proxy = startProxy(10 * CHUNK_SIZE);
+        assertArrayEquals(data, get("/audio.ogg", null).body);
+        assertEquals(requests, originRequests.get());
+    }
+
+    @Test
+    public void concurrentReaders_shareTheDownloads() throws Exception {
+        originDelayMs = 100;
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        List<Future<byte[]>> bodies = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            bodies.add(readers.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return get("/audio.ogg", null).body;
+                }
+            }));
+        }
+        for (Future<byte[]> body : bodies) {
+            assertArrayEquals(data, body.get());
+        }
+        readers.shutdown();
+        /*One request a chunk however many readers wanted it*/
+        assertEquals(5, originRequests.get());
+    }
+
+    @Test
+    public void cache_evictsTheLeastRecentlyUsedChunks() throws Exception {
+        proxy.stop();
+        proxy = startProxy(2 * CHUNK_SIZE);
+        assertArrayEquals(data, get("/audio.ogg", null).body);
+        long cached = 0;
+        for (File file : cacheDir.listFiles()) {
+            if (!file.getName().endsWith(".info")) {
+                cached += file.length();
+            }
+        }
+        assertTrue(cached <= 2 * CHUNK_SIZE);
+
+        /*The last chunks are still there, the first one was evicted*/
+        int requests = originRequests.get();
+        assertArrayEquals(slice(LENGTH - 100, LENGTH - 1), get("/audio.ogg", "bytes=-100").body);
+        assertEquals(requests, originRequests.get());
+        assertArrayEquals(slice(0, 99), get("/audio.ogg", "bytes=0-99").body);
+        assertEquals(requests + 1, originRequests.get());
+    }
+
+    @Test
+    public void originWithoutRanges_isPassedThroughWithoutCaching() throws Exception {
+        assertArrayEquals(data, get("/noranges.ogg", null).body);
+        assertEquals(0, cachedChunks());
+
+        /*Known to ignore ranges now, one download per read instead of one per chunk*/
+        originRequests.set(0);
+        Response response = get("/noranges.ogg", "bytes=100000-100999");
+        assertEquals(200, response.code);
+        assertArrayEquals(data, response.body);
+        assertEquals(1, originRequests.get());
+    }
+
+    @Test
+    public void unreachableOrigin_isABadGateway() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxy.proxyUrl("http://127.0.0.1:1/gone.ogg")).openConnection();
+        assertEquals(502, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    @Test
+    public void requestsWithoutTheToken_areRefused() throws Exception {
+        String url = "http://127.0.0.1:" + origin.getAddress().getPort() + "/audio.ogg";
+        String proxyUrl = proxy.proxyUrl(url);
+        int query = proxyUrl.indexOf('?');
+        String withoutToken = proxyUrl.substring(0, query + 1) + proxyUrl.substring(proxyUrl.indexOf('&') + 1);
+        String wrongToken = proxyUrl.substring(0, query + 1) + "token=0123456789abcdef0123456789abcdef"
+                + proxyUrl.substring(proxyUrl.indexOf('&'));
+        for (String refused : new String[]{withoutToken, wrongToken}) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(refused).openConnection();
+            assertEquals(403, connection.getResponseCode());
+            connection.disconnect();
+        }
+        assertEquals(0, originRequests.get());
+
+        /*A new start draws a new token*/
+        StreamProxy restarted = startProxy(10 * CHUNK_SIZE);
+        try {
+            assertNotEquals(token(proxyUrl), token(restarted.proxyUrl(url)));
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    private static String token(String proxyUrl) {
+        return proxyUrl.substring(proxyUrl.indexOf("token="), proxyUrl.indexOf('&'));
+    }
+
+    @Test
+    public void originEndingEarly_isNotCached() throws Exception {
+        originCutsShort = true;
+        assertEquals(502, get("/audio.ogg", null).code);
+        assertEquals(0, cachedChunks());
+
+        originCutsShort = false;
+        Response response = get("/audio.ogg", null);
+        assertEquals(200, response.code);
+        assertArrayEquals(data, response.body);
+    }
+
+    @Test
+    public void streamWithoutALength_isPassedThroughWithoutCaching() throws Exception {
+        Response response = get("/live.ogg", null);
+        assertEquals(200, response.code);
+        assertArrayEquals(data, response.body);
+        assertEquals(0, cachedChunks());
+
+        /*Known to have no length now, straight to the origin*/
+        originRequests.set(0);
+        assertArrayEquals(data, get("/live.ogg", null).body);
+        assertEquals(1, originRequests.get());
+    }
+}
@@ -0,0 +1,117 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays the computed changes on the old rows and checks they end up as the new rows.
+ */
+public class TrackListDiffTest {
+
+    private static AudioLibrary library(int... ids) {
+        AudioLibrary library = new AudioLibrary();
+        for (int id : ids) {
+            library.add(id, "/music/" + id + ".mp3", "Title " + id, "Album", "Artist", 1);
+        }
+        return library;
+    }
+
+    private static List<Integer> rows(AudioLibrary library, int[] filter) {
+        List<Integer> rows = new ArrayList<>();
+        int size = filter == null ? library.size() : filter.length;
+        for (int i = 0; i < size; i++) {
+            rows.add(library.getId(filter == null ? i : filter[i]));
+        }
+        return rows;
+    }
+
+    /*Apply the changes to the old rows, changed rows are marked negative*/
+    private static List<Integer> replay(final List<Integer> rows, PositionChanges changes, final List<Integer> target) {
+        changes.dispatch(new PositionChanges.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.add(position + i, target.get(position + i));
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.remove(position);
+                }
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.set(position + i, -rows.get(position + i));
+                }
+            }
+        });
+        return rows;
+    }
+
+    @Test
+    public void filterChanges_areInsertsAndRemoves() {
+        AudioLibrary library = library(1, 2, 3, 4, 5, 6);
+        int[] oldFilter = {0, 2, 4};
+        int[] newFilter = {1, 2, 3};
+
+        PositionChanges changes = TrackListDiff.compute(library, oldFilter, library, newFilter);
+
+        List<Integer> target = rows(library, newFilter);
+        assertEquals(target, replay(rows(library, oldFilter), changes, target));
+    }
+
+    @Test
+    public void clearingTheFilter_insertsRanges() {
+        AudioLibrary library = library(1, 2, 3, 4, 5, 6);
+
+        PositionChanges changes = TrackListDiff.compute(library, new int[]{2}, library, null);
+
+        /*Two before the kept row and three after it*/
+        assertEquals(2, changes.getRangeCount());
+        List<Integer> target = rows(library, null);
+        assertEquals(target, replay(rows(library, new int[]{2}), changes, target));
+    }
+
+    @Test
+    public void sameRows_haveNoChanges() {
+        AudioLibrary library = library(1, 2, 3);
+
+        assertTrue(TrackListDiff.compute(library, null, library.snapshot(), null).isEmpty());
+    }
+
+    @Test
+    public void newLibrary_marksChangedTitles() {
+        AudioLibrary oldLibrary = library(1, 2, 3);
+        AudioLibrary newLibrary = new AudioLibrary();
+        newLibrary.add(1, "/music/1.mp3", "Title 1", "Album", "Artist", 1);
+        newLibrary.add(2, "/music/2.mp3", "Title 2 (Live)", "Album", "Artist", 1);
+        newLibrary.add(4, "/music/4.mp3", "Title 4", "Album", "Artist", 1);
+
+        PositionChanges changes = TrackListDiff.compute(oldLibrary, null, newLibrary, null);
+
+        List<Integer> replayed = replay(rows(oldLibrary, null), changes, rows(newLibrary, null));
+        assertEquals(3, replayed.size());
+        assertEquals(1, (int) replayed.get(0));
+        assertEquals(-2, (int) replayed.get(1));
+        assertEquals(4, (int) replayed.get(2));
+    }
+
+    @Test
+    public void movedRows_areRemovedAndInsertedAgain() {
+        AudioLibrary oldLibrary = library(1, 2, 3);
+        AudioLibrary newLibrary = library(2, 1, 3);
+
+        PositionChanges changes = TrackListDiff.compute(oldLibrary, null, newLibrary, null);
+
+        List<Integer> target = rows(newLibrary, null);
+        assertEquals(target, replay(rows(oldLibrary, null), changes, target));
+    }
+}
@@ -0,0 +1,77 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes 16 bit PCM WAV files for the tests and the benchmarks that read them through WavSource.
+ */
+
+class WavFiles {
+
+    private WavFiles() {
+    }
+
+    static void write(File file, int sampleRate, int channels, short[] samples) throws IOException {
+        write(file, sampleRate, channels, samples, false);
+    }
+
+    /*samples are interleaved, listChunk puts a LIST chunk between the format and the data that readers must skip*/
+    static void write(File file, int sampleRate, int channels, short[] samples, boolean listChunk) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeBytes("RIFF");
+            writeIntLe(out, 4 + 8 + 16 + (listChunk ? 8 + 4 : 0) + 8 + samples.length * 2);
+            out.writeBytes("WAVE");
+            out.writeBytes("fmt ");
+            writeIntLe(out, 16);
+            writeShortLe(out, 1);
+            writeShortLe(out, channels);
+            writeIntLe(out, sampleRate);
+            writeIntLe(out, sampleRate * channels * 2);
+            writeShortLe(out, channels * 2);
+            writeShortLe(out, 16);
+            if (listChunk) {
+                out.writeBytes("LIST");
+                writeIntLe(out, 4);
+                out.writeBytes("INFO");
+            }
+            out.writeBytes("data");
+            writeIntLe(out, samples.length * 2);
+            for (short sample : samples) {
+                writeShortLe(out, sample);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /*The first samples the source gives, it must have at least that many*/
+    static short[] read(PcmSource source, int samples) throws IOException {
+        short[] buffer = new short[samples];
+        int total = 0;
+        int count;
+        while (total < samples && (count = source.read(buffer, total, samples - total)) > 0) {
+            total += count;
+        }
+        if (total < samples) {
+            throw new IOException("Source ended after " + total + " of " + samples + " samples");
+        }
+        return buffer;
+    }
+
+    private static void writeIntLe(DataOutputStream out, int value) throws IOException {
+        out.writeByte(value);
+        out.writeByte(value >> 8);
+        out.writeByte(value >> 16);
+        out.writeByte(value >> 24);
+    }
+
+    private static void writeShortLe(DataOutputStream out, int value) throws IOException {
+        out.writeByte(value);
+        out.writeByte(value >> 8);
+    }
+}
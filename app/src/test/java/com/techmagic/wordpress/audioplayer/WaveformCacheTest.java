@@ -0,0 +1,164 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Extracts WaveformPeaks from WAV files and checks that the WaveformCache serves, persists and evicts them.
+ */
+public class WaveformCacheTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BUCKETS = 64;
+    /*Header plus three slots of 64 buckets*/
+    private static final long THREE_SLOTS = WaveformCache.HEADER_SIZE + 3 * (WaveformCache.SLOT_SIZE + BUCKETS * 4);
+
+    private File wav;
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        wav = File.createTempFile("waveform", ".wav");
+        cacheFile = File.createTempFile("waveforms", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wav.delete();
+        cacheFile.delete();
+    }
+
+    /*Two seconds of a 997 Hz stereo tone*/
+    private static short[] sine(double amplitude) {
+        short[] samples = new short[SAMPLE_RATE * 2 * 2];
+        for (int i = 0; i < samples.length; i += 2) {
+            short value = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * 997 * (i / 2) / SAMPLE_RATE));
+            samples[i] = value;
+            samples[i + 1] = value;
+        }
+        return samples;
+    }
+
+    private short[] extract(short[] samples) throws Exception {
+        WavFiles.write(wav, SAMPLE_RATE, 2, samples);
+        short[] peaks = new short[BUCKETS * 2];
+        WavSource source = new WavSource(wav);
+        try {
+            new WaveformPeaks().extract(source, BUCKETS, peaks);
+        } finally {
+            source.close();
+        }
+        return peaks;
+    }
+
+    private static short[] peaks(int value) {
+        short[] peaks = new short[BUCKETS * 2];
+        for (int i = 0; i < BUCKETS; i++) {
+            peaks[2 * i] = (short) -value;
+            peaks[2 * i + 1] = (short) value;
+        }
+        return peaks;
+    }
+
+    @Test
+    public void extract_findsTheAmplitudeInEveryBucket() throws Exception {
+        short[] peaks = extract(sine(0.5));
+        for (int i = 0; i < BUCKETS; i++) {
+            assertEquals(-16384, peaks[2 * i], 200);
+            assertEquals(16384, peaks[2 * i + 1], 200);
+        }
+    }
+
+    @Test
+    public void extract_givesZerosForAnEmptySource() throws Exception {
+        short[] peaks = peaks(5);
+        WavFiles.write(wav, SAMPLE_RATE, 2, new short[0]);
+        WavSource source = new WavSource(wav);
+        try {
+            new WaveformPeaks().extract(source, BUCKETS, peaks);
+        } finally {
+            source.close();
+        }
+        for (short peak : peaks) {
+            assertEquals(0, peak);
+        }
+    }
+
+    @Test
+    public void get_servesTheStoredPeaksAsAReadOnlyView() throws Exception {
+        short[] peaks = extract(sine(0.25));
+        WaveformCache cache = new WaveformCache(cacheFile, BUCKETS, THREE_SLOTS);
+        assertNull(cache.get(7, 1000));
+        cache.put(7, 1000, peaks);
+
+        ShortBuffer view = cache.get(7, 1000);
+        assertTrue(view.isReadOnly());
+        assertEquals(BUCKETS * 2, view.remaining());
+        for (int i = 0; i < peaks.length; i++) {
+            assertEquals(peaks[i], view.get(i));
+        }
+        /*Stale once the file changed*/
+        assertNull(cache.get(7, 2000));
+    }
+
+    @Test
+    public void get_readsTheMappingWithoutCopying() throws Exception {
+        WaveformCache cache = new WaveformCache(cacheFile, BUCKETS, THREE_SLOTS);
+        cache.put(7, 1000, peaks(100));
+        ShortBuffer view = cache.get(7, 1000);
+        cache.put(7, 1000, peaks(200));
+        assertEquals(200, view.get(1));
+    }
+
+    @Test
+    public void reopen_keepsThePeaks() throws Exception {
+        short[] peaks = extract(sine(0.75));
+        WaveformCache cache = new WaveformCache(cacheFile, BUCKETS, THREE_SLOTS);
+        cache.put(3, 1000, peaks);
+        cache.put(4, 1000, peaks(10));
+        cache.flush();
+
+        WaveformCache reopened = new WaveformCache(cacheFile, BUCKETS, THREE_SLOTS);
+        assertEquals(2, reopened.size());
+        ShortBuffer view = reopened.get(3, 1000);
+        for (int i = 0; i < peaks.length; i++) {
+            assertEquals(peaks[i], view.get(i));
+        }
+    }
+
+    @Test
+    public void reopen_withAnotherLayoutStartsOver() throws Exception {
+        WaveformCache cache = new WaveformCache(cacheFile, BUCKETS, THREE_SLOTS);
+        cache.put(3, 1000, peaks(10));
+        cache.flush();
+
+        WaveformCache reopened = new WaveformCache(cacheFile, BUCKETS / 2, THREE_SLOTS);
+        assertEquals(0, reopened.size());
+        assertNull(reopened.get(3, 1000));
+    }
+
+    @Test
+    public void put_evictsTheLeastRecentlyUsedTrackOnceTheBudgetIsFull() throws Exception {
+        WaveformCache cache = new WaveformCache(cacheFile, BUCKETS, THREE_SLOTS);
+        assertEquals(3, cache.getSlotCount());
+        cache.put(1, 1000, peaks(1));
+        cache.put(2, 1000, peaks(2));
+        cache.put(3, 1000, peaks(3));
+        /*1 is used again, 2 is now the oldest*/
+        assertNotNull(cache.get(1, 1000));
+        cache.put(4, 1000, peaks(4));
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(2, 1000));
+        assertEquals(1, cache.get(1, 1000).get(1));
+        assertEquals(3, cache.get(3, 1000).get(1));
+        assertEquals(4, cache.get(4, 1000).get(1));
+        assertEquals(THREE_SLOTS, cacheFile.length());
+    }
+}
@@ -0,0 +1,85 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Building the library model from scanned rows, as the scan loop does: one Audio object per row
+ * like the original ArrayList, the columnar AudioLibrary, and AudioLibrary filled by scanner pages.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class LibraryConstructionBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int trackCount;
+
+    /*Rows as they come out of the cursor*/
+    private String[] data;
+    private String[] titles;
+    private String[] albums;
+    private String[] artists;
+    private long[] albumIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Audio> tracks = SyntheticTracks.create(trackCount);
+        data = new String[trackCount];
+        titles = new String[trackCount];
+        albums = new String[trackCount];
+        artists = new String[trackCount];
+        albumIds = new long[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            Audio audio = tracks.get(i);
+            data[i] = audio.getData();
+            titles[i] = audio.getTitle();
+            albums[i] = audio.getAlbum();
+            artists[i] = audio.getArtist();
+            albumIds[i] = audio.getAlbumId();
+        }
+    }
+
+    @Benchmark
+    public List<Audio> audioObjects() {
+        List<Audio> list = new ArrayList<>();
+        for (int i = 0; i < trackCount; i++) {
+            list.add(new Audio(data[i], titles[i], albums[i], artists[i], albumIds[i]));
+        }
+        return list;
+    }
+
+    @Benchmark
+    public AudioLibrary audioLibrary() {
+        AudioLibrary library = new AudioLibrary();
+        for (int i = 0; i < trackCount; i++) {
+            library.add(i, data[i], titles[i], albums[i], artists[i], albumIds[i]);
+        }
+        return library;
+    }
+
+    /*Pages of the size AudioScanner delivers, appended to the adapter's library*/
+    @Benchmark
+    public AudioLibrary audioLibraryPaged() {
+        AudioLibrary library = new AudioLibrary();
+        AudioLibrary page = new AudioLibrary();
+        for (int i = 0; i < trackCount; i++) {
+            page.add(i, data[i], titles[i], albums[i], artists[i], albumIds[i]);
+            if (page.size() == 500) {
+                library.addAll(page);
+                page = new AudioLibrary();
+            }
+        }
+        library.addAll(page);
+        return library;
+    }
+}
@@ -0,0 +1,126 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap the library model holds: one Audio object per track in an ArrayList, as before the
+ * AudioLibrary, against the columnar AudioLibrary. The first build of every iteration is measured
+ * after a forced GC and reported as the retainedBytes counter next to the build time.
+ * Run with -prof gc for the bytes allocated per build as well.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class LibraryMemoryBenchmark {
+
+    @Param({"10000", "100000"})
+    public int trackCount;
+
+    private String[] data;
+    private String[] titles;
+    private String[] albums;
+    private String[] artists;
+    private long[] albumIds;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+
+        /*Bytes the model built first in the iteration still holds after a full GC*/
+        public long retainedBytes;
+
+        private boolean measuring;
+        private long baseline;
+        /*The measured model, reachable until the next iteration*/
+        private Object model;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+            model = null;
+            measuring = true;
+        }
+
+        void beforeBuild() {
+            if (measuring) {
+                baseline = usedHeap();
+            }
+        }
+
+        void afterBuild(Object built) {
+            if (measuring) {
+                model = built;
+                retainedBytes = usedHeap() - baseline;
+                measuring = false;
+            }
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            /*A single request may leave garbage behind, the reading settles after a few*/
+            for (int i = 0; i < 4; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Audio> tracks = SyntheticTracks.create(trackCount);
+        data = new String[trackCount];
+        titles = new String[trackCount];
+        albums = new String[trackCount];
+        artists = new String[trackCount];
+        albumIds = new long[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            Audio audio = tracks.get(i);
+            data[i] = audio.getData();
+            titles[i] = audio.getTitle();
+            albums[i] = audio.getAlbum();
+            artists[i] = audio.getArtist();
+            albumIds[i] = audio.getAlbumId();
+        }
+    }
+
+    @Benchmark
+    public List<Audio> audioObjects(Heap heap) {
+        heap.beforeBuild();
+        List<Audio> list = new ArrayList<>();
+        for (int i = 0; i < trackCount; i++) {
+            list.add(new Audio(row(data[i]), row(titles[i]), row(albums[i]),
+                    row(artists[i]), albumIds[i]));
+        }
+        heap.afterBuild(list);
+        return list;
+    }
+
+    @Benchmark
+    public AudioLibrary audioLibrary(Heap heap) {
+        heap.beforeBuild();
+        AudioLibrary library = new AudioLibrary();
+        for (int i = 0; i < trackCount; i++) {
+            library.add(i, row(data[i]), row(titles[i]), row(albums[i]),
+                    row(artists[i]), albumIds[i]);
+        }
+        heap.afterBuild(library);
+        return library;
+    }
+
+    /*The cursor hands out new Strings for every row, the models must not share the ones kept here.
+    * new String(String) would share the characters*/
+    private static String row(String value) {
+        return new String(value.toCharArray());
+    }
+}
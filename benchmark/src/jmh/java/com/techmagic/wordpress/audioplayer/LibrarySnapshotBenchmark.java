@@ -0,0 +1,57 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a cold start pays before the first rows are shown: reading the library index and the
+ * resolved album art paths from the LibrarySnapshot.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class LibrarySnapshotBenchmark {
+
+    @Param({"10000", "40000"})
+    public int trackCount;
+
+    private File snapshotFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AudioLibrary library = SyntheticTracks.createLibrary(trackCount);
+        int[] ids = new int[trackCount];
+        long[] modified = new long[trackCount];
+        Map<Long, String> artPaths = new HashMap<>();
+        for (int i = 0; i < trackCount; i++) {
+            ids[i] = library.getId(i);
+            modified[i] = 1500000000L + i;
+            artPaths.put(library.getAlbumId(i), "/storage/emulated/0/Android/data/com.android.providers.media/albumthumbs/" + library.getAlbumId(i));
+        }
+        LibraryIndex index = LibraryIndex.create(library, ids, modified);
+        snapshotFile = File.createTempFile("library", ".snapshot");
+        LibrarySnapshot.write(snapshotFile, index, artPaths);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    @Benchmark
+    public LibraryIndex snapshotRead() throws IOException {
+        return LibrarySnapshot.read(snapshotFile).getIndex();
+    }
+}
@@ -0,0 +1,92 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loudness of 16 WAV files of 30 seconds of 44.1kHz stereo noise, on one worker against a worker
+ * per core. Every invocation starts from an empty cache, the reported time is for all 16 files.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class LoudnessBenchmark {
+
+    private static final int FILE_COUNT = 16;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SAMPLES = SAMPLE_RATE * 2 * 30;
+
+    /*0 is a worker per core*/
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private File dir;
+    private List<String> paths;
+    private LoudnessScanner scanner;
+    private LoudnessCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("loudness", "");
+        dir.delete();
+        dir.mkdir();
+        paths = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < FILE_COUNT; i++) {
+            File file = new File(dir, "track" + i + ".wav");
+            writeNoise(file, random, 1000 + i * 1000);
+            paths.add(file.getPath());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (String path : paths) {
+            new File(path).delete();
+        }
+        dir.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void newScanner() {
+        cache = new LoudnessCache();
+        LoudnessScanner.SourceFactory factory = new LoudnessScanner.SourceFactory() {
+            @Override
+            public PcmSource open(String path) throws IOException {
+                return new WavSource(new File(path));
+            }
+        };
+        scanner = parallelism == 0 ? new LoudnessScanner(cache, factory) : new LoudnessScanner(cache, factory, parallelism);
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdownScanner() {
+        scanner.shutdown();
+    }
+
+    @Benchmark
+    public int scan() {
+        return scanner.scan(paths);
+    }
+
+    private static void writeNoise(File file, Random random, int amplitude) throws IOException {
+        short[] samples = new short[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = (short) (random.nextInt(2 * amplitude + 1) - amplitude);
+        }
+        WavFiles.write(file, SAMPLE_RATE, 2, samples);
+    }
+}
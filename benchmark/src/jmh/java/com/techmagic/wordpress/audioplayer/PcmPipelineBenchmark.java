@@ -0,0 +1,59 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Ten seconds of 44.1kHz stereo WAV through the PcmPipeline into a NullSink, for chunk sizes
+ * from 5ms to 50ms. The ring holds about a third of a second, the reported time is for the whole file.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class PcmPipelineBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int SAMPLES = SAMPLE_RATE * CHANNELS * 10;
+    private static final int BUFFER_SAMPLES = 32 * 1024;
+
+    @Param({"512", "4096"})
+    public int chunkSamples;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("pcm", ".wav");
+        short[] samples = new short[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            /*A quiet saw wave*/
+            samples[i] = (short) ((i % 200) * 50 - 5000);
+        }
+        WavFiles.write(file, SAMPLE_RATE, CHANNELS, samples);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long playFile() throws Exception {
+        PcmPipeline pipeline = new PcmPipeline(new WavSource(file), new NullSink(), BUFFER_SAMPLES, chunkSamples);
+        pipeline.start();
+        pipeline.awaitCompletion(60000);
+        pipeline.stop();
+        return pipeline.getSamplesWritten() + pipeline.getUnderruns();
+    }
+}
@@ -0,0 +1,123 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mutation and navigation of the PlayQueue at up to 100k entries, in list order and in shuffle,
+ * against "play next" on a boxed ArrayList of positions. Also building and saving the queue.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class PlayQueueBenchmark {
+
+    private static final int OPERATIONS = 1000;
+
+    @Param({"1000", "100000"})
+    public int entryCount;
+
+    @Param({"false", "true"})
+    public boolean shuffle;
+
+    private PlayQueue queue;
+    private List<Integer> boxed;
+    private int[] moves;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        queue = new PlayQueue(new Random(1));
+        queue.reset(entryCount, entryCount / 2);
+        queue.setShuffle(shuffle);
+        queue.setRepeatMode(PlayQueue.REPEAT_ALL);
+        boxed = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            boxed.add(i);
+        }
+        /*Fresh entries are numbered like the positions, moving them keeps them valid*/
+        Random random = new Random(2);
+        moves = new int[OPERATIONS * 2];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = random.nextInt(entryCount);
+        }
+        file = File.createTempFile("queue", ".bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int insertNextAndRemove() {
+        int sum = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            int entry = queue.insertNext(i);
+            sum += entry;
+            queue.remove(entry);
+        }
+        return sum;
+    }
+
+    /*The same on a List<Integer> with the current position in the middle*/
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int boxedInsertNextAndRemove() {
+        int sum = 0;
+        int next = entryCount / 2 + 1;
+        for (int i = 0; i < OPERATIONS; i++) {
+            boxed.add(next, i);
+            sum += boxed.remove(next);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void moveAfter() {
+        for (int i = 0; i < moves.length; i += 2) {
+            if (moves[i] != moves[i + 1]) {
+                queue.moveAfter(moves[i], moves[i + 1]);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int skipToNext() {
+        int sum = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            sum += queue.skipToNext();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public PlayQueue reset() {
+        PlayQueue built = new PlayQueue(new Random(1));
+        built.setShuffle(shuffle);
+        built.reset(entryCount, 0);
+        return built;
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        queue.save(file);
+    }
+}
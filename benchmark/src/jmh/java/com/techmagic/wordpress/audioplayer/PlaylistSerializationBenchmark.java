@@ -0,0 +1,88 @@
+package com.techmagic.wordpress.audioplayer;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storing and loading the playlist: the legacy Gson json string that StorageUtil kept in
+ * SharedPreferences against the binary PlaylistFile it writes now.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class PlaylistSerializationBenchmark {
+
+    @Param({"1000", "10000"})
+    public int trackCount;
+
+    private final Gson gson = new Gson();
+    private final Type listType = new TypeToken<ArrayList<Audio>>(){}.getType();
+    private List<Audio> list;
+    private AudioLibrary library;
+    private String json;
+    private File file;
+    private File scratchFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        list = SyntheticTracks.create(trackCount);
+        library = AudioLibrary.fromList(list);
+        json = gson.toJson(list);
+        file = File.createTempFile("playlist", ".bin");
+        scratchFile = File.createTempFile("playlist-write", ".bin");
+        PlaylistFile.write(file, library);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        scratchFile.delete();
+    }
+
+    @Benchmark
+    public String gsonWrite() {
+        return gson.toJson(list);
+    }
+
+    @Benchmark
+    public List<Audio> gsonRead() {
+        return gson.fromJson(json, listType);
+    }
+
+    @Benchmark
+    public long playlistFileWrite() throws IOException {
+        PlaylistFile.write(scratchFile, library);
+        return scratchFile.length();
+    }
+
+    /*Opening is what the service pays on a cold start, entries are decoded when they're used*/
+    @Benchmark
+    public int playlistFileOpen() throws IOException {
+        return PlaylistFile.open(file).size();
+    }
+
+    @Benchmark
+    public void playlistFileReadAll(Blackhole blackhole) throws IOException {
+        PlaylistFile.Reader reader = PlaylistFile.open(file);
+        for (int i = 0; i < reader.size(); i++) {
+            blackhole.consume(reader.getAudio(i));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The skips of MediaPlayerService: a PlayQueue move and resolving the audio to play, against the
+ * in memory playlist snapshot and against the playlist file the service restores from, in list order
+ * and in shuffle. See PlayQueueBenchmark for the rest of the queue.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class QueueNavigationBenchmark {
+
+    private static final int SKIPS = 1000;
+
+    @Param({"1000", "100000"})
+    public int trackCount;
+
+    @Param({"false", "true"})
+    public boolean shuffle;
+
+    private Playlist snapshot;
+    private PlaylistFile.Reader reader;
+    private File file;
+    private PlayQueue playQueue;
+    /*Shuffle: a whole round played through, skipToPrevious goes back from a copy of it again at the start*/
+    private PlayQueue playedRound;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AudioLibrary library = SyntheticTracks.createLibrary(trackCount);
+        snapshot = library.snapshot();
+        file = File.createTempFile("playlist", ".bin");
+        PlaylistFile.write(file, library);
+        reader = PlaylistFile.open(file);
+        playQueue = new PlayQueue(new Random(1));
+        playQueue.reset(trackCount, 0);
+        playQueue.setShuffle(shuffle);
+        if (shuffle) {
+            for (int i = 1; i < trackCount; i++) {
+                playQueue.skipToNext();
+            }
+            playedRound = playQueue.snapshot();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SKIPS)
+    public void skipToNextSnapshot(Blackhole blackhole) {
+        skipToNext(snapshot, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SKIPS)
+    public void skipToPreviousSnapshot(Blackhole blackhole) {
+        skipToPrevious(snapshot, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SKIPS)
+    public void skipToNextFile(Blackhole blackhole) {
+        skipToNext(reader, blackhole);
+    }
+
+    private void skipToNext(Playlist audioList, Blackhole blackhole) {
+        for (int i = 0; i < SKIPS; i++) {
+            int index = playQueue.skipToNext();
+            if (index != PlayQueue.NONE) {
+                blackhole.consume(audioList.getAudio(index));
+            }
+        }
+    }
+
+    /*In shuffle it stops at the start of the round, copying the played round there adds a few
+    * int copies per skip*/
+    private void skipToPrevious(Playlist audioList, Blackhole blackhole) {
+        for (int i = 0; i < SKIPS; i++) {
+            int index = playQueue.skipToPrevious();
+            if (index == PlayQueue.NONE) {
+                playQueue = playedRound.snapshot();
+                index = playQueue.skipToPrevious();
+            }
+            blackhole.consume(audioList.getAudio(index));
+        }
+    }
+}
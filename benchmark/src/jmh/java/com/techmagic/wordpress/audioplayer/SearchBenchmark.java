@@ -0,0 +1,67 @@
+package com.techmagic.wordpress.audioplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Search latency per keystroke on a 100k track library, which has to stay well below a 16 ms frame,
+ * against the substring scan over every track it replaces. Also the cost of building the index.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class SearchBenchmark {
+
+    @Param({"100000"})
+    public int trackCount;
+
+    /*A broad one letter prefix, a common word, two words and a miss*/
+    @Param({"t", "track", "album 12", "artist 7 track 3", "zzzz"})
+    public String query;
+
+    private AudioLibrary library;
+    private SearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = SyntheticTracks.createLibrary(trackCount);
+        index = new SearchIndex();
+        index.addRows(library, 0, library.size());
+    }
+
+    @Benchmark
+    public int[] indexSearch() {
+        return index.search(query);
+    }
+
+    @Benchmark
+    public int substringScan() {
+        String lower = query.toLowerCase();
+        int count = 0;
+        for (int i = 0; i < library.size(); i++) {
+            if (contains(library.getTitle(i), lower) || contains(library.getAlbum(i), lower)
+                    || contains(library.getArtist(i), lower)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public SearchIndex buildIndex() {
+        SearchIndex built = new SearchIndex();
+        built.addRows(library, 0, library.size());
+        return built;
+    }
+
+    private static boolean contains(String value, String lower) {
+        return value != null && value.toLowerCase().contains(lower);
+    }
+}
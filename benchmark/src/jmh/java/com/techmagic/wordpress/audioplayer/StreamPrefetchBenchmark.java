@@ -0,0 +1,139 @@
+package com.techmagic.wordpress.audioplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time to first audio on a skip to a streamed track: the first byte a player gets from the
+ * StreamProxy, for a track nobody fetched and for one the StreamPrefetcher loaded the head of.
+ * The origin is a local server that answers every request after originDelayMs. Every skip goes
+ * to a track not played before, the chunk sizes and the head are the ones MediaPlayerService uses.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class StreamPrefetchBenchmark {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int LENGTH = 8 * CHUNK_SIZE;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Param({"300"})
+    public int originDelayMs;
+
+    @Param({"false", "true"})
+    public boolean prefetched;
+
+    private final byte[] data = new byte[LENGTH];
+    private HttpServer origin;
+    private ExecutorService originExecutor;
+    private File cacheDir;
+    private StreamProxy proxy;
+    private StreamPrefetcher prefetcher;
+    private int tracks = 0;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serveOrigin(exchange);
+            }
+        });
+        originExecutor = Executors.newCachedThreadPool();
+        origin.setExecutor(originExecutor);
+        origin.start();
+        cacheDir = File.createTempFile("streams", "");
+        cacheDir.delete();
+        proxy = new StreamProxy(new ChunkCache(cacheDir, CHUNK_SIZE, 64L * CHUNK_SIZE));
+        proxy.start();
+        prefetcher = new StreamPrefetcher(proxy, 2, 2 * CHUNK_SIZE, 6 * CHUNK_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        prefetcher.shutdown();
+        proxy.stop();
+        origin.stop(0);
+        originExecutor.shutdownNow();
+        File[] files = cacheDir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        cacheDir.delete();
+    }
+
+    /*The next skip target, with its head already loaded when prefetching*/
+    @Setup(Level.Invocation)
+    public void nextTrack() throws Exception {
+        url = "http://127.0.0.1:" + origin.getAddress().getPort() + "/track" + tracks++ + ".mp3";
+        if (prefetched) {
+            prefetcher.schedule(Collections.singletonList(url));
+            if (!prefetcher.awaitIdle(10000)) {
+                throw new IllegalStateException("Prefetch of " + url + " didn't finish");
+            }
+        }
+    }
+
+    @Benchmark
+    public int firstByte() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxy.proxyUrl(url)).openConnection();
+        InputStream in = connection.getInputStream();
+        try {
+            return in.read();
+        } finally {
+            in.close();
+            connection.disconnect();
+        }
+    }
+
+    private void serveOrigin(HttpExchange exchange) throws IOException {
+        try {
+            Matcher matcher = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+            if (!matcher.matches()) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            Thread.sleep(originDelayMs);
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(LENGTH - 1, Integer.parseInt(matcher.group(2)));
+            exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + LENGTH);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            OutputStream out = exchange.getResponseBody();
+            out.write(data, start, end - start + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.techmagic.wordpress.audioplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a deterministic library shaped like a real one: a few hundred artists,
+ * about ten tracks per album and MediaStore like file paths.
+ */
+
+class SyntheticTracks {
+
+    static final int TRACKS_PER_ALBUM = 10;
+    static final int ALBUMS_PER_ARTIST = 4;
+
+    static List<Audio> create(int count) {
+        Random random = new Random(count);
+        List<Audio> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int album = i / TRACKS_PER_ALBUM;
+            int artist = album / ALBUMS_PER_ARTIST;
+            String title = "Track " + (i % TRACKS_PER_ALBUM + 1) + " " + Long.toString(random.nextLong() & 0xffffff, 36);
+            String data = "/storage/emulated/0/Music/Artist " + artist + "/Album " + album + "/" + title + ".mp3";
+            list.add(new Audio(data, title, "Album " + album, "Artist " + artist, album));
+        }
+        return list;
+    }
+
+    static AudioLibrary createLibrary(int count) {
+        return AudioLibrary.fromList(create(count));
+    }
+}